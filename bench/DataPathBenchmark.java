@@ -0,0 +1,201 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Measures the download data path against a RangeServer on loopback, so results don't depend on
+// a network and can be compared between commits on the same machine:
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out DataPathBenchmark
+//
+// Every configuration runs in a fresh JVM with a fixed heap, like a JMH fork: the buffer size is
+// fixed at startup, and JIT state, pooled buffers and host profiles can't leak from one
+// configuration into the next. The server stays in this process, so the fork's allocation and CPU
+// figures only contain the downloader. Configurations are the cross product of
+//
+//   -Dbench.buffers=64,256,1024     pool buffer size in KB
+//   -Dbench.segments=1,4,8          range connections of a segmented download
+//   -Dbench.storage=PREALLOCATED,PART_FILES
+//
+// plus one single-connection run per buffer size. -Dbench.size (MB, default 128),
+// -Dbench.warmup (2) and -Dbench.iterations (5) set the work per configuration.
+class DataPathBenchmark {
+    private static final String FORK = "--fork";
+    private static final String SINGLE = "single";
+    private static final String RESULT = "RESULT";
+    private static final long GB = 1L << 30;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(FORK)) {
+            runFork(args);
+            return;
+        }
+
+        int size = Integer.getInteger("bench.size", 128) << 20;
+        int warmup = Integer.getInteger("bench.warmup", 2);
+        int iterations = Integer.getInteger("bench.iterations", 5);
+        int[] buffers = ints(System.getProperty("bench.buffers", "64,256,1024"));
+        int[] segments = ints(System.getProperty("bench.segments", "1,4,8"));
+        String[] storages = System.getProperty("bench.storage", "PREALLOCATED,PART_FILES").split(",");
+
+        System.out.printf("%d MB file, %d warmup + %d measured iterations per configuration%n",
+                size >> 20, warmup, iterations);
+        System.out.printf("%-12s %-13s %9s %10s %9s %14s %12s%n",
+                "path", "storage", "buffer KB", "segments", "MB/s", "alloc MB/GB", "CPU s/GB");
+
+        try (RangeServer ranged = new RangeServer(size, 42, true);
+                RangeServer plain = new RangeServer(size, 42, false)) {
+            for (int buffer : buffers) {
+                run(plain.url("/bench.bin"), SINGLE, buffer, 1, "PREALLOCATED", warmup, iterations, size);
+                for (String storage : storages) {
+                    for (int connections : segments) {
+                        run(ranged.url("/bench.bin"), "segmented", buffer, connections, storage.trim(),
+                                warmup, iterations, size);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(String url, String path, int bufferKb, int connections, String storage, int warmup,
+            int iterations, int size) throws IOException, InterruptedException {
+        File workDir = Files.createTempDirectory("dm-bench").toFile();
+        List<String> command = new ArrayList<>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xms512m", "-Xmx512m",
+                "-Djava.awt.headless=true",
+                "-D" + BufferPool.BUFFER_PROPERTY + "=" + bufferKb,
+                "-cp", System.getProperty("java.class.path"),
+                DataPathBenchmark.class.getName(), FORK,
+                url, path, String.valueOf(connections), storage,
+                String.valueOf(warmup), String.valueOf(iterations), String.valueOf(size)));
+        Process process = new ProcessBuilder(command).directory(workDir).redirectErrorStream(true).start();
+
+        List<double[]> samples = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    String[] fields = line.split(" ");
+                    samples.add(new double[] { Double.parseDouble(fields[1]), Double.parseDouble(fields[2]),
+                            Double.parseDouble(fields[3]) });
+                } else {
+                    System.err.println("  " + line);
+                }
+            }
+        }
+        int exit = process.waitFor();
+        deleteTree(workDir);
+        if (exit != 0 || samples.isEmpty()) {
+            System.out.printf("%-12s %-13s %9d %10d   failed with exit code %d%n",
+                    path, storage, bufferKb, connections, exit);
+            return;
+        }
+
+        double[] throughput = new double[samples.size()];
+        double allocated = 0;
+        double cpu = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            double seconds = samples.get(i)[0] / 1e9;
+            throughput[i] = size / seconds / (1 << 20);
+            allocated += samples.get(i)[1];
+            cpu += samples.get(i)[2];
+        }
+        double gigabytes = (double) size * samples.size() / GB;
+        System.out.printf("%-12s %-13s %9d %10s %5.0f +-%3.0f %14.1f %12.3f%n",
+                path, storage, bufferKb, path.equals(SINGLE) ? "-" : String.valueOf(connections),
+                mean(throughput), stddev(throughput), allocated / (1 << 20) / gigabytes, cpu / 1e9 / gigabytes);
+    }
+
+    // Runs in the forked JVM; prints one RESULT line per measured iteration: nanoseconds,
+    // bytes allocated by all threads and process CPU nanoseconds
+    private static void runFork(String[] args) throws Exception {
+        String url = args[1];
+        int connections = Integer.parseInt(args[3]);
+        StorageMode storage = StorageMode.valueOf(args[4]);
+        int warmup = Integer.parseInt(args[5]);
+        int iterations = Integer.parseInt(args[6]);
+        long size = Long.parseLong(args[7]);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        File dir = new File("downloads");
+        dir.mkdirs();
+
+        try (DownloadEngine engine = new DownloadEngine()) {
+            // The budget caps the connections, so the controller can't add any on longer runs
+            engine.setMaxConnections(connections);
+            for (int i = 0; i < warmup + iterations; i++) {
+                File target = new File(dir, "bench.bin");
+                target.delete();
+                // Seeds the starting connection count and keeps small files on the segmented path
+                HostProfileStore.shared().put("127.0.0.1", new HostProfileStore.HostProfile(connections, 1, 1));
+                // A new URL each time, or the second run would come out of the download cache
+                DownloadTask task = engine.newTask(url + "?iteration=" + i, dir.getPath());
+                task.setFileName(target.getName());
+                task.setStorageMode(storage);
+                System.gc();
+
+                long allocatedBefore = threads.getTotalThreadAllocatedBytes();
+                long cpuBefore = os.getProcessCpuTime();
+                long start = System.nanoTime();
+                engine.submit(task).get(10, TimeUnit.MINUTES);
+                long nanos = System.nanoTime() - start;
+                long cpu = os.getProcessCpuTime() - cpuBefore;
+                long allocated = threads.getTotalThreadAllocatedBytes() - allocatedBefore;
+
+                if (target.length() != size) {
+                    throw new IOException("Downloaded " + target.length() + " bytes instead of " + size);
+                }
+                if (i >= warmup) {
+                    System.out.println(RESULT + " " + nanos + " " + allocated + " " + cpu);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static int[] ints(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double stddev(double[] values) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double mean = mean(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pushes many URLs through one DownloadEngine against an OriginSimulator, one scenario after
+// the other, and reports per scenario how many downloads completed, how many ended with bytes
+// that differ from what the origin serves, throughput, and p50/p99 completion times from submit.
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out LoadDriver
+//
+// Run it from a scratch directory: the engine keeps its host profiles in the working directory.
+// -Dload.scenarios picks scenarios by name (default all), -Dload.urls sets URLs per scenario
+// (default 1000), -Dload.active the concurrent downloads (16), -Dload.minKb / -Dload.maxKb
+// the file sizes (256 / 4096) and -Dload.connections the connections a download starts with (4).
+// The host profile is seeded so that every file above twice the minimum split size takes the
+// segmented path and meets the range faults, and smaller ones cover the single-connection path;
+// -Dload.connections=0 leaves the split to what the engine learns about the host.
+class LoadDriver {
+    private static final String[] SCENARIOS = {
+        "clean", "slow-connections", "latency", "resets", "errors", "throttled", "no-ranges",
+        "full-body-ranges", "shifted-ranges", "capped-ranges", "etag-changes", "everything"
+    };
+    private static final long TIMEOUT_MINUTES = 30;
+
+    public static void main(String[] args) throws Exception {
+        String[] scenarios = System.getProperty("load.scenarios", String.join(",", SCENARIOS)).split(",");
+        int urls = Integer.getInteger("load.urls", 1000);
+        int active = Integer.getInteger("load.active", 16);
+        int minSize = Integer.getInteger("load.minKb", 256) << 10;
+        int maxSize = Integer.getInteger("load.maxKb", 4096) << 10;
+        int connections = Integer.getInteger("load.connections", 4);
+
+        System.out.printf("%d URLs per scenario, %d at a time, %d-%d KB each%n", urls, active, minSize >> 10,
+                maxSize >> 10);
+        System.out.printf("%-18s %9s %7s %7s %8s %9s %9s %9s %9s %s%n", "scenario", "completed", "failed", "wrong",
+                "MB/s", "p50 ms", "p99 ms", "max ms", "requests", "injected faults");
+        for (String scenario : scenarios) {
+            run(scenario.trim(), urls, active, minSize, maxSize, connections);
+        }
+        System.exit(0);
+    }
+
+    private static void configure(String scenario, OriginSimulator origin) {
+        switch (scenario) {
+            case "clean":
+                break;
+            case "slow-connections":
+                origin.setBytesPerSecondPerConnection(1024 * 1024);
+                break;
+            case "latency":
+                origin.setLatencyMillis(100);
+                break;
+            case "resets":
+                origin.setResetRate(0.05);
+                break;
+            case "errors":
+                origin.setErrorRate(0.02);
+                break;
+            case "throttled":
+                origin.setThrottleRate(0.02);
+                origin.setMaxConcurrent(48);
+                break;
+            case "no-ranges":
+                origin.setRangeSupport(OriginSimulator.RangeSupport.NONE);
+                break;
+            case "full-body-ranges":
+                origin.setRangeSupport(OriginSimulator.RangeSupport.FULL_BODY);
+                break;
+            case "shifted-ranges":
+                origin.setRangeSupport(OriginSimulator.RangeSupport.SHIFTED);
+                break;
+            case "capped-ranges":
+                origin.setRangeSupport(OriginSimulator.RangeSupport.CAPPED);
+                break;
+            case "etag-changes":
+                origin.setEtagChangeRate(0.01);
+                break;
+            case "everything":
+                origin.setBytesPerSecondPerConnection(4 * 1024 * 1024);
+                origin.setLatencyMillis(20);
+                origin.setResetRate(0.02);
+                origin.setErrorRate(0.01);
+                origin.setThrottleRate(0.01);
+                origin.setEtagChangeRate(0.005);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario + ", known: "
+                        + String.join(", ", SCENARIOS));
+        }
+    }
+
+    private static void run(String scenario, int urls, int active, int minSize, int maxSize, int connections)
+            throws Exception {
+        File dir = Files.createTempDirectory("dm-load").toFile();
+        long[] completionNanos = new long[urls];
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger wrong = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(urls);
+
+        try (OriginSimulator origin = new OriginSimulator(scenario.hashCode());
+                DownloadEngine engine = new DownloadEngine()) {
+            origin.setFileSizes(minSize, maxSize);
+            configure(scenario, origin);
+            engine.setMaxActive(active);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < urls; i++) {
+                int id = i;
+                if (connections > 0) {
+                    // Finished downloads keep updating the profile, so it is put back every time
+                    HostProfileStore.shared().put("127.0.0.1", new HostProfileStore.HostProfile(connections, 1, 1));
+                }
+                DownloadTask task = engine.newTask(origin.url(id), dir.getPath());
+                // Every URL is new anyway; keeps thousands of entries out of the cache file
+                task.setCache(null);
+                long submitted = System.nanoTime();
+                CompletableFuture<File> future = engine.submit(task);
+                future.whenComplete((file, error) -> {
+                    completionNanos[id] = System.nanoTime() - submitted;
+                    try {
+                        if (error != null) {
+                            failed.incrementAndGet();
+                        } else {
+                            completed.incrementAndGet();
+                            bytes.addAndGet(file.length());
+                            if (!matches(file, origin.digest(id))) {
+                                wrong.incrementAndGet();
+                            }
+                            file.delete();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            if (!done.await(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                System.out.printf("%-18s timed out after %d minutes with %d downloads unfinished%n", scenario,
+                        TIMEOUT_MINUTES, done.getCount());
+                return;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long[] sorted = completionNanos.clone();
+            Arrays.sort(sorted);
+            System.out.printf("%-18s %9d %7d %7d %8.1f %9d %9d %9d %9d %s%n", scenario, completed.get(),
+                    failed.get(), wrong.get(), bytes.get() / seconds / (1 << 20), millis(percentile(sorted, 50)),
+                    millis(percentile(sorted, 99)), millis(sorted[sorted.length - 1]), origin.requests.get(),
+                    faults(origin));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static boolean matches(File file, byte[] expected) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.isEqual(expected, digest.digest(Files.readAllBytes(file.toPath())));
+        } catch (IOException | java.security.NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    private static String faults(OriginSimulator origin) {
+        List<String> faults = new ArrayList<>();
+        if (origin.resets.get() > 0) {
+            faults.add(origin.resets.get() + " resets");
+        }
+        if (origin.errors.get() > 0) {
+            faults.add(origin.errors.get() + " errors");
+        }
+        if (origin.throttled.get() > 0) {
+            faults.add(origin.throttled.get() + " throttled");
+        }
+        if (origin.etagChanges.get() > 0) {
+            faults.add(origin.etagChanges.get() + " ETag changes");
+        }
+        return faults.isEmpty() ? "-" : String.join(", ", faults);
+    }
+
+    // Nearest rank
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
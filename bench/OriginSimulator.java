@@ -0,0 +1,320 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A misbehaving origin for load and fault tests. It serves any number of files under
+// /files/<id>.bin, each with a size and content derived from its id, so nothing is held in
+// memory and the expected digest can be computed on the client side. Every fault can be changed
+// while requests are running: per-connection bandwidth, first-byte latency, connections dropped
+// mid-body, HTTP errors, a cap on concurrent requests, files that change under their URL, and
+// servers that claim ranges but don't honour them.
+class OriginSimulator implements AutoCloseable {
+    private static final int WRITE_CHUNK = 16 * 1024;
+    static final int CAPPED_RANGE_SIZE = 256 * 1024;
+
+    enum RangeSupport {
+        // 206 with exactly the requested bytes
+        HONEST,
+        // No Accept-Ranges, every GET is a 200 with the whole file
+        NONE,
+        // Advertises Accept-Ranges but answers range requests with a 200 and the whole file
+        FULL_BODY,
+        // 206 and the requested Content-Range, but the bytes start a little further on
+        SHIFTED,
+        // 206 with at most CAPPED_RANGE_SIZE bytes from the requested start, like CDNs that cap ranges
+        CAPPED
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long seed;
+    // A file's version only moves forward; the ETag and the content follow it
+    private final Map<Integer, AtomicInteger> versions = new ConcurrentHashMap<>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+
+    private volatile int minFileSize = 64 * 1024;
+    private volatile int maxFileSize = 2 * 1024 * 1024;
+    private volatile long bytesPerSecondPerConnection;
+    private volatile long latencyMillis;
+    private volatile double resetRate;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile double etagChangeRate;
+    private volatile int maxConcurrent;
+    private volatile RangeSupport rangeSupport = RangeSupport.HONEST;
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong bytesServed = new AtomicLong();
+    final AtomicLong resets = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong throttled = new AtomicLong();
+    final AtomicLong etagChanges = new AtomicLong();
+
+    OriginSimulator(long seed) throws IOException {
+        this.seed = seed;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/files/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url(int id) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/files/" + id + ".bin";
+    }
+
+    void setFileSizes(int min, int max) {
+        this.minFileSize = min;
+        this.maxFileSize = Math.max(min, max);
+    }
+
+    // 0 means unlimited
+    void setBytesPerSecondPerConnection(long bytesPerSecond) {
+        this.bytesPerSecondPerConnection = bytesPerSecond;
+    }
+
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    // Share of GET responses that are cut off somewhere inside the body
+    void setResetRate(double resetRate) {
+        this.resetRate = resetRate;
+    }
+
+    // Share of requests answered with a 500
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    // Share of requests answered with a 503 and Retry-After
+    void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    // Share of GETs after which the file has a new version
+    void setEtagChangeRate(double etagChangeRate) {
+        this.etagChangeRate = etagChangeRate;
+    }
+
+    // Requests beyond this many at once get a 429; 0 means no cap
+    void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    void setRangeSupport(RangeSupport rangeSupport) {
+        this.rangeSupport = rangeSupport;
+    }
+
+    int fileSize(int id) {
+        long span = maxFileSize - minFileSize + 1L;
+        return (int) (minFileSize + Math.floorMod(mix(seed ^ id * 0x9E3779B97F4A7C15L), span));
+    }
+
+    int version(int id) {
+        return versionOf(id).get();
+    }
+
+    // SHA-256 of the file as it is now, for checking what a client downloaded
+    byte[] digest(int id) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int size = fileSize(id);
+        long fileSeed = fileSeed(id, version(id));
+        byte[] chunk = new byte[64 * 1024];
+        for (long position = 0; position < size; position += chunk.length) {
+            int length = (int) Math.min(chunk.length, size - position);
+            fill(chunk, length, fileSeed, position);
+            digest.update(chunk, 0, length);
+        }
+        return digest.digest();
+    }
+
+    private AtomicInteger versionOf(int id) {
+        return versions.computeIfAbsent(id, i -> new AtomicInteger());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        int active = concurrent.incrementAndGet();
+        try {
+            serve(exchange, active);
+            exchange.close();
+        } catch (ConnectionReset e) {
+            // An exception out of the handler makes the server drop the connection; closing the
+            // exchange instead would leave it open with the body unfinished
+            throw e;
+        } catch (IOException | InterruptedException e) {
+            // The client went away
+            exchange.close();
+        } finally {
+            concurrent.decrementAndGet();
+        }
+    }
+
+    private void serve(HttpExchange exchange, int active) throws IOException, InterruptedException {
+        String name = exchange.getRequestURI().getPath().substring("/files/".length());
+        int id;
+        try {
+            id = Integer.parseInt(name.substring(0, name.indexOf('.')));
+        } catch (RuntimeException e) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        int cap = maxConcurrent;
+        if (cap > 0 && active > cap) {
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            exchange.sendResponseHeaders(429, -1);
+            return;
+        }
+        if (random.nextDouble() < throttleRate) {
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            exchange.sendResponseHeaders(503, -1);
+            return;
+        }
+        if (random.nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            exchange.sendResponseHeaders(500, -1);
+            return;
+        }
+
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        AtomicInteger version = versionOf(id);
+        if (!head && random.nextDouble() < etagChangeRate) {
+            version.incrementAndGet();
+            etagChanges.incrementAndGet();
+        }
+        int currentVersion = version.get();
+        String etag = "\"" + id + "-" + currentVersion + "\"";
+        int size = fileSize(id);
+        RangeSupport ranges = rangeSupport;
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (ranges != RangeSupport.NONE) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        }
+        if (head) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(size));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        long shift = 0;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        boolean honourRange = range != null && range.startsWith("bytes=")
+                && (ranges == RangeSupport.HONEST || ranges == RangeSupport.SHIFTED || ranges == RangeSupport.CAPPED)
+                && (ifRange == null || ifRange.equals(etag));
+        if (honourRange) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            if (start > end) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (ranges == RangeSupport.CAPPED) {
+                end = Math.min(end, start + CAPPED_RANGE_SIZE - 1);
+            }
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            if (ranges == RangeSupport.SHIFTED) {
+                shift = Math.min(1024, size - 1 - end);
+            }
+        }
+
+        long length = end - start + 1;
+        // Where to cut the body off, if this response gets a reset
+        long resetAt = random.nextDouble() < resetRate ? random.nextLong(length) : -1;
+        exchange.sendResponseHeaders(status, length);
+        long fileSeed = fileSeed(id, currentVersion);
+        long limit = bytesPerSecondPerConnection;
+        long started = System.nanoTime();
+        byte[] chunk = new byte[WRITE_CHUNK];
+        OutputStream out = exchange.getResponseBody();
+        long sent = 0;
+        while (sent < length) {
+            int n = (int) Math.min(chunk.length, length - sent);
+            if (resetAt >= 0 && sent + n > resetAt) {
+                n = (int) (resetAt - sent);
+                fill(chunk, n, fileSeed, start + shift + sent);
+                out.write(chunk, 0, n);
+                out.flush();
+                resets.incrementAndGet();
+                throw new ConnectionReset();
+            }
+            fill(chunk, n, fileSeed, start + shift + sent);
+            out.write(chunk, 0, n);
+            sent += n;
+            bytesServed.addAndGet(n);
+            if (limit > 0) {
+                long due = started + sent * 1_000_000_000L / limit;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+            }
+        }
+        out.close();
+    }
+
+    private long fileSeed(int id, int version) {
+        return mix(seed ^ mix(id) ^ (long) version << 32);
+    }
+
+    // Byte i of a file is byte (i % 8) of mix(fileSeed + i / 8)
+    static void fill(byte[] chunk, int length, long fileSeed, long position) {
+        int i = 0;
+        while (i < length) {
+            long p = position + i;
+            long word = mix(fileSeed + (p >>> 3));
+            for (int b = (int) (p & 7); b < 8 && i < length; b++, i++) {
+                chunk[i] = (byte) (word >>> (b * 8));
+            }
+        }
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static class ConnectionReset extends IOException {
+        ConnectionReset() {
+            super("Injected connection reset");
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,91 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// In-process HTTP origin for the benchmarks: every path serves the same pseudo-random file from
+// memory, with HEAD, single byte ranges and a strong ETag. The content only depends on the size
+// and seed, so runs on different machines download identical bytes, and no network is involved.
+class RangeServer implements AutoCloseable {
+    private static final int WRITE_CHUNK = 256 * 1024;
+
+    private final byte[] data;
+    private final boolean ranges;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    // Without ranges the server answers like an origin without Accept-Ranges, which sends the
+    // download down the single-connection path
+    RangeServer(int size, long seed, boolean ranges) throws IOException {
+        this.data = new byte[size];
+        new Random(seed).nextBytes(data);
+        this.ranges = ranges;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().add("ETag", "\"bench-" + data.length + "\"");
+            if (ranges) {
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(data.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = data.length - 1;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (ranges && range != null && range.startsWith("bytes=")) {
+                String[] bounds = range.substring(6).split("-", -1);
+                start = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+                if (start > end) {
+                    exchange.getResponseHeaders().add("Content-Range", "bytes */" + data.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + end + "/" + data.length);
+            }
+
+            exchange.sendResponseHeaders(status, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (long position = start; position <= end; position += WRITE_CHUNK) {
+                    out.write(data, (int) position, (int) Math.min(WRITE_CHUNK, end - position + 1));
+                }
+            }
+        } catch (IOException e) {
+            // The client closed the connection, e.g. a stolen range or a retired worker
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+// The file under DownloadStore and KeyValueLog: one record of tab-separated, escaped fields per
+// line. Owners replay it into memory on open, append a line per change and rewrite it from their
+// live records once superseded lines outnumber them. Not thread-safe, owners hold their own lock.
+class AppendLog {
+    private static final int MIN_COMPACTION_LINES = 1000;
+
+    private final File file;
+    // Names the data in error messages, e.g. "download cache"
+    private final String name;
+    private BufferedWriter writer;
+    // Lines in the file, superseded and unreadable ones included
+    private long lineCount;
+
+    AppendLog(File file, String name) {
+        this.file = file;
+        this.name = name;
+    }
+
+    boolean exists() {
+        return file.exists();
+    }
+
+    long getLineCount() {
+        return lineCount;
+    }
+
+    // Hands the fields of every line to the owner, which skips a line it can't read. A write cut
+    // short by a crash leaves a last line without its newline; it is cut off so the next append
+    // starts a line of its own. Skipped lines are still counted, so the owner's rewrite drops them.
+    void replay(Consumer<String[]> apply) {
+        try {
+            truncateTornTail();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = unescape(fields[i]);
+                    }
+                    try {
+                        apply.accept(fields);
+                    } catch (RuntimeException e) {
+                        // A field that doesn't parse, same as a line the owner skips
+                    }
+                    lineCount++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading " + name + ": " + e.getMessage());
+        }
+    }
+
+    void append(String... fields) {
+        try {
+            if (writer == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            writer.write(join(fields));
+            writer.newLine();
+            writer.flush();
+            lineCount++;
+        } catch (IOException e) {
+            System.err.println("Error saving " + name + ": " + e.getMessage());
+        }
+    }
+
+    // Whether enough of the file is superseded to be worth a rewrite
+    boolean shouldCompact(long liveLines) {
+        return lineCount > MIN_COMPACTION_LINES && lineCount > liveLines * 2;
+    }
+
+    // Replaces the file with just the given records, through a temp file so a crash keeps the old one
+    void rewrite(List<String[]> records) {
+        close();
+        File temp = new File(file.getAbsoluteFile().getParent(), file.getName() + ".tmp");
+        try {
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+                for (String[] fields : records) {
+                    out.write(join(fields));
+                    out.newLine();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            lineCount = records.size();
+        } catch (IOException e) {
+            System.err.println("Error compacting " + name + ": " + e.getMessage());
+        }
+    }
+
+    void close() {
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void truncateTornTail() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            // A torn line is one record long, so this walks back over a few hundred bytes at most
+            while (end > 0) {
+                last.clear();
+                channel.read(last, end - 1);
+                if (last.get(0) == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < channel.size()) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    private static String join(String[] fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            line.append(escape(fields[i]));
+        }
+        return line.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Global download rate cap shared between running downloads in proportion to their weight.
+// One clock paces every read against the cap, and reads waiting for it go through in weighted
+// fair order: a read moves its share's virtual finish time on by bytes / weight, and the waiting
+// read with the earliest finish goes next. A download that reads less than its part, or nothing,
+// leaves the rest to the others. Without a cap a read returns before taking the lock.
+class BandwidthLimiter {
+    static final int WEIGHT_LOW = 1;
+    static final int WEIGHT_NORMAL = 2;
+    static final int WEIGHT_HIGH = 4;
+
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final BandwidthLimiter SHARED = new BandwidthLimiter();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition turn = lock.newCondition();
+    // Guarded by lock; earliest virtual finish first, ties in arrival order
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private volatile long bytesPerSecond;
+    // Guarded by lock: the time at which the reads let through so far are paid for at the cap
+    private long nextFreeNanos = System.nanoTime();
+    // Guarded by lock: virtual finish of the last read let through
+    private double virtualTime;
+    private long arrivals;
+
+    static BandwidthLimiter shared() {
+        return SHARED;
+    }
+
+    // 0 disables the limit. Reads already let through still owe the clock their time, repriced at
+    // the new cap, and waiting reads look again at once instead of sleeping out the old cap's wait.
+    void setBytesPerSecond(long bytesPerSecond) {
+        long limit = Math.max(0, bytesPerSecond);
+        lock.lock();
+        try {
+            long old = this.bytesPerSecond;
+            long now = System.nanoTime();
+            long debt = nextFreeNanos - now;
+            if (debt > 0 && old > 0 && limit > 0) {
+                nextFreeNanos = now + (long) (debt * ((double) old / limit));
+            } else {
+                nextFreeNanos = Math.min(nextFreeNanos, now);
+            }
+            this.bytesPerSecond = limit;
+            turn.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    Share register(int weight) {
+        return new Share(Math.max(1, weight));
+    }
+
+    class Share {
+        private volatile int weight;
+        // Guarded by lock
+        private double virtualFinish;
+        private volatile boolean closed;
+
+        private Share(int weight) {
+            this.weight = weight;
+        }
+
+        void setWeight(int newWeight) {
+            weight = Math.max(1, newWeight);
+        }
+
+        // Accounts for bytes that were just read and parks the caller until it is their turn at the cap
+        void acquire(long bytes) throws InterruptedException {
+            if (bytesPerSecond <= 0 || bytes <= 0 || closed) {
+                return;
+            }
+            lock.lockInterruptibly();
+            try {
+                // A share back from idle starts at the current virtual time instead of spending what it skipped
+                virtualFinish = Math.max(virtualFinish, virtualTime) + (double) bytes / weight;
+                Waiter waiter = new Waiter(virtualFinish, arrivals++);
+                waiters.add(waiter);
+                try {
+                    while (true) {
+                        long limit = bytesPerSecond;
+                        if (limit <= 0 || closed) {
+                            return;
+                        }
+                        if (waiters.peek() != waiter) {
+                            turn.await();
+                            continue;
+                        }
+                        long now = System.nanoTime();
+                        long delay = nextFreeNanos - BURST_NANOS - now;
+                        if (delay <= 0) {
+                            // Idle time earns at most one burst worth of credit
+                            nextFreeNanos = Math.max(nextFreeNanos, now - BURST_NANOS)
+                                    + bytes * 1_000_000_000L / limit;
+                            virtualTime = waiter.finish;
+                            return;
+                        }
+                        turn.awaitNanos(delay);
+                    }
+                } finally {
+                    waiters.remove(waiter);
+                    // The next read in line may go now
+                    turn.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Lets the share's waiting reads go at once, and every later one without waiting. Pausing or
+        // cancelling a download closes its share so that no reader sleeps out its turn first.
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                turn.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        final double finish;
+        final long arrival;
+
+        Waiter(double finish, long arrival) {
+            this.finish = finish;
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byFinish = Double.compare(finish, other.finish);
+            return byFinish != 0 ? byFinish : Long.compare(arrival, other.arrival);
+        }
+    }
+}
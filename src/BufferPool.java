@@ -0,0 +1,145 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Recycles direct buffers between segment transfers so the data path neither allocates
+// per read nor goes through the JDK's temporary direct buffer on every FileChannel write.
+// Every I/O buffer of every download is leased from here, and leased plus pooled buffers never
+// exceed one memory budget. A reader that would go over it waits for a buffer to come back
+// instead of allocating, which leaves its socket unread and lets TCP slow the sender down.
+class BufferPool {
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    // -Ddm.memory=<megabytes> sets the budget at startup
+    static final String PROPERTY = "dm.memory";
+    // -Ddm.buffer=<kilobytes> sets the buffer size, for measuring it
+    static final String BUFFER_PROPERTY = "dm.buffer";
+    private static final BufferPool SHARED = new BufferPool(
+            Integer.getInteger(BUFFER_PROPERTY, DEFAULT_BUFFER_SIZE >> 10) << 10,
+            Long.getLong(PROPERTY, DEFAULT_BUDGET_BYTES >> 20) << 20);
+
+    private final int bufferSize;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition returned = lock.newCondition();
+    // Guarded by lock
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private long budgetBytes;
+    private long leasedBytes;
+    private long peakLeasedBytes;
+    private long stalls;
+    private long stallNanos;
+
+    BufferPool(int bufferSize, long budgetBytes) {
+        this.bufferSize = bufferSize;
+        this.budgetBytes = Math.max(bufferSize, budgetBytes);
+    }
+
+    static BufferPool shared() {
+        return SHARED;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Waits while the budget is used up
+    ByteBuffer acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (leasedBytes + bufferSize > budgetBytes) {
+                stalls++;
+                long start = System.nanoTime();
+                try {
+                    while (leasedBytes + bufferSize > budgetBytes) {
+                        returned.await();
+                    }
+                } finally {
+                    stallNanos += System.nanoTime() - start;
+                }
+            }
+            leasedBytes += bufferSize;
+            peakLeasedBytes = Math.max(peakLeasedBytes, leasedBytes);
+            ByteBuffer buffer = free.poll();
+            if (buffer == null) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+            buffer.clear();
+            return buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        lock.lock();
+        try {
+            leasedBytes -= bufferSize;
+            // After the budget was lowered, buffers beyond it are left to the GC
+            if (leasedBytes + (free.size() + 1L) * bufferSize <= budgetBytes) {
+                free.push(buffer);
+            }
+            returned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes effect for the next acquire; leases above a lowered budget run out as they come back
+    void setBudgetBytes(long bytes) {
+        lock.lock();
+        try {
+            budgetBytes = Math.max(bufferSize, bytes);
+            while (!free.isEmpty() && leasedBytes + (long) free.size() * bufferSize > budgetBytes) {
+                free.pop();
+            }
+            returned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(budgetBytes, leasedBytes, (long) free.size() * bufferSize, peakLeasedBytes, stalls,
+                    stallNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A consistent snapshot of the budget
+    static class Stats {
+        final long budgetBytes;
+        // Buffers lent out to readers, writers and verifiers
+        final long leasedBytes;
+        // Buffers kept for the next lease; leased plus pooled is the direct memory in use
+        final long pooledBytes;
+        final long peakLeasedBytes;
+        // How often, and for how long in total, a lease had to wait for the budget
+        final long stalls;
+        final long stallNanos;
+
+        Stats(long budgetBytes, long leasedBytes, long pooledBytes, long peakLeasedBytes, long stalls,
+                long stallNanos) {
+            this.budgetBytes = budgetBytes;
+            this.leasedBytes = leasedBytes;
+            this.pooledBytes = pooledBytes;
+            this.peakLeasedBytes = peakLeasedBytes;
+            this.stalls = stalls;
+            this.stallNanos = stallNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "buffers " + (leasedBytes >> 10) + " KB leased, " + (pooledBytes >> 10) + " KB pooled, peak "
+                    + (peakLeasedBytes >> 10) + " KB of " + (budgetBytes >> 10) + " KB; " + stalls + " stalls, "
+                    + TimeUnit.NANOSECONDS.toMillis(stallNanos) + " ms waited";
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// A byte count written by one thread at a time and read by any thread without locking. The
+// value sits in the middle of its own array with a cache line of padding on either side, so
+// workers bumping counters that were allocated next to each other don't keep invalidating each
+// other's cache lines (false sharing).
+class ByteCounter {
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+    // Eight longs cover a 64-byte line
+    private static final int PADDING = 8;
+
+    private final long[] cells = new long[PADDING * 2 + 1];
+
+    // Only the current owner adds, so a plain read and a release store replace the CAS loop
+    void add(long delta) {
+        CELLS.setRelease(cells, PADDING, (long) CELLS.get(cells, PADDING) + delta);
+    }
+
+    void set(long value) {
+        CELLS.setRelease(cells, PADDING, value);
+    }
+
+    long get() {
+        return (long) CELLS.getAcquire(cells, PADDING);
+    }
+}
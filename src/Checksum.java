@@ -0,0 +1,171 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Locale;
+
+// The expected digest of a whole file: given by the caller as "sha256:<hex>", announced by the
+// server in a Repr-Digest, Digest or Content-MD5 header, or read from a sha256sum-style sidecar.
+class Checksum {
+    private final String algorithm;
+    private final byte[] expected;
+
+    // algorithm is a MessageDigest name such as "SHA-256"
+    Checksum(String algorithm, byte[] expected) {
+        this.algorithm = algorithm;
+        this.expected = expected.clone();
+        int length = newDigest().getDigestLength();
+        if (expected.length != length) {
+            throw new IllegalArgumentException(algorithm + " digests are " + length + " bytes, got "
+                    + expected.length);
+        }
+    }
+
+    // "sha256:<hex>", "sha-1:<hex>", "md5:<hex>", or a bare hex digest whose length picks the algorithm
+    static Checksum parse(String text) {
+        String value = text.trim();
+        int colon = value.indexOf(':');
+        String algorithm = colon >= 0 ? algorithmName(value.substring(0, colon)) : algorithmForHex(value);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unknown checksum: " + text);
+        }
+        return new Checksum(algorithm, HexFormat.of().parseHex(value.substring(colon + 1).trim()));
+    }
+
+    // The strongest full-file digest the response announces, or null
+    static Checksum fromHeaders(HttpTransport.Response response) {
+        Checksum best = null;
+        // RFC 9530: sha-256=:<base64>:, several separated by commas
+        best = stronger(best, fromDigestFields(response.getHeader("Repr-Digest"), true));
+        // RFC 3230: SHA-256=<base64>
+        best = stronger(best, fromDigestFields(response.getHeader("Digest"), false));
+        String contentMd5 = response.getHeader("Content-MD5");
+        if (contentMd5 != null) {
+            best = stronger(best, decode("MD5", contentMd5.trim()));
+        }
+        return best;
+    }
+
+    // sha256sum output: "<hex>  <name>" per line. Takes the line for fileName, or the first digest
+    // when no line names the file, e.g. a sidecar holding just the hex string
+    static Checksum fromSidecar(String text, String fileName) {
+        Checksum first = null;
+        for (String line : text.split("\\R")) {
+            String[] fields = line.trim().split("\\s+", 2);
+            if (fields[0].isEmpty() || fields[0].startsWith("#")) {
+                continue;
+            }
+            String algorithm = algorithmForHex(fields[0]);
+            if (algorithm == null) {
+                continue;
+            }
+            Checksum checksum = new Checksum(algorithm, HexFormat.of().parseHex(fields[0]));
+            // sha256sum marks binary mode with a leading '*'
+            if (fields.length > 1 && fields[1].replaceFirst("^\\*", "").equals(fileName)) {
+                return checksum;
+            }
+            if (first == null) {
+                first = checksum;
+            }
+        }
+        return first;
+    }
+
+    private static Checksum fromDigestFields(String header, boolean structured) {
+        if (header == null) {
+            return null;
+        }
+        Checksum best = null;
+        for (String field : header.split(",")) {
+            int equals = field.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            String algorithm = algorithmName(field.substring(0, equals).trim());
+            String value = field.substring(equals + 1).trim();
+            if (structured) {
+                value = value.replaceAll("^:|:$", "");
+            }
+            if (algorithm != null) {
+                best = stronger(best, decode(algorithm, value));
+            }
+        }
+        return best;
+    }
+
+    private static Checksum decode(String algorithm, String base64) {
+        try {
+            return new Checksum(algorithm, Base64.getDecoder().decode(base64));
+        } catch (IllegalArgumentException e) {
+            // A malformed header is no reason to fail the download
+            return null;
+        }
+    }
+
+    private static Checksum stronger(Checksum a, Checksum b) {
+        if (a == null) {
+            return b;
+        }
+        return b != null && b.expected.length > a.expected.length ? b : a;
+    }
+
+    private static String algorithmName(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT).replace("-", "")) {
+            case "md5":
+                return "MD5";
+            case "sha1":
+            case "sha":
+                return "SHA-1";
+            case "sha256":
+                return "SHA-256";
+            case "sha512":
+                return "SHA-512";
+            default:
+                return null;
+        }
+    }
+
+    private static String algorithmForHex(String hex) {
+        if (!hex.matches("[0-9a-fA-F]+")) {
+            return null;
+        }
+        switch (hex.length()) {
+            case 32:
+                return "MD5";
+            case 40:
+                return "SHA-1";
+            case 64:
+                return "SHA-256";
+            case 128:
+                return "SHA-512";
+            default:
+                return null;
+        }
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK ships MD5, SHA-1, SHA-256 and SHA-512
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean matches(byte[] actual) {
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    static String format(String algorithm, byte[] digest) {
+        return algorithm.toLowerCase(Locale.ROOT).replace("-", "") + ":" + HexFormat.of().formatHex(digest);
+    }
+
+    @Override
+    public String toString() {
+        return format(algorithm, expected);
+    }
+}
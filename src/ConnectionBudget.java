@@ -0,0 +1,71 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Caps the range connections of all downloads together. The limit can change at any time;
+// when it drops, connections above it retire one by one at their next write. Every running
+// download keeps at least one connection so none of them starves.
+class ConnectionBudget {
+    static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    private static final ConnectionBudget SHARED = new ConnectionBudget(DEFAULT_MAX_CONNECTIONS);
+
+    private final AtomicInteger used = new AtomicInteger();
+    private volatile int limit;
+
+    ConnectionBudget(int limit) {
+        this.limit = limit;
+    }
+
+    static ConnectionBudget shared() {
+        return SHARED;
+    }
+
+    void setLimit(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getUsed() {
+        return used.get();
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int current = used.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (used.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // For a download's first connection, which is allowed even over the limit
+    void forceAcquire() {
+        used.incrementAndGet();
+    }
+
+    void release() {
+        used.decrementAndGet();
+    }
+
+    boolean isExceeded() {
+        return used.get() > limit;
+    }
+
+    // Gives back one connection only while the total is still above the limit
+    boolean tryReleaseExcess() {
+        while (true) {
+            int current = used.get();
+            if (current <= limit) {
+                return false;
+            }
+            if (used.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+}
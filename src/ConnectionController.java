@@ -0,0 +1,178 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hill-climbs the number of range connections for one download: starts small (or at the
+// host's learned optimum), adds a connection while aggregate throughput keeps improving,
+// and falls back when returns drop or the server answers 429/503. Every connection also
+// counts against the global ConnectionBudget.
+class ConnectionController {
+    static final int MIN_CONNECTIONS = 1;
+    static final int MAX_CONNECTIONS = 32;
+    static final int DEFAULT_START_CONNECTIONS = 4;
+
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long THROTTLE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double GAIN_THRESHOLD = 1.05;
+    private static final double LOSS_THRESHOLD = 0.85;
+
+    private final String host;
+    private final HostProfileStore profiles;
+    private final ConnectionBudget budget;
+    private final AtomicInteger active = new AtomicInteger();
+    private final int initialConnections;
+    private volatile int target;
+
+    private long lastSampleNanos;
+    private long lastSampleBytes;
+    private boolean settling = true;
+    private boolean probingUp = true;
+    private long cooldownUntilNanos;
+    private double bestRate;
+    private int bestConnections;
+    private long setupMillis;
+
+    ConnectionController(String host, HostProfileStore profiles, ConnectionBudget budget) {
+        this.host = host;
+        this.profiles = profiles;
+        this.budget = budget;
+        HostProfileStore.HostProfile profile = profiles.get(host);
+        initialConnections = profile != null
+                ? clamp(profile.connections)
+                : DEFAULT_START_CONNECTIONS;
+        target = initialConnections;
+        bestConnections = initialConnections;
+    }
+
+    // Files smaller than this finish faster on one connection than it takes to open several
+    static long multiConnectionThreshold(String host, HostProfileStore profiles, long minSegmentSize) {
+        HostProfileStore.HostProfile profile = profiles.get(host);
+        long threshold = minSegmentSize * 2;
+        if (profile != null) {
+            threshold = Math.max(threshold, profile.bytesPerSecond * profile.setupMillis / 1000 * 4);
+        }
+        return threshold;
+    }
+
+    int getInitialConnections() {
+        return initialConnections;
+    }
+
+    int getTarget() {
+        return target;
+    }
+
+    int getActive() {
+        return active.get();
+    }
+
+    void setSetupMillis(long setupMillis) {
+        this.setupMillis = setupMillis;
+    }
+
+    // Workers are only started from the download's monitor thread, so the first-connection check can't race
+    boolean tryStartWorker() {
+        if (active.get() == 0) {
+            budget.forceAcquire();
+        } else if (!budget.tryAcquire()) {
+            return false;
+        }
+        active.incrementAndGet();
+        return true;
+    }
+
+    void workerFinished() {
+        active.decrementAndGet();
+        budget.release();
+    }
+
+    // Cheap check for the data path; the worker confirms with tryRetire() before leaving
+    boolean shouldRetire() {
+        int current = active.get();
+        return current > target || (current > MIN_CONNECTIONS && budget.isExceeded());
+    }
+
+    // On success the caller's connection is already released, it must not call workerFinished()
+    boolean tryRetire() {
+        while (true) {
+            int current = active.get();
+            if (current <= target) {
+                break;
+            }
+            if (active.compareAndSet(current, current - 1)) {
+                budget.release();
+                return true;
+            }
+        }
+        // Over the global budget: only as many workers leave as the budget is exceeded by
+        if (active.get() > MIN_CONNECTIONS && budget.tryReleaseExcess()) {
+            active.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void onThrottled() {
+        long now = System.nanoTime();
+        if (now < cooldownUntilNanos) {
+            return;
+        }
+        target = clamp(Math.max(MIN_CONNECTIONS, active.get() / 2));
+        bestConnections = Math.min(bestConnections, target);
+        probingUp = false;
+        cooldownUntilNanos = now + THROTTLE_COOLDOWN_NANOS;
+    }
+
+    // Called periodically with the total bytes downloaded; returns how many workers to start now
+    synchronized int update(long totalBytes) {
+        long now = System.nanoTime();
+        if (lastSampleNanos == 0) {
+            lastSampleNanos = now;
+            lastSampleBytes = totalBytes;
+        } else if (now - lastSampleNanos >= SAMPLE_INTERVAL_NANOS) {
+            double rate = (totalBytes - lastSampleBytes) * 1e9 / (now - lastSampleNanos);
+            lastSampleNanos = now;
+            lastSampleBytes = totalBytes;
+
+            // The first interval after a change still includes connection setup, so skip it
+            if (settling) {
+                settling = false;
+            } else if (now >= cooldownUntilNanos) {
+                adjust(rate);
+            }
+        }
+        return Math.max(0, target - active.get());
+    }
+
+    private void adjust(double rate) {
+        int current = active.get();
+        if (rate > bestRate * GAIN_THRESHOLD) {
+            bestRate = rate;
+            bestConnections = current;
+            if (probingUp && target < MAX_CONNECTIONS) {
+                target++;
+                settling = true;
+            }
+        } else if (rate < bestRate * LOSS_THRESHOLD && current > bestConnections) {
+            // Extra connections made things worse, go back to the best count seen
+            target = bestConnections;
+            probingUp = false;
+            settling = true;
+        } else {
+            probingUp = false;
+        }
+    }
+
+    synchronized void saveProfile(long totalBytes, long elapsedMillis) {
+        // Short downloads never get a full sample interval, fall back to their average rate
+        if (bestRate == 0 && elapsedMillis > 0) {
+            bestRate = totalBytes * 1000.0 / elapsedMillis;
+        }
+        if (bestRate > 0) {
+            profiles.put(host, new HostProfileStore.HostProfile(bestConnections, (long) bestRate, setupMillis));
+        }
+    }
+
+    private static int clamp(int connections) {
+        return Math.max(MIN_CONNECTIONS, Math.min(MAX_CONNECTIONS, connections));
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Content codings a whole-file request can ask for and undo while the body streams to disk.
+// The JDK only ships inflaters for gzip and deflate, so brotli is not offered.
+class ContentEncoding {
+    static final String ACCEPT = "gzip, deflate";
+    // Compressed input read ahead per fill; decoding never holds more than this and the inflater window
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.isBlank()
+                && !contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    // Wraps the body so reads return decoded bytes
+    static ReadableByteChannel decode(String contentEncoding, ReadableByteChannel body) throws IOException {
+        InputStream in = Channels.newInputStream(body);
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip":
+            case "x-gzip":
+                return Channels.newChannel(new GZIPInputStream(in, INPUT_BUFFER_SIZE));
+            case "deflate":
+                return Channels.newChannel(inflate(in));
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+    }
+
+    // "deflate" is supposed to be zlib-wrapped, but some servers send raw deflate data
+    private static InputStream inflate(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] header = new byte[2];
+        int read = pushback.readNBytes(header, 0, 2);
+        pushback.unread(header, 0, read);
+        int cmf = header[0] & 0xFF;
+        int flg = header[1] & 0xFF;
+        boolean zlib = read == 2 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlib), INPUT_BUFFER_SIZE);
+    }
+
+    // Counts the bytes read from the network before they are decoded
+    static ReadableByteChannel counting(ReadableByteChannel body, ByteCounter wireBytes) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int read = body.read(dst);
+                if (read > 0) {
+                    wireBytes.add(read);
+                }
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return body.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                body.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+// The "Content-Range: bytes first-last/total" header of a 206 response
+class ContentRange {
+    final long first;
+    final long last;
+    // -1 when the server sent "*"
+    final long total;
+
+    private ContentRange(long first, long last, long total) {
+        this.first = first;
+        this.last = last;
+        this.total = total;
+    }
+
+    // null when the header is missing, malformed or of the unsatisfied "bytes */total" form
+    static ContentRange parse(String header) {
+        if (header == null || !header.regionMatches(true, 0, "bytes ", 0, 6)) {
+            return null;
+        }
+        String value = header.substring(6).trim();
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (dash <= 0 || slash < dash) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(value.substring(0, dash).trim());
+            long last = Long.parseLong(value.substring(dash + 1, slash).trim());
+            String size = value.substring(slash + 1).trim();
+            long total = size.equals("*") ? -1 : Long.parseLong(size);
+            if (first < 0 || last < first || (total >= 0 && last >= total)) {
+                return null;
+            }
+            return new ContentRange(first, last, total);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "bytes " + first + "-" + last + "/" + (total >= 0 ? String.valueOf(total) : "*");
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The disk side of segmented downloads. Segment workers only read sockets: a full buffer is
+// queued here and the worker goes back to reading with a fresh one from the pool. One writer
+// thread per volume drains the queue, joins consecutive buffers of a segment into a single
+// gathering write, marks the bytes persisted and recycles the buffers. A disk that stalls for a
+// moment only fills the queue instead of stopping every TCP read of every download on it.
+class DiskWriter {
+    // 64 x 256 KB of downloaded data may wait for one volume before readers have to wait for it
+    static final int MAX_QUEUED_BUFFERS = 64;
+    // Buffers joined into one write; well under the usual IOV_MAX of 1024
+    private static final int MAX_GATHER = 64;
+    private static final Map<Object, DiskWriter> VOLUMES = new HashMap<>();
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>(MAX_QUEUED_BUFFERS);
+
+    private DiskWriter() {
+        Thread thread = new Thread(this::run, "disk-writer-" + THREAD_COUNT.getAndIncrement());
+        // File I/O blocks the carrier of a virtual thread, so this is a platform thread
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The writer of the volume the file is on, started the first time the volume is written to
+    static DiskWriter forFile(File target) {
+        Object volume;
+        try {
+            volume = Files.getFileStore(target.getAbsoluteFile().getParentFile().toPath());
+        } catch (IOException e) {
+            // Unknown volume: the directory stands in for it
+            volume = target.getAbsoluteFile().getParentFile();
+        }
+        synchronized (VOLUMES) {
+            return VOLUMES.computeIfAbsent(volume, v -> new DiskWriter());
+        }
+    }
+
+    Sink open(DownloadStorage storage, BufferPool pool, SyncPolicy syncPolicy) {
+        return new Sink(storage, pool, syncPolicy);
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // Nothing interrupts this thread on purpose, keep draining
+                continue;
+            }
+            queue.drainTo(batch);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Request> batch) {
+        // Per download, in offset order; a segment's buffers are queued in order so the sort keeps it that way
+        Map<Sink, List<Request>> bySink = new LinkedHashMap<>();
+        for (Request request : batch) {
+            bySink.computeIfAbsent(request.sink, s -> new ArrayList<>()).add(request);
+        }
+        for (Map.Entry<Sink, List<Request>> entry : bySink.entrySet()) {
+            List<Request> requests = entry.getValue();
+            requests.sort(Comparator.comparingLong(r -> r.position));
+            entry.getKey().write(requests);
+        }
+    }
+
+    // The queue of one download. Submitted buffers belong to the sink until they are written.
+    class Sink implements Closeable {
+        private final DownloadStorage storage;
+        private final BufferPool pool;
+        private final SyncPolicy syncPolicy;
+        // A lock rather than a monitor: drain() waits on a virtual thread, and a monitor wait pins its carrier
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition drained = lock.newCondition();
+        // Guarded by lock
+        private int pending;
+        private volatile IOException failure;
+
+        private Sink(DownloadStorage storage, BufferPool pool, SyncPolicy syncPolicy) {
+            this.storage = storage;
+            this.pool = pool;
+            this.syncPolicy = syncPolicy;
+        }
+
+        // Queues the flipped buffer for the given offset of the segment and takes ownership of it.
+        // Waits while the volume's queue is full; throws if an earlier write of this download failed.
+        void write(ByteBuffer buffer, long position, Segment segment) throws IOException, InterruptedException {
+            if (failure != null || !buffer.hasRemaining()) {
+                pool.release(buffer);
+                throwIfFailed();
+                return;
+            }
+            lock.lock();
+            try {
+                pending++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Request request = new Request(this, segment, buffer, position);
+                if (!queue.offer(request)) {
+                    // The disk is behind; the reader stops reading its socket until there is room
+                    DownloadEvents.DiskStallEvent event = new DownloadEvents.DiskStallEvent();
+                    event.begin();
+                    long start = System.nanoTime();
+                    queue.put(request);
+                    Metrics.DISK_STALLS.increment();
+                    Metrics.DISK_STALL_SECONDS.observeNanos(System.nanoTime() - start);
+                    if (event.shouldCommit()) {
+                        event.position = position;
+                        event.commit();
+                    }
+                }
+            } catch (InterruptedException e) {
+                pool.release(buffer);
+                finished(1);
+                throw e;
+            }
+        }
+
+        void throwIfFailed() throws IOException {
+            IOException e = failure;
+            if (e != null) {
+                throw new IOException("Writing the download failed: " + e.getMessage(), e);
+            }
+        }
+
+        // Waits until everything queued so far is on the storage
+        void drain() throws InterruptedException {
+            lock.lock();
+            try {
+                while (pending > 0) {
+                    drained.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Runs on the writer thread
+        private void write(List<Request> requests) {
+            int i = 0;
+            while (i < requests.size()) {
+                Request first = requests.get(i);
+                int end = i + 1;
+                long next = first.position + first.buffer.remaining();
+                // Only buffers of the same segment are joined: with part files the next segment is another file
+                while (end < requests.size() && end - i < MAX_GATHER
+                        && requests.get(end).segment == first.segment && requests.get(end).position == next) {
+                    next += requests.get(end).buffer.remaining();
+                    end++;
+                }
+                writeRun(requests.subList(i, end), next);
+                i = end;
+            }
+        }
+
+        private void writeRun(List<Request> run, long endPosition) {
+            Request first = run.get(0);
+            try {
+                if (failure == null) {
+                    ByteBuffer[] buffers = new ByteBuffer[run.size()];
+                    for (int i = 0; i < buffers.length; i++) {
+                        buffers[i] = run.get(i).buffer;
+                    }
+                    storage.write(buffers, first.position);
+                    if (syncPolicy == SyncPolicy.WRITE) {
+                        storage.force();
+                    }
+                    first.segment.markPersisted(endPosition);
+                }
+            } catch (IOException e) {
+                // The download fails from its monitor; what was persisted before stays valid
+                failure = e;
+            } catch (RuntimeException e) {
+                // Must not take the volume's writer thread down with it
+                failure = new IOException(e.toString(), e);
+            } finally {
+                for (Request request : run) {
+                    pool.release(request.buffer);
+                }
+                finished(run.size());
+            }
+        }
+
+        private void finished(int count) {
+            lock.lock();
+            try {
+                pending -= count;
+                if (pending == 0) {
+                    drained.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Waits for the queued writes so the storage can be closed under them
+        @Override
+        public void close() {
+            try {
+                drain();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Request {
+        final Sink sink;
+        final Segment segment;
+        final ByteBuffer buffer;
+        final long position;
+
+        Request(Sink sink, Segment segment, ByteBuffer buffer, long position) {
+            this.sink = sink;
+            this.segment = segment;
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+}
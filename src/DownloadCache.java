@@ -0,0 +1,185 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Completed downloads by URL and by content digest, so a repeated request is answered from a
+// file that is already on disk. Entries point at the downloaded files themselves; one whose file
+// was moved, changed or deleted is dropped the next time it is looked up.
+class DownloadCache {
+    private static final String CACHE_FILE = "download_cache.log";
+    private static final String LEGACY_CACHE_FILE = "download_cache.properties";
+    private static final DownloadCache SHARED = new DownloadCache(new File(CACHE_FILE), new File(LEGACY_CACHE_FILE));
+
+    // Entries by URL; puts and dropped entries append a line each
+    private final KeyValueLog log;
+    private final Map<String, Entry> byUrl = new HashMap<>();
+    // Only downloads that were verified against a checksum can be found by their content
+    private final Map<String, Entry> byContent = new HashMap<>();
+
+    DownloadCache(File file, File legacyPropertiesFile) {
+        log = new KeyValueLog(file, legacyPropertiesFile, "download cache");
+        for (Map.Entry<String, String> stored : log.getAll().entrySet()) {
+            Entry entry = Entry.decode(stored.getKey(), stored.getValue());
+            if (entry != null) {
+                byUrl.put(entry.url, entry);
+                if (entry.digest != null) {
+                    byContent.put(entry.digest, entry);
+                }
+            }
+        }
+    }
+
+    static DownloadCache shared() {
+        return SHARED;
+    }
+
+    // The cached copy of url, or null if there is none or its file is gone or changed
+    synchronized Entry lookup(String url) {
+        Entry entry = byUrl.get(url);
+        if (entry != null && !entry.isIntact()) {
+            remove(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    // A file with exactly this content, downloaded from any URL
+    synchronized File findContent(Checksum checksum) {
+        Entry entry = byContent.get(checksum.toString());
+        if (entry != null && !entry.isIntact()) {
+            remove(entry);
+            return null;
+        }
+        return entry != null ? entry.file : null;
+    }
+
+    // etag, lastModified and verified may be null
+    synchronized void put(String url, String etag, String lastModified, File downloaded, Checksum verified) {
+        // The new line supersedes the old entry's in the log
+        Entry old = byUrl.get(url);
+        if (old != null && old.digest != null) {
+            byContent.remove(old.digest, old);
+        }
+        Entry entry = new Entry(url, downloaded.getAbsoluteFile(), downloaded.length(), downloaded.lastModified(),
+                etag, lastModified, verified != null ? verified.toString() : null);
+        byUrl.put(url, entry);
+        if (entry.digest != null) {
+            byContent.put(entry.digest, entry);
+        }
+        log.put(url, entry.encode());
+    }
+
+    private void remove(Entry entry) {
+        if (byUrl.remove(entry.url, entry)) {
+            log.remove(entry.url);
+        }
+        if (entry.digest != null) {
+            byContent.remove(entry.digest, entry);
+        }
+    }
+
+    // Puts the content of source at target: a hard link when both are on the same volume, a copy otherwise
+    static void materialize(File source, File target) throws IOException {
+        Path from = source.toPath();
+        Path to = target.toPath();
+        if (Files.exists(to) && Files.isSameFile(from, to)) {
+            return;
+        }
+        Files.deleteIfExists(to);
+        try {
+            Files.createLink(to, from);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Different volume or a file system without links
+            Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Downloads write into their target in place; a target that is still linked to a cached copy
+    // is removed first so writing it can't change the other file
+    static void unlinkShared(File target) throws IOException {
+        if (!target.exists()) {
+            return;
+        }
+        try {
+            Object links = Files.getAttribute(target.toPath(), "unix:nlink");
+            if (links instanceof Integer && (Integer) links > 1) {
+                Files.delete(target.toPath());
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // No link counts on this platform, links are never created there either
+        }
+    }
+
+    static class Entry {
+        final String url;
+        final File file;
+        final long size;
+        final long modified;
+        final String etag;
+        final String lastModified;
+        final String digest;
+
+        Entry(String url, File file, long size, long modified, String etag, String lastModified, String digest) {
+            this.url = url;
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        // Size and modification time are what they were when the download finished
+        boolean isIntact() {
+            return file.isFile() && file.length() == size && file.lastModified() == modified;
+        }
+
+        // Asks the server to answer 304 if the copy on disk is still current
+        Map<String, String> conditionalHeaders() {
+            if (etag == null && lastModified == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+            return headers;
+        }
+
+        String encode() {
+            return file.getPath() + "\t" + size + "\t" + modified + "\t" + orEmpty(etag) + "\t"
+                    + orEmpty(lastModified) + "\t" + orEmpty(digest);
+        }
+
+        static Entry decode(String url, String value) {
+            String[] parts = value.split("\t", -1);
+            if (parts.length != 6) {
+                return null;
+            }
+            try {
+                return new Entry(url, new File(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                        orNull(parts[3]), orNull(parts[4]), orNull(parts[5]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static String orEmpty(String value) {
+            return value != null ? value : "";
+        }
+
+        private static String orNull(String value) {
+            return value.isEmpty() ? null : value;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Headless entry point to the downloader: owns the queue and its threads and fans task events
+// out to the registered listeners. The Swing frame is one such listener; build agents and
+// benchmarks drive the engine directly.
+class DownloadEngine implements AutoCloseable {
+    private final DownloadQueue queue;
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+    // The one download per URL that actually fetches it; identical ones wait until it lets go
+    private final Map<String, Leader> inFlight = new ConcurrentHashMap<>();
+    private final ProgressDispatcher progress = new ProgressDispatcher(frame -> {
+        for (DownloadListener listener : listeners) {
+            listener.onProgress(frame);
+        }
+    });
+    // Guarded by this
+    private MetricsServer metricsServer;
+    private final DownloadListener fanOut = new DownloadListener() {
+        @Override
+        public void onStateChanged(DownloadTask task, DownloadState state, String message) {
+            progress.onStateChanged(task, state);
+            for (DownloadListener listener : listeners) {
+                listener.onStateChanged(task, state, message);
+            }
+        }
+    };
+
+    DownloadEngine() {
+        this(ExecutionMode.current());
+    }
+
+    DownloadEngine(ExecutionMode mode) {
+        queue = new DownloadQueue(mode.newDownloadExecutor(DownloadQueue.MAX_ACTIVE_LIMIT));
+        Integer metricsPort = MetricsServer.configuredPort();
+        if (metricsPort != null) {
+            try {
+                serveMetrics(metricsPort);
+            } catch (IOException e) {
+                // Downloads work without it
+                System.err.println("Metrics endpoint not started: " + e.getMessage());
+            }
+        }
+    }
+
+    void addListener(DownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(DownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    DownloadTask newTask(String url, String savePath) {
+        return new DownloadTask(url, savePath, fanOut);
+    }
+
+    // A download from an earlier session, saved under fileName
+    DownloadTask restoreTask(String url, String savePath, String fileName, boolean completed) {
+        return new DownloadTask(url, savePath, fileName, completed, fanOut);
+    }
+
+    // Queues the task; the future completes with the file, fails with the error, or is cancelled.
+    // While the same URL is already being fetched, the task waits and then links or copies that
+    // file. If that download fails or is paused instead, the waiting ones are submitted again and
+    // one of them fetches.
+    CompletableFuture<File> submit(DownloadTask task) {
+        CompletableFuture<File> completion = task.getCompletion();
+        Leader leader = new Leader(task);
+        while (true) {
+            Leader current = inFlight.putIfAbsent(task.getUrl(), leader);
+            if (current == null) {
+                completion.whenComplete((file, error) -> release(leader, error == null ? file : null));
+                break;
+            }
+            if (current.task == task) {
+                break;
+            }
+            if (current.released.isDone()) {
+                // Finished, its own cleanup just hasn't run yet
+                inFlight.remove(task.getUrl(), current);
+                continue;
+            }
+            current.released.thenAccept(file -> {
+                if (completion.isDone()) {
+                    return;
+                }
+                if (file != null) {
+                    task.reuseFrom(file);
+                }
+                submit(task);
+            });
+            return completion;
+        }
+        queue.submit(task);
+        return completion;
+    }
+
+    // file is null when the leader stopped without one
+    private void release(Leader leader, File file) {
+        inFlight.remove(leader.task.getUrl(), leader);
+        leader.released.complete(file);
+    }
+
+    CompletableFuture<File> submit(String url, String savePath) {
+        return submit(newTask(url, savePath));
+    }
+
+    // Completes once the task has stopped and its progress is checkpointed
+    CompletableFuture<Void> pause(DownloadTask task) {
+        queue.remove(task);
+        task.pause();
+        // Downloads waiting for this one shouldn't wait until it is resumed
+        Leader leader = inFlight.get(task.getUrl());
+        if (leader != null && leader.task == task) {
+            release(leader, null);
+        }
+        return task.whenStopped();
+    }
+
+    // Paused, failed and restored downloads continue from their journal
+    CompletableFuture<File> resume(DownloadTask task) {
+        if (!task.isResumable()) {
+            return task.getCompletion();
+        }
+        task.resume();
+        return submit(task);
+    }
+
+    CompletableFuture<Void> cancel(DownloadTask task) {
+        queue.remove(task);
+        task.cancel();
+        return task.whenStopped();
+    }
+
+    void setPriority(DownloadTask task, DownloadQueue.Priority priority) {
+        queue.setPriority(task, priority);
+    }
+
+    void moveToTop(DownloadTask task) {
+        queue.moveToTop(task);
+    }
+
+    void setMaxActive(int maxActive) {
+        queue.setMaxActive(maxActive);
+    }
+
+    int getMaxActive() {
+        return queue.getMaxActive();
+    }
+
+    void setMaxConnections(int maxConnections) {
+        queue.setMaxConnections(maxConnections);
+    }
+
+    int getMaxConnections() {
+        return queue.getMaxConnections();
+    }
+
+    // 0 means unlimited
+    void setBandwidthLimit(long bytesPerSecond) {
+        BandwidthLimiter.shared().setBytesPerSecond(bytesPerSecond);
+    }
+
+    // Caps the I/O buffers of all downloads together; readers wait for a buffer instead of going over it
+    void setMemoryBudget(long bytes) {
+        BufferPool.shared().setBudgetBytes(bytes);
+    }
+
+    // Budget use and how long readers have waited for it, for sizing memory limits
+    BufferPool.Stats getMemoryStats() {
+        return BufferPool.shared().getStats();
+    }
+
+    // Starts the Prometheus endpoint on loopback; returns the port it listens on
+    synchronized int serveMetrics(int port) throws IOException {
+        if (metricsServer == null) {
+            metricsServer = new MetricsServer(port, Metrics.shared());
+        }
+        return metricsServer.getPort();
+    }
+
+    private static class Leader {
+        final DownloadTask task;
+        final CompletableFuture<File> released = new CompletableFuture<>();
+
+        Leader(DownloadTask task) {
+            this.task = task;
+        }
+    }
+
+    @Override
+    public void close() {
+        queue.shutdown();
+        progress.close();
+        synchronized (this) {
+            if (metricsServer != null) {
+                metricsServer.close();
+                metricsServer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Flight Recorder events of the download path, under "Download Manager" in JMC. They cost
+// nothing until a recording enables them, e.g.
+//
+//   java -XX:StartFlightRecording:filename=dm.jfr ...
+//
+// and line up with GC, socket and file I/O events of the same recording. Fields are only filled
+// in when shouldCommit() says the event is wanted.
+class DownloadEvents {
+    private static final String CATEGORY = "Download Manager";
+
+    private DownloadEvents() {
+    }
+
+    @Name("dm.Probe")
+    @Label("Probe")
+    @Description("Request for the size, range support and validators of a download, until its headers arrived")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class ProbeEvent extends Event {
+        @Label("URL")
+        String url;
+        @Label("Method")
+        String method;
+        @Label("Status")
+        int status;
+    }
+
+    // HttpClient opens or reuses a pooled connection inside send(), so connecting is part of this
+    @Name("dm.Request")
+    @Label("Range Request")
+    @Description("GET sent until the response headers arrived, including any new connection")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class RequestEvent extends Event {
+        @Label("URL")
+        String url;
+        @Label("Range Start")
+        @DataAmount
+        long rangeStart;
+        @Label("Status")
+        int status;
+    }
+
+    @Name("dm.FirstByte")
+    @Label("Time to First Byte")
+    @Description("GET sent until the first body byte was read")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class FirstByteEvent extends Event {
+        @Label("URL")
+        String url;
+        @Label("Range Start")
+        @DataAmount
+        long rangeStart;
+    }
+
+    @Name("dm.Segment")
+    @Label("Segment Transfer")
+    @Description("One connection's share of a segment, from the request until it stopped reading")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class SegmentEvent extends Event {
+        @Label("File")
+        String file;
+        @Label("Segment")
+        int segment;
+        @Label("Start")
+        @DataAmount
+        long start;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("dm.Retry")
+    @Label("Segment Retry")
+    @Description("A segment connection reopened after a stall or an error, and the backoff before it")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class RetryEvent extends Event {
+        @Label("File")
+        String file;
+        @Label("Segment")
+        int segment;
+        @Label("Position")
+        @DataAmount
+        long position;
+        @Label("Error Class")
+        String errorClass;
+        @Label("Backoff")
+        @Timespan(Timespan.MILLISECONDS)
+        long delay;
+        @Label("Message")
+        String message;
+    }
+
+    @Name("dm.Failure")
+    @Label("Failure")
+    @Description("A download that failed, a segment worker that gave up and left its range to the others, "
+            + "or a progress frame that could not be delivered")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class FailureEvent extends Event {
+        @Label("File")
+        String file;
+        @Label("Stage")
+        String stage;
+        @Label("Error Class")
+        String errorClass;
+        @Label("Message")
+        String message;
+    }
+
+    @Name("dm.Merge")
+    @Label("Part File Merge")
+    @Description("Joining the part files of a download into the final file")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class MergeEvent extends Event {
+        @Label("File")
+        String file;
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("dm.DiskStall")
+    @Label("Disk Write Stall")
+    @Description("A segment reader waiting for room in its volume's write queue")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class DiskStallEvent extends Event {
+        @Label("Position")
+        @DataAmount
+        long position;
+    }
+
+    @Name("dm.MirrorDrop")
+    @Label("Mirror Dropped")
+    @Description("A mirror taken out of a download for failing or serving another file")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class MirrorDropEvent extends Event {
+        @Label("URL")
+        String url;
+        @Label("Reason")
+        String reason;
+    }
+}
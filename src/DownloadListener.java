@@ -0,0 +1,12 @@
+// Receives download events with raw numbers; formatting is up to the subscriber. Called on
+// download and dispatcher threads, so implementations must be thread-safe and return quickly.
+interface DownloadListener {
+    // message is null unless there is something to add, e.g. the error for FAILED
+    default void onStateChanged(DownloadTask task, DownloadState state, String message) {
+    }
+
+    // One batch per frame for every running download, plus a last sample for each one that just
+    // stopped. The frame is refilled on the next tick, so copy what you keep.
+    default void onProgress(ProgressFrame frame) {
+    }
+}
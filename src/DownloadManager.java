@@ -1,9 +1,7 @@
-
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
@@ -12,30 +10,26 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 public class DownloadManager extends JFrame {
-    private DefaultTableModel tableModel;
+    private DownloadTableModel tableModel;
+    private DownloadTableModel.Sorter tableSorter;
     private JTable downloadTable;
     private JTextField urlField;
+    private JTextField filterField;
     private JTextField savePathField;
     private JButton addButton, pauseButton, resumeButton, removeButton, browseButton, aboutButton;
-    private List<DownloadTask> downloads;
-    private ExecutorService executor;
-    private static final String DOWNLOADS_FILE = "downloads_history.properties";
-    private Properties downloadHistory;
+    private DownloadEngine engine;
+    private static final String DOWNLOADS_FILE = "downloads_history.log";
+    private static final String LEGACY_DOWNLOADS_FILE = "downloads_history.properties";
+    private DownloadStore downloadStore;
     private JPopupMenu contextMenu;
     private Pattern urlPattern;
-    private JButton addMultipleButton, scheduleButton;
+    private JButton addMultipleButton, addMetalinkButton, scheduleButton;
     private JCheckBox scheduleCheckBox;
-    private JSpinner dateSpinner, timeSpinner;
+    private JSpinner dateSpinner, timeSpinner, speedLimitSpinner, maxDownloadsSpinner, maxConnectionsSpinner,
+            bufferMemorySpinner;
     private JPanel schedulePanel;
     private ScheduledExecutorService scheduledExecutor;
     private static final String APP_NAME = "Fast Download Manager";
@@ -44,13 +38,12 @@ public class DownloadManager extends JFrame {
     private static final String APP_COPYRIGHT = "© 2025. ZanCed Software Solutions. All rights reserved.";
 
     public DownloadManager() {
-        downloads = new ArrayList<>();
-        executor = Executors.newFixedThreadPool(10);
-        downloadHistory = new Properties();
+        engine = new DownloadEngine();
+        engine.addListener(new TableUpdater());
         urlPattern = Pattern.compile(
                 "^(https?|ftp)://[a-zA-Z0-9\\-._~:/?#\\[\\]@!$&'()*+,;=%]+$",
                 Pattern.CASE_INSENSITIVE);
-        loadDownloadHistory();
+        downloadStore = new DownloadStore(new File(DOWNLOADS_FILE), new File(LEGACY_DOWNLOADS_FILE));
         initializeGUI();
         setupContextMenu();
         setupClipboardMonitoring();
@@ -104,12 +97,17 @@ public class DownloadManager extends JFrame {
         schedulePanel = createSchedulePanel();
         inputPanel.add(schedulePanel, gbc);
 
+        // Global speed limit, 0 means unlimited
+        gbc.gridy = 3;
+        inputPanel.add(createLimitsPanel(), gbc);
+
         topPanel.add(inputPanel, BorderLayout.CENTER);
 
         // Button panel
         JPanel buttonPanel = new JPanel(new FlowLayout());
         addButton = new JButton("Add Download");
         addMultipleButton = new JButton("Add Multiple URLs");
+        addMetalinkButton = new JButton("Add Metalink");
         scheduleButton = new JButton("Schedule Download");
         pauseButton = new JButton("Pause");
         resumeButton = new JButton("Resume");
@@ -118,6 +116,7 @@ public class DownloadManager extends JFrame {
 
         buttonPanel.add(addButton);
         buttonPanel.add(addMultipleButton);
+        buttonPanel.add(addMetalinkButton);
         buttonPanel.add(scheduleButton);
         buttonPanel.add(pauseButton);
         buttonPanel.add(resumeButton);
@@ -127,19 +126,22 @@ public class DownloadManager extends JFrame {
         topPanel.add(buttonPanel, BorderLayout.SOUTH);
         add(topPanel, BorderLayout.NORTH);
 
-        // Download table with elapsed time column
-        String[] columns = { "File Name", "URL", "Size", "Progress", "Speed", "Status", "Elapsed Time", "Date" };
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        // Download table with elapsed time column; cells are formatted by the renderers as they are painted
+        tableModel = new DownloadTableModel();
         downloadTable = new JTable(tableModel);
         downloadTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-
-        JScrollPane scrollPane = new JScrollPane(downloadTable);
-        add(scrollPane, BorderLayout.CENTER);
+        tableSorter = new DownloadTableModel.Sorter(tableModel);
+        downloadTable.setRowSorter(tableSorter);
+        downloadTable.setDefaultRenderer(Object.class, new DownloadTableModel.TextRenderer());
+        downloadTable.setDefaultRenderer(Long.class, new DownloadTableModel.TextRenderer());
+        downloadTable.setDefaultRenderer(DownloadState.class, new DownloadTableModel.TextRenderer());
+        downloadTable.getColumnModel().getColumn(DownloadTableModel.COLUMN_PROGRESS)
+                .setCellRenderer(new DownloadTableModel.ProgressRenderer());
+
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.add(createFilterPanel(), BorderLayout.NORTH);
+        tablePanel.add(new JScrollPane(downloadTable), BorderLayout.CENTER);
+        add(tablePanel, BorderLayout.CENTER);
 
         // Load previous downloads
         loadPreviousDownloads();
@@ -147,6 +149,7 @@ public class DownloadManager extends JFrame {
         // Event listeners
         addButton.addActionListener(e -> addDownload());
         addMultipleButton.addActionListener(e -> addMultipleDownloads());
+        addMetalinkButton.addActionListener(e -> addMetalinkDownloads());
         scheduleButton.addActionListener(e -> scheduleDownload());
         pauseButton.addActionListener(e -> pauseDownload());
         resumeButton.addActionListener(e -> resumeDownload());
@@ -174,12 +177,30 @@ public class DownloadManager extends JFrame {
         JMenuItem deleteFile = new JMenuItem("Delete File");
         JMenuItem copyURL = new JMenuItem("Copy URL");
         JMenuItem redownload = new JMenuItem("Re-download");
+        JMenuItem showSegments = new JMenuItem("Show Segments");
+        JMenu bandwidthWeight = new JMenu("Bandwidth Weight");
+        JMenuItem weightHigh = new JMenuItem("High");
+        JMenuItem weightNormal = new JMenuItem("Normal");
+        JMenuItem weightLow = new JMenuItem("Low");
+        JMenu priority = new JMenu("Priority");
+        JMenuItem priorityHigh = new JMenuItem("High");
+        JMenuItem priorityNormal = new JMenuItem("Normal");
+        JMenuItem priorityLow = new JMenuItem("Low");
+        JMenuItem moveToTop = new JMenuItem("Move to Top");
 
         openFile.addActionListener(e -> openSelectedFile());
         locateFile.addActionListener(e -> locateSelectedFile());
         deleteFile.addActionListener(e -> deleteSelectedFile());
         copyURL.addActionListener(e -> copySelectedURL());
         redownload.addActionListener(e -> redownloadSelected());
+        showSegments.addActionListener(e -> showSelectedSegments());
+        weightHigh.addActionListener(e -> setSelectedBandwidthWeight(BandwidthLimiter.WEIGHT_HIGH));
+        weightNormal.addActionListener(e -> setSelectedBandwidthWeight(BandwidthLimiter.WEIGHT_NORMAL));
+        weightLow.addActionListener(e -> setSelectedBandwidthWeight(BandwidthLimiter.WEIGHT_LOW));
+        priorityHigh.addActionListener(e -> setSelectedPriority(DownloadQueue.Priority.HIGH));
+        priorityNormal.addActionListener(e -> setSelectedPriority(DownloadQueue.Priority.NORMAL));
+        priorityLow.addActionListener(e -> setSelectedPriority(DownloadQueue.Priority.LOW));
+        moveToTop.addActionListener(e -> moveSelectedToTop());
 
         contextMenu.add(openFile);
         contextMenu.add(locateFile);
@@ -188,6 +209,17 @@ public class DownloadManager extends JFrame {
         contextMenu.addSeparator();
         contextMenu.add(copyURL);
         contextMenu.add(redownload);
+        contextMenu.addSeparator();
+        contextMenu.add(showSegments);
+        bandwidthWeight.add(weightHigh);
+        bandwidthWeight.add(weightNormal);
+        bandwidthWeight.add(weightLow);
+        contextMenu.add(bandwidthWeight);
+        priority.add(priorityHigh);
+        priority.add(priorityNormal);
+        priority.add(priorityLow);
+        contextMenu.add(priority);
+        contextMenu.add(moveToTop);
 
         downloadTable.addMouseListener(new MouseAdapter() {
             @Override
@@ -203,6 +235,34 @@ public class DownloadManager extends JFrame {
         });
     }
 
+    // Filters the table by file name or URL; typing restarts a short timer so a long history is only refiltered once
+    private JPanel createFilterPanel() {
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        panel.add(new JLabel("Filter:"));
+        filterField = new JTextField(30);
+        panel.add(filterField);
+
+        javax.swing.Timer filterTimer = new javax.swing.Timer(200, e -> tableSorter.setFilterText(filterField.getText()));
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+        return panel;
+    }
+
     private JPanel createSchedulePanel() {
         JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
 
@@ -251,6 +311,42 @@ public class DownloadManager extends JFrame {
         return panel;
     }
 
+    private JPanel createLimitsPanel() {
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        panel.add(new JLabel("Speed limit (KB/s, 0 = unlimited):"));
+
+        speedLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 64));
+        speedLimitSpinner.setPreferredSize(new Dimension(100, 25));
+        speedLimitSpinner.addChangeListener(e -> {
+            int limitKb = (Integer) speedLimitSpinner.getValue();
+            engine.setBandwidthLimit(limitKb * 1024L);
+        });
+        panel.add(speedLimitSpinner);
+
+        panel.add(new JLabel("Max downloads:"));
+        maxDownloadsSpinner = new JSpinner(new SpinnerNumberModel(engine.getMaxActive(), 1,
+                DownloadQueue.MAX_ACTIVE_LIMIT, 1));
+        maxDownloadsSpinner.addChangeListener(e -> engine.setMaxActive((Integer) maxDownloadsSpinner.getValue()));
+        panel.add(maxDownloadsSpinner);
+
+        panel.add(new JLabel("Max connections:"));
+        maxConnectionsSpinner = new JSpinner(new SpinnerNumberModel(engine.getMaxConnections(), 1, 1024, 1));
+        maxConnectionsSpinner.setPreferredSize(new Dimension(70, 25));
+        maxConnectionsSpinner.addChangeListener(
+                e -> engine.setMaxConnections((Integer) maxConnectionsSpinner.getValue()));
+        panel.add(maxConnectionsSpinner);
+
+        panel.add(new JLabel("Buffer memory (MB):"));
+        bufferMemorySpinner = new JSpinner(new SpinnerNumberModel(
+                (int) (engine.getMemoryStats().budgetBytes >> 20), 1, 4096, 16));
+        bufferMemorySpinner.setPreferredSize(new Dimension(70, 25));
+        bufferMemorySpinner.addChangeListener(
+                e -> engine.setMemoryBudget((Integer) bufferMemorySpinner.getValue() * 1024L * 1024L));
+        panel.add(bufferMemorySpinner);
+
+        return panel;
+    }
+
     private void showAboutDialog() {
         JDialog aboutDialog = new JDialog(this, "About " + APP_NAME, true);
         aboutDialog.setLayout(new BorderLayout());
@@ -346,7 +442,7 @@ public class DownloadManager extends JFrame {
         urlArea.setWrapStyleWord(true);
         JScrollPane scrollPane = new JScrollPane(urlArea);
 
-        String message = "Enter multiple URLs (one per line):";
+        String message = "Enter multiple URLs (one per line, mirrors of the same file on one line separated by spaces):";
 
         int result = JOptionPane.showConfirmDialog(this, scrollPane, message,
                 JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
@@ -355,11 +451,18 @@ public class DownloadManager extends JFrame {
             String[] urls = urlArea.getText().split("\n");
             int addedCount = 0;
 
-            for (String url : urls) {
-                url = url.trim();
+            for (String line : urls) {
+                String[] sources = line.trim().split("\\s+");
+                String url = sources[0];
                 if (!url.isEmpty() && isValidURL(url)) {
+                    java.util.List<String> mirrors = new java.util.ArrayList<>();
+                    for (int i = 1; i < sources.length; i++) {
+                        if (isValidURL(sources[i])) {
+                            mirrors.add(sources[i]);
+                        }
+                    }
                     try {
-                        addSingleDownload(url);
+                        addSingleDownload(url, task -> task.setMirrors(mirrors));
                         addedCount++;
                     } catch (Exception e) {
                         System.err.println("Error adding URL: " + url + " - " + e.getMessage());
@@ -376,6 +479,42 @@ public class DownloadManager extends JFrame {
         }
     }
 
+    // One download per file in the Metalink, spread over its mirrors and checked against its checksums
+    private void addMetalinkDownloads() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+                "Metalink files", "meta4", "metalink"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        java.util.List<Metalink.Entry> entries;
+        try (InputStream in = new FileInputStream(fileChooser.getSelectedFile())) {
+            entries = Metalink.parse(in);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error reading Metalink: " + e.getMessage());
+            return;
+        }
+
+        int addedCount = 0;
+        for (Metalink.Entry entry : entries) {
+            try {
+                addSingleDownload(entry.urls.get(0), task -> {
+                    task.setMirrors(entry.urls.subList(1, entry.urls.size()));
+                    if (!entry.name.isEmpty()) {
+                        task.setFileName(entry.name);
+                    }
+                    task.setChecksum(entry.checksum);
+                    task.setPieceChecksums(entry.pieces);
+                });
+                addedCount++;
+            } catch (Exception e) {
+                System.err.println("Error adding " + entry.name + " - " + e.getMessage());
+            }
+        }
+        JOptionPane.showMessageDialog(this, "Added " + addedCount + " of " + entries.size() + " files.");
+    }
+
     private void scheduleDownload() {
         String url = urlField.getText().trim();
         String savePath = savePathField.getText().trim();
@@ -418,32 +557,23 @@ public class DownloadManager extends JFrame {
                 return;
             }
 
-            // Add to table as scheduled
-            DownloadTask task = new DownloadTask(url, savePath, this);
-            downloads.add(task);
-
+            // Save to history, the record ID is the task's row key in the table
+            DownloadTask task = engine.newTask(url, savePath);
             String fileName = task.getFileName();
             String currentDate = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date());
             String scheduledDateStr = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(cal.getTime());
+            DownloadStore.DownloadRecord record = downloadStore.create(url, fileName, savePath, currentDate,
+                    "Scheduled for " + scheduledDateStr);
+            task.setDownloadId(record.id);
 
-            Object[] rowData = { fileName, url, "Calculating...", "0%", "0 KB/s",
-                    "Scheduled for " + scheduledDateStr, "00:00:00", currentDate };
-            tableModel.addRow(rowData);
-
-            task.setRowIndex(tableModel.getRowCount() - 1);
+            // Add to table as scheduled
+            tableModel.addRow(task, currentDate, -1, 0, DownloadState.QUEUED, "Scheduled for " + scheduledDateStr);
 
             // Schedule the download
             scheduledExecutor.schedule(() -> {
-                SwingUtilities.invokeLater(() -> {
-                    updateDownloadProgress(task.getRowIndex(), "Calculating...", "0%", "0 KB/s", "Starting");
-                });
-                executor.submit(task);
+                engine.submit(task);
             }, delay, TimeUnit.MILLISECONDS);
 
-            // Save to history
-            downloadHistory.setProperty(url, fileName + "|" + savePath + "|" + currentDate + "|Scheduled");
-            saveDownloadHistory();
-
             urlField.setText("");
             scheduleCheckBox.setSelected(false);
 
@@ -504,12 +634,11 @@ public class DownloadManager extends JFrame {
     }
 
     private void openSelectedFile() {
-        int selectedRow = downloadTable.getSelectedRow();
+        int selectedRow = getSelectedModelRow();
         if (selectedRow >= 0) {
-            String fileName = (String) tableModel.getValueAt(selectedRow, 0);
-            String status = (String) tableModel.getValueAt(selectedRow, 5);
+            String fileName = tableModel.getFileName(selectedRow);
 
-            if ("Completed".equals(status)) {
+            if (tableModel.getState(selectedRow) == DownloadState.COMPLETED) {
                 try {
                     File file = new File(savePathField.getText(), fileName);
                     if (file.exists()) {
@@ -527,12 +656,11 @@ public class DownloadManager extends JFrame {
     }
 
     private void locateSelectedFile() {
-        int selectedRow = downloadTable.getSelectedRow();
+        int selectedRow = getSelectedModelRow();
         if (selectedRow >= 0) {
-            String fileName = (String) tableModel.getValueAt(selectedRow, 0);
-            String status = (String) tableModel.getValueAt(selectedRow, 5);
+            String fileName = tableModel.getFileName(selectedRow);
 
-            if ("Completed".equals(status)) {
+            if (tableModel.getState(selectedRow) == DownloadState.COMPLETED) {
                 try {
                     File file = new File(savePathField.getText(), fileName);
                     if (file.exists()) {
@@ -556,10 +684,9 @@ public class DownloadManager extends JFrame {
     }
 
     private void deleteSelectedFile() {
-        int selectedRow = downloadTable.getSelectedRow();
+        int selectedRow = getSelectedModelRow();
         if (selectedRow >= 0) {
-            String fileName = (String) tableModel.getValueAt(selectedRow, 0);
-            String url = (String) tableModel.getValueAt(selectedRow, 1);
+            String fileName = tableModel.getFileName(selectedRow);
 
             int confirm = JOptionPane.showConfirmDialog(this,
                     "Are you sure you want to delete the file and remove from history?\nFile: " + fileName,
@@ -571,16 +698,12 @@ public class DownloadManager extends JFrame {
                     if (file.exists()) {
                         file.delete();
                     }
+                    SegmentJournal.journalFile(file).delete();
 
-                    // Remove from history
-                    downloadHistory.remove(url);
-                    saveDownloadHistory();
-
-                    // Remove from table and list
-                    if (selectedRow < downloads.size()) {
-                        downloads.get(selectedRow).cancel();
-                        downloads.remove(selectedRow);
-                    }
+                    // Remove from history and table
+                    DownloadTask task = tableModel.getTask(selectedRow);
+                    engine.cancel(task);
+                    downloadStore.remove(task.getDownloadId());
                     tableModel.removeRow(selectedRow);
 
                 } catch (Exception e) {
@@ -591,9 +714,9 @@ public class DownloadManager extends JFrame {
     }
 
     private void copySelectedURL() {
-        int selectedRow = downloadTable.getSelectedRow();
+        int selectedRow = getSelectedModelRow();
         if (selectedRow >= 0) {
-            String url = (String) tableModel.getValueAt(selectedRow, 1);
+            String url = tableModel.getUrl(selectedRow);
             StringSelection selection = new StringSelection(url);
             Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, null);
             JOptionPane.showMessageDialog(this, "URL copied to clipboard!");
@@ -601,14 +724,91 @@ public class DownloadManager extends JFrame {
     }
 
     private void redownloadSelected() {
-        int selectedRow = downloadTable.getSelectedRow();
+        int selectedRow = getSelectedModelRow();
         if (selectedRow >= 0) {
-            String url = (String) tableModel.getValueAt(selectedRow, 1);
+            String url = tableModel.getUrl(selectedRow);
             urlField.setText(url);
             addDownload();
         }
     }
 
+    // The selection is in view order, which differs from the model once the table is sorted or filtered
+    private int getSelectedModelRow() {
+        int viewRow = downloadTable.getSelectedRow();
+        return viewRow >= 0 ? downloadTable.convertRowIndexToModel(viewRow) : -1;
+    }
+
+    private DownloadTask getSelectedTask() {
+        int selectedRow = getSelectedModelRow();
+        return selectedRow >= 0 ? tableModel.getTask(selectedRow) : null;
+    }
+
+    private void setSelectedBandwidthWeight(int weight) {
+        DownloadTask task = getSelectedTask();
+        if (task != null) {
+            task.setBandwidthWeight(weight);
+        }
+    }
+
+    private void setSelectedPriority(DownloadQueue.Priority priority) {
+        DownloadTask task = getSelectedTask();
+        if (task != null) {
+            engine.setPriority(task, priority);
+        }
+    }
+
+    private void moveSelectedToTop() {
+        DownloadTask task = getSelectedTask();
+        if (task != null) {
+            engine.moveToTop(task);
+        }
+    }
+
+    private void showSelectedSegments() {
+        DownloadTask task = getSelectedTask();
+        if (task == null) {
+            return;
+        }
+
+        String[] columns = { "#", "Start", "Position", "End", "Remaining", "Speed", "State" };
+        DefaultTableModel segmentModel = new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable segmentTable = new JTable(segmentModel);
+
+        JDialog segmentDialog = new JDialog(this, "Segments - " + task.getFileName(), false);
+        segmentDialog.setLayout(new BorderLayout());
+        segmentDialog.add(new JScrollPane(segmentTable), BorderLayout.CENTER);
+        segmentDialog.setSize(700, 300);
+        segmentDialog.setLocationRelativeTo(this);
+
+        // Refresh the live segment map while the dialog is open
+        javax.swing.Timer refreshTimer = new javax.swing.Timer(500, e -> {
+            segmentModel.setRowCount(0);
+            for (Segment.Snapshot segment : task.getSegmentSnapshot()) {
+                long remaining = Math.max(0, segment.endPos - segment.position + 1);
+                Object[] rowData = { segment.index, segment.startPos, segment.position, segment.endPos,
+                        DownloadTableModel.formatFileSize(remaining),
+                        DownloadTableModel.formatSpeed(segment.bytesPerSecond), segment.state };
+                segmentModel.addRow(rowData);
+            }
+        });
+        refreshTimer.setInitialDelay(0);
+        refreshTimer.start();
+
+        segmentDialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
+            }
+        });
+        segmentDialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        segmentDialog.setVisible(true);
+    }
+
     private void addDownload() {
         String url = urlField.getText().trim();
 
@@ -631,6 +831,12 @@ public class DownloadManager extends JFrame {
     }
 
     private void addSingleDownload(String url) throws Exception {
+        addSingleDownload(url, task -> {
+        });
+    }
+
+    // configure sets mirrors, checksums or the file name before the download is recorded and queued
+    private void addSingleDownload(String url, Consumer<DownloadTask> configure) throws Exception {
         String savePath = savePathField.getText().trim();
 
         // Validate and create save directory
@@ -646,153 +852,133 @@ public class DownloadManager extends JFrame {
             throw new Exception("Save path is not a directory: " + savePath);
         }
 
-        DownloadTask task = new DownloadTask(url, savePath, this);
-        downloads.add(task);
-
+        DownloadTask task = engine.newTask(url, savePath);
+        configure.accept(task);
         String fileName = task.getFileName();
         String currentDate = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date());
-        Object[] rowData = { fileName, url, "Calculating...", "0%", "0 KB/s", "Starting", "00:00:00", currentDate };
-        tableModel.addRow(rowData);
-
-        task.setRowIndex(tableModel.getRowCount() - 1);
-        executor.submit(task);
 
-        // Save to history
-        downloadHistory.setProperty(url, fileName + "|" + savePath + "|" + currentDate + "|Starting");
-        saveDownloadHistory();
+        // Save to history before the task can report its first status; the record ID keys the table row
+        DownloadStore.DownloadRecord record = downloadStore.create(url, fileName, savePath, currentDate, "Starting");
+        task.setDownloadId(record.id);
+        tableModel.addRow(task, currentDate, -1, 0, DownloadState.QUEUED, null);
+        engine.submit(task);
     }
 
     private void pauseDownload() {
-        int selectedRow = downloadTable.getSelectedRow();
-        if (selectedRow >= 0 && selectedRow < downloads.size()) {
-            downloads.get(selectedRow).pause();
+        DownloadTask task = getSelectedTask();
+        if (task != null) {
+            engine.pause(task);
         }
     }
 
     private void resumeDownload() {
-        int selectedRow = downloadTable.getSelectedRow();
-        if (selectedRow >= 0 && selectedRow < downloads.size()) {
-            DownloadTask task = downloads.get(selectedRow);
-            if (task.isPaused()) {
-                executor.submit(task);
-            }
+        DownloadTask task = getSelectedTask();
+        if (task != null) {
+            engine.resume(task);
         }
     }
 
     private void removeDownload() {
-        int selectedRow = downloadTable.getSelectedRow();
+        int selectedRow = getSelectedModelRow();
         if (selectedRow >= 0) {
-            String url = (String) tableModel.getValueAt(selectedRow, 1);
-
             int confirm = JOptionPane.showConfirmDialog(this,
                     "Remove this download from the list?",
                     "Confirm Remove", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                if (selectedRow < downloads.size()) {
-                    downloads.get(selectedRow).cancel();
-                    downloads.remove(selectedRow);
-                }
-
-                // Remove from history
-                downloadHistory.remove(url);
-                saveDownloadHistory();
-
+                // Remove from history and table
+                DownloadTask task = tableModel.getTask(selectedRow);
+                engine.cancel(task);
+                downloadStore.remove(task.getDownloadId());
                 tableModel.removeRow(selectedRow);
             }
         }
     }
 
-    private void loadDownloadHistory() {
-        try {
-            File historyFile = new File(DOWNLOADS_FILE);
-            if (historyFile.exists()) {
-                try (FileInputStream fis = new FileInputStream(historyFile)) {
-                    downloadHistory.load(fis);
-                }
+    private void loadPreviousDownloads() {
+        for (DownloadStore.DownloadRecord record : downloadStore.getAll()) {
+            String fileName = record.fileName;
+            String savePath = record.savePath;
+            String date = record.date;
+            String status = record.status;
+
+            // Check if file still exists
+            File file = new File(savePath, fileName);
+            if (file.exists() && "Completed".equals(status)) {
+                long length = file.length();
+                tableModel.addRow(restoreTask(record, true), date, length, length, DownloadState.COMPLETED, null);
+            } else if (!"Completed".equals(status)) {
+                // Unfinished downloads come back paused; Resume continues from their journal
+                tableModel.addRow(restoreTask(record, false), date, -1, 0, DownloadState.PAUSED, null);
             }
-        } catch (Exception e) {
-            System.err.println("Error loading download history: " + e.getMessage());
         }
     }
 
-    private void saveDownloadHistory() {
-        try {
-            try (FileOutputStream fos = new FileOutputStream(DOWNLOADS_FILE)) {
-                downloadHistory.store(fos, "Download Manager History");
-            }
-        } catch (Exception e) {
-            System.err.println("Error saving download history: " + e.getMessage());
-        }
+    private DownloadTask restoreTask(DownloadStore.DownloadRecord record, boolean completed) {
+        DownloadTask task = engine.restoreTask(record.url, record.savePath, record.fileName, completed);
+        task.setDownloadId(record.id);
+        return task;
     }
 
-    private void loadPreviousDownloads() {
-        for (String url : downloadHistory.stringPropertyNames()) {
-            String[] parts = downloadHistory.getProperty(url).split("\\|");
-            if (parts.length >= 4) {
-                String fileName = parts[0];
-                String savePath = parts[1];
-                String date = parts[2];
-                String status = parts[3];
-
-                // Check if file still exists
-                File file = new File(savePath, fileName);
-                if (file.exists() && "Completed".equals(status)) {
-                    Object[] rowData = { fileName, url, formatFileSize(file.length()),
-                            "100%", "", "Completed", "00:00:00", date };
-                    tableModel.addRow(rowData);
-                } else if (!"Completed".equals(status)) {
-                    Object[] rowData = { fileName, url, "", "0%", "", status, "00:00:00", date };
-                    tableModel.addRow(rowData);
+    // The table is one subscriber of the engine; events arrive on download threads and are applied on the EDT.
+    // Progress frames pile up in pending until the EDT takes them, so a busy EDT sees one larger batch
+    // instead of a queue of stale updates.
+    private class TableUpdater implements DownloadListener {
+        private ProgressFrame pending = new ProgressFrame();
+        private ProgressFrame applying = new ProgressFrame();
+        private boolean scheduled;
+        private final Runnable applyFrames = this::applyFrames;
+
+        @Override
+        public void onStateChanged(DownloadTask task, DownloadState state, String message) {
+            SwingUtilities.invokeLater(() -> {
+                int row = tableModel.indexOf(task);
+                if (row < 0) {
+                    return;
                 }
-            }
-        }
-    }
+                tableModel.updateState(row, state, message);
 
-    private String formatFileSize(long bytes) {
-        if (bytes < 1024)
-            return bytes + " B";
-        if (bytes < 1024 * 1024)
-            return String.format("%.1f KB", bytes / 1024.0);
-        if (bytes < 1024 * 1024 * 1024)
-            return String.format("%.1f MB", bytes / (1024.0 * 1024));
-        return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
-    }
+                // Only status changes are appended to the history log
+                downloadStore.updateStatus(task.getDownloadId(), DownloadTableModel.statusText(state, message));
+            });
+        }
 
-    public void updateDownloadProgress(int rowIndex, String size, String progress, String speed, String status) {
-        SwingUtilities.invokeLater(() -> {
-            if (rowIndex < tableModel.getRowCount()) {
-                tableModel.setValueAt(size, rowIndex, 2);
-                tableModel.setValueAt(progress, rowIndex, 3);
-                tableModel.setValueAt(speed, rowIndex, 4);
-                tableModel.setValueAt(status, rowIndex, 5);
-
-                // Update history
-                String url = (String) tableModel.getValueAt(rowIndex, 1);
-                String fileName = (String) tableModel.getValueAt(rowIndex, 0);
-                String date = (String) tableModel.getValueAt(rowIndex, 7);
-                String savePath = savePathField.getText();
-
-                downloadHistory.setProperty(url, fileName + "|" + savePath + "|" + date + "|" + status);
-                if ("Completed".equals(status) || "Error".equals(status) || "Cancelled".equals(status)) {
-                    saveDownloadHistory();
+        @Override
+        public void onProgress(ProgressFrame frame) {
+            synchronized (this) {
+                pending.addAll(frame);
+                if (scheduled) {
+                    return;
                 }
+                scheduled = true;
             }
-        });
-    }
+            SwingUtilities.invokeLater(applyFrames);
+        }
 
-    public void updateElapsedTime(int rowIndex, String elapsedTime) {
-        SwingUtilities.invokeLater(() -> {
-            if (rowIndex < tableModel.getRowCount()) {
-                tableModel.setValueAt(elapsedTime, rowIndex, 6);
+        private void applyFrames() {
+            ProgressFrame frame;
+            synchronized (this) {
+                frame = pending;
+                pending = applying;
+                applying = frame;
+                scheduled = false;
             }
-        });
+            for (int i = 0; i < frame.size(); i++) {
+                int row = tableModel.indexOf(frame.getTask(i));
+                if (row >= 0) {
+                    tableModel.updateProgress(row, frame.getDownloadedBytes(i), frame.getTotalBytes(i),
+                            frame.getBytesPerSecond(i), frame.getWireBytesPerSecond(i), frame.getElapsedMillis(i),
+                            frame.getEtaMillis(i));
+                }
+            }
+            frame.clear();
+        }
     }
 
     @Override
     public void dispose() {
-        saveDownloadHistory();
-        executor.shutdown();
+        downloadStore.close();
+        engine.close();
         if (scheduledExecutor != null) {
             scheduledExecutor.shutdown();
         }
@@ -810,348 +996,3 @@ public class DownloadManager extends JFrame {
         });
     }
 }
-
-class DownloadTask implements Runnable {
-    private String url;
-    private String savePath;
-    private String fileName;
-    private long fileSize;
-    private boolean paused;
-    private boolean cancelled;
-    private DownloadManager parent;
-    private int rowIndex;
-    private long startTime;
-    private Timer elapsedTimer;
-    private static final int THREAD_COUNT = 8;
-    private static final int BUFFER_SIZE = 8192;
-
-    public DownloadTask(String url, String savePath, DownloadManager parent) {
-        this.url = url;
-        this.savePath = savePath;
-        this.parent = parent;
-        this.fileName = sanitizeFileName(getFileNameFromUrl(url));
-        this.paused = false;
-        this.cancelled = false;
-    }
-
-    public String getFileName() {
-        return fileName;
-    }
-
-    @Override
-    public void run() {
-        try {
-            if (paused || cancelled)
-                return;
-
-            startTime = System.currentTimeMillis();
-            startElapsedTimer();
-
-            // Get file information
-            HttpURLConnection connection = (HttpURLConnection) java.net.URI.create(url).toURL().openConnection();
-            connection.setRequestMethod("HEAD");
-
-            fileSize = connection.getContentLengthLong();
-            boolean supportsRanges = "bytes".equals(connection.getHeaderField("Accept-Ranges"));
-
-            updateStatus("Downloading", formatFileSize(fileSize), "0%", "0 KB/s");
-
-            File saveFile = new File(savePath, fileName);
-
-            // Ensure the file path is valid and within the save directory
-            String canonicalSavePath = new File(savePath).getCanonicalPath();
-            String canonicalFilePath = saveFile.getCanonicalPath();
-
-            if (!canonicalFilePath.startsWith(canonicalSavePath)) {
-                throw new SecurityException("Invalid file path: potential directory traversal");
-            }
-
-            if (supportsRanges && fileSize > 1024 * 1024) { // Use multi-threading for files > 1MB
-                downloadWithMultipleThreads(saveFile);
-            } else {
-                downloadWithSingleThread(saveFile);
-            }
-
-        } catch (Exception e) {
-            updateStatus("Error: " + e.getMessage(), "", "", "");
-            e.printStackTrace();
-        } finally {
-            stopElapsedTimer();
-        }
-    }
-
-    private void startElapsedTimer() {
-        elapsedTimer = new Timer();
-        elapsedTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (!cancelled && !paused) {
-                    long elapsed = System.currentTimeMillis() - startTime;
-                    String elapsedStr = formatElapsedTime(elapsed);
-                    parent.updateElapsedTime(rowIndex, elapsedStr);
-                }
-            }
-        }, 1000, 1000); // Update every second
-    }
-
-    private void stopElapsedTimer() {
-        if (elapsedTimer != null) {
-            elapsedTimer.cancel();
-            elapsedTimer = null;
-        }
-    }
-
-    private String formatElapsedTime(long milliseconds) {
-        long seconds = milliseconds / 1000;
-        long hours = seconds / 3600;
-        long minutes = (seconds % 3600) / 60;
-        seconds = seconds % 60;
-
-        return String.format("%02d:%02d:%02d", hours, minutes, seconds);
-    }
-
-    private void downloadWithMultipleThreads(File saveFile) throws Exception {
-        long chunkSize = fileSize / THREAD_COUNT;
-        List<Future<?>> futures = new ArrayList<>();
-        ExecutorService downloadExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
-
-        // Create temporary files for each chunk
-        File[] tempFiles = new File[THREAD_COUNT];
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            tempFiles[i] = new File(saveFile.getParent(), saveFile.getName() + ".part" + i);
-        }
-
-        // Start download threads
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            final int threadIndex = i;
-            long startPos = i * chunkSize;
-            long endPos = (i == THREAD_COUNT - 1) ? fileSize - 1 : (startPos + chunkSize - 1);
-
-            Future<?> future = downloadExecutor.submit(() -> {
-                try {
-                    downloadChunk(startPos, endPos, tempFiles[threadIndex]);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
-            futures.add(future);
-        }
-
-        // Monitor progress
-        while (!allThreadsCompleted(futures) && !cancelled && !paused) {
-            updateProgressFromTempFiles(tempFiles);
-            Thread.sleep(500);
-        }
-
-        downloadExecutor.shutdown();
-
-        if (!cancelled && !paused) {
-            // Merge all chunks
-            updateStatus("Merging files...", formatFileSize(fileSize), "100%", "");
-            mergeFiles(tempFiles, saveFile);
-            updateStatus("Completed", formatFileSize(fileSize), "100%", "");
-        }
-    }
-
-    private void downloadChunk(long startPos, long endPos, File tempFile) throws Exception {
-        HttpURLConnection connection = (HttpURLConnection) java.net.URI.create(url).toURL().openConnection();
-        connection.setRequestProperty("Range", "bytes=" + startPos + "-" + endPos);
-
-        try (InputStream in = connection.getInputStream();
-                FileOutputStream out = new FileOutputStream(tempFile)) {
-
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-
-            while ((bytesRead = in.read(buffer)) != -1 && !cancelled && !paused) {
-                out.write(buffer, 0, bytesRead);
-            }
-        }
-    }
-
-    private void downloadWithSingleThread(File saveFile) throws Exception {
-        HttpURLConnection connection = (HttpURLConnection) java.net.URI.create(url).toURL().openConnection();
-
-        try (InputStream in = connection.getInputStream();
-                FileOutputStream out = new FileOutputStream(saveFile)) {
-
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            long totalBytesRead = 0;
-            long lastUpdateTime = System.currentTimeMillis();
-
-            while ((bytesRead = in.read(buffer)) != -1 && !cancelled && !paused) {
-                out.write(buffer, 0, bytesRead);
-                totalBytesRead += bytesRead;
-
-                if (System.currentTimeMillis() - lastUpdateTime > 500) {
-                    double progress = (double) totalBytesRead / fileSize * 100;
-                    long speed = calculateSpeed(totalBytesRead, startTime);
-                    updateStatus("Downloading", formatFileSize(fileSize),
-                            String.format("%.1f%%", progress), formatSpeed(speed));
-                    lastUpdateTime = System.currentTimeMillis();
-                }
-            }
-
-            if (!cancelled && !paused) {
-                updateStatus("Completed", formatFileSize(fileSize), "100%", "");
-            }
-        }
-    }
-
-    private boolean allThreadsCompleted(List<Future<?>> futures) {
-        return futures.stream().allMatch(Future::isDone);
-    }
-
-    private void updateProgressFromTempFiles(File[] tempFiles) {
-        long totalDownloaded = 0;
-        for (File tempFile : tempFiles) {
-            if (tempFile.exists()) {
-                totalDownloaded += tempFile.length();
-            }
-        }
-
-        double progress = (double) totalDownloaded / fileSize * 100;
-        long speed = calculateSpeed(totalDownloaded, startTime);
-        updateStatus("Downloading", formatFileSize(fileSize),
-                String.format("%.1f%%", progress), formatSpeed(speed));
-    }
-
-    private void mergeFiles(File[] tempFiles, File outputFile) throws Exception {
-        try (FileOutputStream out = new FileOutputStream(outputFile)) {
-            for (File tempFile : tempFiles) {
-                if (tempFile.exists()) {
-                    try (FileInputStream in = new FileInputStream(tempFile)) {
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        int bytesRead;
-                        while ((bytesRead = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, bytesRead);
-                        }
-                    }
-                    tempFile.delete();
-                }
-            }
-        }
-    }
-
-    private long calculateSpeed(long bytesDownloaded, long startTime) {
-        long elapsedTime = System.currentTimeMillis() - startTime;
-        return elapsedTime > 0 ? (bytesDownloaded * 1000) / elapsedTime : 0;
-    }
-
-    private String formatFileSize(long bytes) {
-        if (bytes < 1024)
-            return bytes + " B";
-        if (bytes < 1024 * 1024)
-            return String.format("%.1f KB", bytes / 1024.0);
-        if (bytes < 1024 * 1024 * 1024)
-            return String.format("%.1f MB", bytes / (1024.0 * 1024));
-        return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
-    }
-
-    private String formatSpeed(long bytesPerSecond) {
-        return formatFileSize(bytesPerSecond) + "/s";
-    }
-
-    private String getFileNameFromUrl(String url) {
-        String fileName = url.substring(url.lastIndexOf('/') + 1);
-
-        // Remove query parameters and fragments
-        int queryIndex = fileName.indexOf('?');
-        if (queryIndex != -1) {
-            fileName = fileName.substring(0, queryIndex);
-        }
-        int fragmentIndex = fileName.indexOf('#');
-        if (fragmentIndex != -1) {
-            fileName = fileName.substring(0, fragmentIndex);
-        }
-
-        // Sanitize filename - remove invalid characters
-        fileName = sanitizeFileName(fileName);
-
-        if (fileName.isEmpty() || !fileName.contains(".")) {
-            fileName = "download_" + System.currentTimeMillis() + ".tmp";
-        }
-        return fileName;
-    }
-
-    private String sanitizeFileName(String fileName) {
-        // Remove or replace invalid characters for Windows/Linux/Mac
-        String sanitized = fileName.replaceAll("[<>:\"/\\\\|?*]", "_");
-
-        // Remove control characters
-        sanitized = sanitized.replaceAll("[\\x00-\\x1F\\x7F]", "");
-
-        // Trim whitespace and dots from start/end
-        sanitized = sanitized.trim().replaceAll("^[.]+|[.]+$", "");
-
-        // Handle reserved Windows names
-        String[] reservedNames = { "CON", "PRN", "AUX", "NUL", "COM1", "COM2", "COM3", "COM4",
-                "COM5", "COM6", "COM7", "COM8", "COM9", "LPT1", "LPT2",
-                "LPT3", "LPT4", "LPT5", "LPT6", "LPT7", "LPT8", "LPT9" };
-
-        String nameWithoutExt = sanitized;
-        String extension = "";
-        int lastDot = sanitized.lastIndexOf('.');
-        if (lastDot > 0) {
-            nameWithoutExt = sanitized.substring(0, lastDot);
-            extension = sanitized.substring(lastDot);
-        }
-
-        for (String reserved : reservedNames) {
-            if (nameWithoutExt.equalsIgnoreCase(reserved)) {
-                nameWithoutExt = nameWithoutExt + "_file";
-                break;
-            }
-        }
-
-        sanitized = nameWithoutExt + extension;
-
-        // Ensure filename is not too long (max 255 characters)
-        if (sanitized.length() > 255) {
-            if (lastDot > 0) {
-                extension = sanitized.substring(lastDot);
-                sanitized = sanitized.substring(0, Math.min(255 - extension.length(), lastDot));
-            } else {
-                sanitized = sanitized.substring(0, 255);
-            }
-            sanitized += extension;
-        }
-
-        return sanitized.isEmpty() ? "download.tmp" : sanitized;
-    }
-
-    private void updateStatus(String status, String size, String progress, String speed) {
-        parent.updateDownloadProgress(rowIndex, size, progress, speed, status);
-    }
-
-    public void pause() {
-        paused = true;
-        if (elapsedTimer != null) {
-            elapsedTimer.cancel();
-        }
-    }
-
-    public void resume() {
-        paused = false;
-        startTime = System.currentTimeMillis(); // Reset start time for accurate speed calculation
-        startElapsedTimer();
-    }
-
-    public boolean isPaused() {
-        return paused;
-    }
-
-    public void cancel() {
-        cancelled = true;
-        stopElapsedTimer();
-    }
-
-    public void setRowIndex(int index) {
-        this.rowIndex = index;
-    }
-
-    public int getRowIndex() {
-        return this.rowIndex;
-    }
-}
\ No newline at end of file
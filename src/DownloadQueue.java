@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+
+// Decides which downloads run. Waiting downloads are ordered by priority and then by arrival,
+// at most maxActive run at once, and a waiting download with a higher priority than a running
+// one preempts it: the running download checkpoints its journal, stops and waits in the queue
+// again until a slot is free.
+class DownloadQueue {
+    enum Priority {
+        LOW,
+        NORMAL,
+        HIGH
+    }
+
+    static final int DEFAULT_MAX_ACTIVE = 4;
+    static final int MAX_ACTIVE_LIMIT = 32;
+
+    private final ExecutorService executor;
+    private final TreeSet<Entry> waiting = new TreeSet<>();
+    private final Map<DownloadTask, Entry> running = new IdentityHashMap<>();
+    private int maxActive = DEFAULT_MAX_ACTIVE;
+    private long nextOrder;
+    private long topOrder;
+    // What this queue has added to the process-wide gauges, so several engines add up
+    private int reportedWaiting;
+    private int reportedRunning;
+
+    DownloadQueue(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    synchronized void submit(DownloadTask task) {
+        if (running.containsKey(task) || find(task) != null) {
+            return;
+        }
+        waiting.add(new Entry(task, task.getPriority(), nextOrder++));
+        task.markQueued();
+        dispatch();
+    }
+
+    // Takes a waiting download out of the queue; running downloads are stopped by the caller
+    synchronized boolean remove(DownloadTask task) {
+        Entry entry = find(task);
+        boolean removed = entry != null && waiting.remove(entry);
+        reportDepth();
+        return removed;
+    }
+
+    // Puts a waiting download ahead of everything else, raising its priority to the highest one waiting
+    synchronized void moveToTop(DownloadTask task) {
+        Entry entry = find(task);
+        if (entry == null) {
+            return;
+        }
+        waiting.remove(entry);
+        Priority highest = waiting.isEmpty() ? entry.priority : waiting.first().priority;
+        if (highest.compareTo(entry.priority) > 0) {
+            entry.priority = highest;
+            task.setPriority(highest);
+        }
+        entry.order = --topOrder;
+        waiting.add(entry);
+        dispatch();
+    }
+
+    synchronized void setPriority(DownloadTask task, Priority priority) {
+        task.setPriority(priority);
+        Entry entry = running.get(task);
+        if (entry != null) {
+            entry.priority = priority;
+        } else if ((entry = find(task)) != null) {
+            waiting.remove(entry);
+            entry.priority = priority;
+            waiting.add(entry);
+        }
+        dispatch();
+    }
+
+    // Lowering the limit lets the surplus downloads finish rather than stopping them
+    synchronized void setMaxActive(int maxActive) {
+        this.maxActive = Math.max(1, Math.min(MAX_ACTIVE_LIMIT, maxActive));
+        dispatch();
+    }
+
+    synchronized int getMaxActive() {
+        return maxActive;
+    }
+
+    void setMaxConnections(int maxConnections) {
+        ConnectionBudget.shared().setLimit(maxConnections);
+    }
+
+    int getMaxConnections() {
+        return ConnectionBudget.shared().getLimit();
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private Entry find(DownloadTask task) {
+        for (Entry entry : waiting) {
+            if (entry.task == task) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void dispatch() {
+        while (running.size() < maxActive && !waiting.isEmpty()) {
+            start(waiting.pollFirst());
+        }
+        preempt();
+        reportDepth();
+    }
+
+    private void reportDepth() {
+        Metrics.QUEUED_DOWNLOADS.add(waiting.size() - reportedWaiting);
+        Metrics.RUNNING_DOWNLOADS.add(running.size() - reportedRunning);
+        reportedWaiting = waiting.size();
+        reportedRunning = running.size();
+    }
+
+    private void start(Entry entry) {
+        running.put(entry.task, entry);
+        executor.submit(() -> {
+            try {
+                entry.task.run();
+            } finally {
+                finished(entry);
+            }
+        });
+    }
+
+    private synchronized void finished(Entry entry) {
+        running.remove(entry.task);
+        entry.preempting = false;
+        // Keeps its original place, ahead of anything of the same priority that arrived later
+        if (entry.task.consumePreempted() && !entry.task.isCompleted()) {
+            entry.task.resume();
+            waiting.add(entry);
+        }
+        dispatch();
+    }
+
+    // Each waiting download that outranks a running one and is not already covered by a
+    // preemption in flight stops the lowest-priority, most recently queued running download
+    private void preempt() {
+        int freeing = 0;
+        for (Entry entry : running.values()) {
+            if (entry.preempting) {
+                freeing++;
+            }
+        }
+
+        List<Entry> candidates = new ArrayList<>(waiting);
+        for (int i = freeing; i < candidates.size(); i++) {
+            Entry candidate = candidates.get(i);
+            Entry victim = null;
+            for (Entry entry : running.values()) {
+                if (entry.preempting || entry.priority.compareTo(candidate.priority) >= 0
+                        || !entry.task.isPreemptible()) {
+                    continue;
+                }
+                if (victim == null || entry.compareTo(victim) > 0) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                break;
+            }
+            victim.preempting = true;
+            victim.task.preempt();
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final DownloadTask task;
+        Priority priority;
+        long order;
+        boolean preempting;
+
+        Entry(DownloadTask task, Priority priority, long order) {
+            this.task = task;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        // Queue order: higher priority first, then earlier order
+        @Override
+        public int compareTo(Entry other) {
+            int byPriority = other.priority.compareTo(priority);
+            return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+// Lifecycle of a download as seen by listeners
+enum DownloadState {
+    QUEUED,
+    CONNECTING,
+    DOWNLOADING,
+    PAUSED,
+    // Reading back the last bytes to check the file against its expected checksum
+    VERIFYING,
+    // Part files are being joined into the target
+    MERGING,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+}
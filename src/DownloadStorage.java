@@ -0,0 +1,218 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+interface DownloadStorage extends Closeable {
+    // Registers a segment that will be written sequentially starting at startPos
+    void openSegment(long startPos) throws IOException;
+
+    // Writes all remaining bytes of srcs, one after the other, at the given absolute offset of the
+    // target file. Only the disk writer calls this, one write at a time.
+    long write(ByteBuffer[] srcs, long position) throws IOException;
+
+    // Reads written bytes back from the given absolute offset, for verification while the download
+    // runs; returns how many bytes were read, -1 past the data
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    // Flushes written data to the device so a journal checkpoint never gets ahead of the file
+    void force() throws IOException;
+
+    // Called once after every segment has been written successfully
+    void finish() throws IOException;
+
+    // FileChannel has no positional gathering write, so this moves the channel position; every
+    // other access to the channel is positional and doesn't see it
+    static long gatherWrite(FileChannel channel, ByteBuffer[] srcs, long position) throws IOException {
+        channel.position(position);
+        long written = 0;
+        while (srcs[srcs.length - 1].hasRemaining()) {
+            written += channel.write(srcs);
+        }
+        return written;
+    }
+
+    static DownloadStorage create(StorageMode mode, File target, long fileSize) throws IOException {
+        if (mode == StorageMode.PART_FILES) {
+            return new PartFileStorage(target);
+        }
+        return new PreallocatedStorage(target, fileSize);
+    }
+}
+
+class PreallocatedStorage implements DownloadStorage {
+    private final FileChannel channel;
+
+    PreallocatedStorage(File target, long fileSize) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        long existing = target.exists() ? target.length() : 0;
+        long usable = directory.getUsableSpace();
+
+        // getUsableSpace() returns 0 when the volume cannot be queried, so only trust positive values
+        if (usable > 0 && fileSize - existing > usable) {
+            throw new IOException("Not enough disk space: " + fileSize + " bytes needed, "
+                    + usable + " bytes available in " + directory);
+        }
+
+        channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() > fileSize) {
+                channel.truncate(fileSize);
+            } else if (channel.size() < fileSize && fileSize > 0) {
+                // Extend the file to its final length so every segment has a valid offset to write at
+                channel.write(ByteBuffer.allocate(1), fileSize - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void openSegment(long startPos) {
+        // All segments share the same channel
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, long position) throws IOException {
+        return DownloadStorage.gatherWrite(channel, srcs, position);
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return channel.read(dst, position);
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void finish() {
+        // Data is already in place
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+class PartFileStorage implements DownloadStorage {
+    private final File target;
+    private final TreeMap<Long, Part> parts = new TreeMap<>();
+    // Part files are numbered in the order they are opened, which never repeats a name
+    private int nextPart;
+
+    PartFileStorage(File target) {
+        this.target = target;
+    }
+
+    @Override
+    public synchronized void openSegment(long startPos) throws IOException {
+        // An orphaned segment that is adopted again before it got any bytes keeps its part
+        if (parts.containsKey(startPos)) {
+            return;
+        }
+        File file = new File(target.getParent(), target.getName() + ".part" + nextPart++);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        parts.put(startPos, new Part(file, channel, startPos));
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, long position) throws IOException {
+        Part part;
+        synchronized (this) {
+            Map.Entry<Long, Part> entry = parts.floorEntry(position);
+            if (entry == null) {
+                throw new IOException("No segment registered for offset " + position);
+            }
+            part = entry.getValue();
+        }
+
+        return DownloadStorage.gatherWrite(part.channel, srcs, position - part.startPos);
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        Part part;
+        Long next;
+        synchronized (this) {
+            Map.Entry<Long, Part> entry = parts.floorEntry(position);
+            if (entry == null) {
+                throw new IOException("No segment registered for offset " + position);
+            }
+            part = entry.getValue();
+            next = parts.higherKey(position);
+        }
+
+        // Stop at the next part, the caller reads on from there
+        ByteBuffer window = dst;
+        if (next != null && dst.remaining() > next - position) {
+            window = dst.duplicate().limit(dst.position() + (int) (next - position));
+        }
+        int read = part.channel.read(window, position - part.startPos);
+        if (window != dst && read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized void force() throws IOException {
+        for (Part part : parts.values()) {
+            part.channel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void finish() throws IOException {
+        List<Part> ordered = new ArrayList<>(parts.values());
+        for (Part part : ordered) {
+            part.channel.close();
+        }
+
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Part part : ordered) {
+                try (FileChannel in = FileChannel.open(part.file.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long transferred = 0;
+                    while (transferred < size) {
+                        transferred += in.transferTo(transferred, size - transferred, out);
+                    }
+                }
+                part.file.delete();
+            }
+        }
+        parts.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Part part : parts.values()) {
+            part.channel.close();
+        }
+    }
+
+    private static class Part {
+        final File file;
+        final FileChannel channel;
+        final long startPos;
+
+        Part(File file, FileChannel channel, long startPos) {
+            this.file = file;
+            this.channel = channel;
+            this.startPos = startPos;
+        }
+    }
+}
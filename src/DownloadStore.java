@@ -0,0 +1,151 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// Download history as an AppendLog with an in-memory index keyed by download ID.
+// Every change appends one line, so saving costs the same with ten or a hundred thousand
+// entries; the log is rewritten only when superseded lines outnumber live records.
+class DownloadStore {
+    private static final String PUT = "P";
+    private static final String DELETE = "D";
+    private static final String LAST_ID = "N";
+
+    private final AppendLog log;
+    private final Map<Long, DownloadRecord> records = new LinkedHashMap<>();
+    private long nextId = 1;
+
+    DownloadStore(File file, File legacyPropertiesFile) {
+        log = new AppendLog(file, "download history");
+        if (log.exists()) {
+            log.replay(this::apply);
+        } else if (legacyPropertiesFile != null && legacyPropertiesFile.exists()) {
+            migrate(legacyPropertiesFile);
+        }
+        if (!log.exists() || log.getLineCount() > liveLines()) {
+            compact();
+        }
+    }
+
+    synchronized List<DownloadRecord> getAll() {
+        return new ArrayList<>(records.values());
+    }
+
+    synchronized DownloadRecord get(long id) {
+        return records.get(id);
+    }
+
+    synchronized DownloadRecord create(String url, String fileName, String savePath, String date, String status) {
+        DownloadRecord record = new DownloadRecord(nextId++, url, fileName, savePath, date, status);
+        records.put(record.id, record);
+        append(encode(record));
+        return record;
+    }
+
+    // Progress ticks repeat the same status, only real changes reach the log
+    synchronized void updateStatus(long id, String status) {
+        DownloadRecord record = records.get(id);
+        if (record == null || status.equals(record.status)) {
+            return;
+        }
+        record.status = status;
+        append(encode(record));
+    }
+
+    synchronized void remove(long id) {
+        DownloadRecord record = records.remove(id);
+        if (record != null) {
+            append(DELETE, String.valueOf(record.id));
+        }
+    }
+
+    synchronized void close() {
+        log.close();
+    }
+
+    private void append(String... fields) {
+        log.append(fields);
+        if (log.shouldCompact(liveLines())) {
+            compact();
+        }
+    }
+
+    // An unknown operation or a PUT missing fields is a torn line: it still takes an ID, which
+    // is never handed out again
+    private void apply(String[] fields) {
+        long id = Long.parseLong(fields[1]);
+        if (PUT.equals(fields[0]) && fields.length == 7) {
+            records.put(id, new DownloadRecord(id, fields[2], fields[3], fields[4], fields[5], fields[6]));
+        } else if (DELETE.equals(fields[0])) {
+            records.remove(id);
+        }
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    // The records plus the LAST_ID line a compacted log starts with
+    private long liveLines() {
+        return records.size() + 1L;
+    }
+
+    // One-time import of the old url=fileName|savePath|date|status properties file
+    private void migrate(File legacyPropertiesFile) {
+        Properties legacy = new Properties();
+        try (FileInputStream fis = new FileInputStream(legacyPropertiesFile)) {
+            legacy.load(fis);
+        } catch (IOException e) {
+            System.err.println("Error loading download history: " + e.getMessage());
+            return;
+        }
+
+        List<String[]> entries = new ArrayList<>();
+        for (String url : legacy.stringPropertyNames()) {
+            String[] parts = legacy.getProperty(url).split("\\|");
+            if (parts.length >= 4) {
+                entries.add(new String[] { url, parts[0], parts[1], parts[2], parts[3] });
+            }
+        }
+        // Properties has no order, keep the history chronological
+        entries.sort((a, b) -> a[3].compareTo(b[3]));
+        for (String[] entry : entries) {
+            DownloadRecord record = new DownloadRecord(nextId++, entry[0], entry[1], entry[2], entry[3], entry[4]);
+            records.put(record.id, record);
+        }
+    }
+
+    private void compact() {
+        List<String[]> lines = new ArrayList<>(records.size() + 1);
+        // Keeps IDs of removed downloads from being handed out again
+        lines.add(new String[] { LAST_ID, String.valueOf(nextId - 1) });
+        for (DownloadRecord record : records.values()) {
+            lines.add(encode(record));
+        }
+        log.rewrite(lines);
+    }
+
+    private static String[] encode(DownloadRecord record) {
+        return new String[] { PUT, String.valueOf(record.id), record.url, record.fileName, record.savePath,
+                record.date, record.status };
+    }
+
+    static class DownloadRecord {
+        final long id;
+        final String url;
+        final String fileName;
+        final String savePath;
+        final String date;
+        volatile String status;
+
+        DownloadRecord(long id, String url, String fileName, String savePath, String date, String status) {
+            this.id = id;
+            this.url = url;
+            this.fileName = fileName;
+            this.savePath = savePath;
+            this.date = date;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,596 @@
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.JProgressBar;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellRenderer;
+
+// Rows of the download table, stored column by column in primitive arrays and looked up by the
+// download ID from the history store. IDs are handed out in increasing order, so the id column
+// stays sorted and finding a row is a binary search. Cells hold raw numbers; the renderers
+// format only the rows that are on screen.
+class DownloadTableModel extends AbstractTableModel {
+    static final int COLUMN_FILE_NAME = 0;
+    static final int COLUMN_URL = 1;
+    static final int COLUMN_SIZE = 2;
+    static final int COLUMN_PROGRESS = 3;
+    static final int COLUMN_SPEED = 4;
+    static final int COLUMN_STATUS = 5;
+    static final int COLUMN_ELAPSED = 6;
+    static final int COLUMN_TIME_LEFT = 7;
+    static final int COLUMN_DATE = 8;
+
+    private static final String[] COLUMN_NAMES = { "File Name", "URL", "Size", "Progress", "Speed", "Status",
+            "Elapsed Time", "Time Left", "Date" };
+    private static final DownloadState[] STATES = DownloadState.values();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private DownloadTask[] tasks = new DownloadTask[INITIAL_CAPACITY];
+    private String[] fileNames = new String[INITIAL_CAPACITY];
+    private String[] urls = new String[INITIAL_CAPACITY];
+    private String[] dates = new String[INITIAL_CAPACITY];
+    private long[] totalBytes = new long[INITIAL_CAPACITY];
+    private long[] downloadedBytes = new long[INITIAL_CAPACITY];
+    private long[] bytesPerSecond = new long[INITIAL_CAPACITY];
+    // Differs from bytesPerSecond only while a compressed response is decoded
+    private long[] wireBytesPerSecond = new long[INITIAL_CAPACITY];
+    private long[] elapsedMillis = new long[INITIAL_CAPACITY];
+    // -1 while unknown
+    private long[] etaMillis = new long[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    // Only set when the status needs more than the state, e.g. the error or the scheduled time
+    private String[] messages = new String[INITIAL_CAPACITY];
+    private int size;
+
+    // Appends a row; the ID has to be larger than every ID already in the table
+    int addRow(DownloadTask task, String date, long total, long downloaded, DownloadState state, String message) {
+        long id = task.getDownloadId();
+        if (size > 0 && id <= ids[size - 1]) {
+            throw new IllegalArgumentException("Download IDs must be added in increasing order: " + id);
+        }
+        if (size == ids.length) {
+            grow(size * 2);
+        }
+        int row = size++;
+        ids[row] = id;
+        tasks[row] = task;
+        fileNames[row] = task.getFileName();
+        urls[row] = task.getUrl();
+        dates[row] = date;
+        totalBytes[row] = total;
+        downloadedBytes[row] = downloaded;
+        bytesPerSecond[row] = 0;
+        wireBytesPerSecond[row] = 0;
+        elapsedMillis[row] = 0;
+        etaMillis[row] = -1;
+        states[row] = (byte) state.ordinal();
+        messages[row] = message;
+        fireTableRowsInserted(row, row);
+        return row;
+    }
+
+    void removeRow(int row) {
+        int tail = size - row - 1;
+        System.arraycopy(ids, row + 1, ids, row, tail);
+        System.arraycopy(tasks, row + 1, tasks, row, tail);
+        System.arraycopy(fileNames, row + 1, fileNames, row, tail);
+        System.arraycopy(urls, row + 1, urls, row, tail);
+        System.arraycopy(dates, row + 1, dates, row, tail);
+        System.arraycopy(totalBytes, row + 1, totalBytes, row, tail);
+        System.arraycopy(downloadedBytes, row + 1, downloadedBytes, row, tail);
+        System.arraycopy(bytesPerSecond, row + 1, bytesPerSecond, row, tail);
+        System.arraycopy(wireBytesPerSecond, row + 1, wireBytesPerSecond, row, tail);
+        System.arraycopy(elapsedMillis, row + 1, elapsedMillis, row, tail);
+        System.arraycopy(etaMillis, row + 1, etaMillis, row, tail);
+        System.arraycopy(states, row + 1, states, row, tail);
+        System.arraycopy(messages, row + 1, messages, row, tail);
+        size--;
+        tasks[size] = null;
+        fileNames[size] = null;
+        urls[size] = null;
+        dates[size] = null;
+        messages[size] = null;
+        fireTableRowsDeleted(row, row);
+    }
+
+    // -1 when the download is not in the table
+    int indexOf(long id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        return row >= 0 ? row : -1;
+    }
+
+    int indexOf(DownloadTask task) {
+        int row = indexOf(task.getDownloadId());
+        return row >= 0 && tasks[row] == task ? row : -1;
+    }
+
+    // Fires only for the cells whose rendered text can change
+    void updateProgress(int row, long downloaded, long total, long rate, long wireRate, long elapsed, long eta) {
+        if (totalBytes[row] != total) {
+            totalBytes[row] = total;
+            fireTableCellUpdated(row, COLUMN_SIZE);
+            downloadedBytes[row] = downloaded;
+            fireTableCellUpdated(row, COLUMN_PROGRESS);
+        } else if (downloadedBytes[row] != downloaded) {
+            downloadedBytes[row] = downloaded;
+            fireTableCellUpdated(row, COLUMN_PROGRESS);
+        }
+        if (bytesPerSecond[row] != rate || wireBytesPerSecond[row] != wireRate) {
+            bytesPerSecond[row] = rate;
+            wireBytesPerSecond[row] = wireRate;
+            fireTableCellUpdated(row, COLUMN_SPEED);
+        }
+        // The column shows whole seconds
+        if (elapsedMillis[row] / 1000 != elapsed / 1000) {
+            elapsedMillis[row] = elapsed;
+            fireTableCellUpdated(row, COLUMN_ELAPSED);
+        }
+        if (etaMillis[row] / 1000 != eta / 1000) {
+            etaMillis[row] = eta;
+            fireTableCellUpdated(row, COLUMN_TIME_LEFT);
+        }
+    }
+
+    void updateState(int row, DownloadState state, String message) {
+        states[row] = (byte) state.ordinal();
+        messages[row] = message;
+        fireTableCellUpdated(row, COLUMN_STATUS);
+        // Speed and time left are only shown while downloading
+        fireTableCellUpdated(row, COLUMN_SPEED);
+        fireTableCellUpdated(row, COLUMN_TIME_LEFT);
+    }
+
+    DownloadTask getTask(int row) {
+        return tasks[row];
+    }
+
+    String getFileName(int row) {
+        return fileNames[row];
+    }
+
+    String getUrl(int row) {
+        return urls[row];
+    }
+
+    DownloadState getState(int row) {
+        return STATES[states[row]];
+    }
+
+    long getTotalBytes(int row) {
+        return totalBytes[row];
+    }
+
+    long getDownloadedBytes(int row) {
+        return downloadedBytes[row];
+    }
+
+    @Override
+    public int getRowCount() {
+        return size;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case COLUMN_SIZE:
+            case COLUMN_PROGRESS:
+            case COLUMN_SPEED:
+            case COLUMN_ELAPSED:
+            case COLUMN_TIME_LEFT:
+                return Long.class;
+            case COLUMN_STATUS:
+                return DownloadState.class;
+            default:
+                return String.class;
+        }
+    }
+
+    // Raw values; what the user sees comes from formatCell
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case COLUMN_FILE_NAME:
+                return fileNames[row];
+            case COLUMN_URL:
+                return urls[row];
+            case COLUMN_SIZE:
+                return totalBytes[row];
+            case COLUMN_PROGRESS:
+                return downloadedBytes[row];
+            case COLUMN_SPEED:
+                return bytesPerSecond[row];
+            case COLUMN_STATUS:
+                return getState(row);
+            case COLUMN_ELAPSED:
+                return elapsedMillis[row];
+            case COLUMN_TIME_LEFT:
+                return etaMillis[row];
+            default:
+                return dates[row];
+        }
+    }
+
+    String formatCell(int row, int column) {
+        switch (column) {
+            case COLUMN_SIZE:
+                return totalBytes[row] >= 0 ? formatFileSize(totalBytes[row]) : "";
+            case COLUMN_PROGRESS:
+                return totalBytes[row] > 0
+                        ? String.format("%.1f%%", (double) downloadedBytes[row] / totalBytes[row] * 100)
+                        : formatFileSize(downloadedBytes[row]);
+            case COLUMN_SPEED:
+                if (getState(row) != DownloadState.DOWNLOADING) {
+                    return "";
+                }
+                if (wireBytesPerSecond[row] < bytesPerSecond[row]) {
+                    // Compressed transfer: decoded speed first, what the network carries after it
+                    return formatSpeed(bytesPerSecond[row]) + " (" + formatSpeed(wireBytesPerSecond[row]) + " wire)";
+                }
+                return formatSpeed(bytesPerSecond[row]);
+            case COLUMN_STATUS:
+                return statusText(getState(row), messages[row]);
+            case COLUMN_ELAPSED:
+                return formatElapsedTime(elapsedMillis[row]);
+            case COLUMN_TIME_LEFT:
+                return getState(row) == DownloadState.DOWNLOADING && etaMillis[row] >= 0
+                        ? formatElapsedTime(etaMillis[row]) : "";
+            default:
+                return String.valueOf(getValueAt(row, column));
+        }
+    }
+
+    // Case-insensitive substring match on the file name and URL, without allocating per row
+    boolean matches(int row, String text) {
+        return containsIgnoreCase(fileNames[row], text) || containsIgnoreCase(urls[row], text);
+    }
+
+    private static boolean containsIgnoreCase(String value, String text) {
+        for (int i = value.length() - text.length(); i >= 0; i--) {
+            if (value.regionMatches(true, i, text, 0, text.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Orders two model rows by one column
+    int compareRows(int column, int a, int b) {
+        switch (column) {
+            case COLUMN_FILE_NAME:
+                return String.CASE_INSENSITIVE_ORDER.compare(fileNames[a], fileNames[b]);
+            case COLUMN_URL:
+                return urls[a].compareTo(urls[b]);
+            case COLUMN_SIZE:
+                return Long.compare(totalBytes[a], totalBytes[b]);
+            case COLUMN_PROGRESS:
+                return Double.compare(fraction(a), fraction(b));
+            case COLUMN_SPEED:
+                return Long.compare(bytesPerSecond[a], bytesPerSecond[b]);
+            case COLUMN_STATUS:
+                return Integer.compare(states[a], states[b]);
+            case COLUMN_ELAPSED:
+                return Long.compare(elapsedMillis[a], elapsedMillis[b]);
+            case COLUMN_TIME_LEFT:
+                return Long.compare(etaMillis[a], etaMillis[b]);
+            default:
+                return dates[a].compareTo(dates[b]);
+        }
+    }
+
+    // Downloads of unknown size sort below everything that has a percentage
+    private double fraction(int row) {
+        return totalBytes[row] > 0 ? (double) downloadedBytes[row] / totalBytes[row] : -1;
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        tasks = Arrays.copyOf(tasks, capacity);
+        fileNames = Arrays.copyOf(fileNames, capacity);
+        urls = Arrays.copyOf(urls, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        totalBytes = Arrays.copyOf(totalBytes, capacity);
+        downloadedBytes = Arrays.copyOf(downloadedBytes, capacity);
+        bytesPerSecond = Arrays.copyOf(bytesPerSecond, capacity);
+        wireBytesPerSecond = Arrays.copyOf(wireBytesPerSecond, capacity);
+        elapsedMillis = Arrays.copyOf(elapsedMillis, capacity);
+        etaMillis = Arrays.copyOf(etaMillis, capacity);
+        states = Arrays.copyOf(states, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+    }
+
+    static String formatFileSize(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        if (bytes < 1024 * 1024)
+            return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024 * 1024 * 1024)
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    static String formatSpeed(long bytesPerSecond) {
+        return formatFileSize(bytesPerSecond) + "/s";
+    }
+
+    static String formatElapsedTime(long milliseconds) {
+        long seconds = milliseconds / 1000;
+        long hours = seconds / 3600;
+        long minutes = (seconds % 3600) / 60;
+        seconds = seconds % 60;
+
+        return String.format("%02d:%02d:%02d", hours, minutes, seconds);
+    }
+
+    // Labels are also what the history log stores, so they stay the same as before the engine existed
+    static String statusText(DownloadState state, String message) {
+        switch (state) {
+            case QUEUED:
+                return message != null ? message : "Queued";
+            case CONNECTING:
+                return message != null ? message : "Connecting...";
+            case DOWNLOADING:
+                return "Downloading";
+            case PAUSED:
+                return "Paused";
+            case VERIFYING:
+                return "Verifying...";
+            case MERGING:
+                return "Merging files...";
+            case COMPLETED:
+                return "Completed";
+            case FAILED:
+                return "Error: " + message;
+            default:
+                return "Cancelled";
+        }
+    }
+
+    // Sorts and filters the view as an int[] of model rows, merge sorted by comparing the primitive
+    // columns directly, so nothing is boxed per row or per comparison. Like a DefaultRowSorter
+    // without sortsOnUpdates, the order is only recomputed when rows come or go or the keys or
+    // filter change, not on every progress update.
+    static class Sorter extends RowSorter<DownloadTableModel> {
+        private static final int MAX_SORT_KEYS = 3;
+        private static final int INSERTION_SORT_THRESHOLD = 16;
+
+        private final DownloadTableModel model;
+        private List<SortKey> sortKeys = Collections.emptyList();
+        private String filterText = "";
+        // Both null while the view shows the model unchanged
+        private int[] viewToModel;
+        private int[] modelToView;
+
+        Sorter(DownloadTableModel model) {
+            this.model = model;
+        }
+
+        // Empty text shows every row
+        void setFilterText(String text) {
+            filterText = text.trim();
+            sort();
+        }
+
+        @Override
+        public DownloadTableModel getModel() {
+            return model;
+        }
+
+        // Clicking a header sorts by that column first, flipping the order if it already was
+        @Override
+        public void toggleSortOrder(int column) {
+            SortOrder order = SortOrder.ASCENDING;
+            if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column
+                    && sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+                order = SortOrder.DESCENDING;
+            }
+            List<SortKey> keys = new ArrayList<>();
+            keys.add(new SortKey(column, order));
+            for (SortKey key : sortKeys) {
+                if (key.getColumn() != column && keys.size() < MAX_SORT_KEYS) {
+                    keys.add(key);
+                }
+            }
+            setSortKeys(keys);
+        }
+
+        @Override
+        public void setSortKeys(List<? extends SortKey> keys) {
+            List<SortKey> sorted = new ArrayList<>();
+            if (keys != null) {
+                for (SortKey key : keys) {
+                    if (key.getSortOrder() != SortOrder.UNSORTED) {
+                        sorted.add(key);
+                    }
+                }
+            }
+            sortKeys = Collections.unmodifiableList(sorted);
+            fireSortOrderChanged();
+            sort();
+        }
+
+        @Override
+        public List<? extends SortKey> getSortKeys() {
+            return sortKeys;
+        }
+
+        @Override
+        public int convertRowIndexToModel(int index) {
+            checkIndex(index, getViewRowCount());
+            return viewToModel != null ? viewToModel[index] : index;
+        }
+
+        // -1 when the row is filtered out
+        @Override
+        public int convertRowIndexToView(int index) {
+            checkIndex(index, getModelRowCount());
+            return modelToView != null ? modelToView[index] : index;
+        }
+
+        @Override
+        public int getViewRowCount() {
+            return viewToModel != null ? viewToModel.length : model.getRowCount();
+        }
+
+        @Override
+        public int getModelRowCount() {
+            return model.getRowCount();
+        }
+
+        @Override
+        public void modelStructureChanged() {
+            sortKeys = Collections.emptyList();
+            sort();
+        }
+
+        @Override
+        public void allRowsChanged() {
+            sort();
+        }
+
+        @Override
+        public void rowsInserted(int firstRow, int endRow) {
+            sort();
+        }
+
+        @Override
+        public void rowsDeleted(int firstRow, int endRow) {
+            sort();
+        }
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow) {
+        }
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow, int column) {
+        }
+
+        private void sort() {
+            int[] previous = viewToModel;
+            int rowCount = model.getRowCount();
+            if (sortKeys.isEmpty() && filterText.isEmpty()) {
+                if (previous == null) {
+                    return;
+                }
+                viewToModel = null;
+                modelToView = null;
+            } else {
+                int[] rows = new int[rowCount];
+                int count = 0;
+                for (int row = 0; row < rowCount; row++) {
+                    if (filterText.isEmpty() || model.matches(row, filterText)) {
+                        rows[count++] = row;
+                    }
+                }
+                rows = count < rowCount ? Arrays.copyOf(rows, count) : rows;
+                if (!sortKeys.isEmpty()) {
+                    mergeSort(rows, rows.clone(), 0, rows.length);
+                }
+                int[] inverse = new int[rowCount];
+                Arrays.fill(inverse, -1);
+                for (int i = 0; i < rows.length; i++) {
+                    inverse[rows[i]] = i;
+                }
+                viewToModel = rows;
+                modelToView = inverse;
+            }
+            // An empty array tells the table the previous view was the model itself
+            fireRowSorterChanged(previous != null ? previous : new int[0]);
+        }
+
+        // Sorts rows[from, to) using scratch, which starts out as a copy of rows
+        private void mergeSort(int[] rows, int[] scratch, int from, int to) {
+            if (to - from <= INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    int row = rows[i];
+                    int j = i - 1;
+                    while (j >= from && compare(rows[j], row) > 0) {
+                        rows[j + 1] = rows[j];
+                        j--;
+                    }
+                    rows[j + 1] = row;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(scratch, rows, from, mid);
+            mergeSort(scratch, rows, mid, to);
+            for (int i = from, left = from, right = mid; i < to; i++) {
+                if (right >= to || (left < mid && compare(scratch[left], scratch[right]) <= 0)) {
+                    rows[i] = scratch[left++];
+                } else {
+                    rows[i] = scratch[right++];
+                }
+            }
+        }
+
+        // Ties fall back to model order so the view is stable
+        private int compare(int a, int b) {
+            for (SortKey key : sortKeys) {
+                int result = model.compareRows(key.getColumn(), a, b);
+                if (result != 0) {
+                    return key.getSortOrder() == SortOrder.DESCENDING ? -result : result;
+                }
+            }
+            return Integer.compare(a, b);
+        }
+
+        private static void checkIndex(int index, int count) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Invalid index " + index + ", row count " + count);
+            }
+        }
+    }
+
+    // Formats the cell of the row being painted from the model's raw columns
+    static class TextRenderer extends DefaultTableCellRenderer {
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                boolean hasFocus, int row, int column) {
+            DownloadTableModel model = (DownloadTableModel) table.getModel();
+            String text = model.formatCell(table.convertRowIndexToModel(row),
+                    table.convertColumnIndexToModel(column));
+            return super.getTableCellRendererComponent(table, text, isSelected, hasFocus, row, column);
+        }
+    }
+
+    static class ProgressRenderer extends JProgressBar implements TableCellRenderer {
+        private static final int SCALE = 1000;
+
+        ProgressRenderer() {
+            super(0, SCALE);
+            setStringPainted(true);
+            setBorderPainted(false);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                boolean hasFocus, int row, int column) {
+            DownloadTableModel model = (DownloadTableModel) table.getModel();
+            int modelRow = table.convertRowIndexToModel(row);
+            long total = model.getTotalBytes(modelRow);
+            long downloaded = model.getDownloadedBytes(modelRow);
+            setValue(total > 0 ? (int) (downloaded * SCALE / total) : 0);
+            setString(model.formatCell(modelRow, COLUMN_PROGRESS));
+            setBackground(isSelected ? table.getSelectionBackground() : table.getBackground());
+            return this;
+        }
+    }
+}
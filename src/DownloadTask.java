@@ -0,0 +1,1412 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One download: probes the server, then fetches the file over one connection or as segments
+// on several. State changes go to its listener; progress is only a byte counter that the
+// ProgressDispatcher samples.
+class DownloadTask implements Runnable {
+    private String url;
+    private String savePath;
+    private String fileName;
+    private volatile long fileSize = -1;
+    private volatile boolean paused;
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    private volatile boolean remoteFileChanged;
+    // The server answered a range request with the whole file
+    private volatile boolean rangesIgnored;
+    private volatile boolean preempted;
+    private volatile boolean journaled;
+    private volatile DownloadQueue.Priority priority = DownloadQueue.Priority.NORMAL;
+    private volatile String rangeValidator;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final DownloadListener listener;
+    private volatile DownloadState state = DownloadState.QUEUED;
+    private volatile CompletableFuture<File> completion = new CompletableFuture<>();
+    private volatile CompletableFuture<Void> stopped = CompletableFuture.completedFuture(null);
+    private long downloadId;
+    private volatile long startTime;
+    private volatile long stopTime;
+    private volatile TaskScope workers;
+    private final ExecutionMode executionMode = ExecutionMode.current();
+    private StorageMode storageMode = StorageMode.PREALLOCATED;
+    private SyncPolicy syncPolicy = SyncPolicy.current();
+    private ProbeMode probeMode = ProbeMode.current();
+    // Progress is the bytes already on disk when the run started plus what the segment counters
+    // or, on a single connection, the stream counter have received since
+    private volatile long resumedBytes;
+    private final ByteCounter streamedBytes = new ByteCounter();
+    // A compressed single-connection response is counted twice: as received and as decoded
+    private volatile boolean encoded;
+    private final ByteCounter wireBytes = new ByteCounter();
+    private long chargedWireBytes;
+    private volatile SegmentScheduler scheduler;
+    private volatile ConnectionController connectionController;
+    private volatile BandwidthLimiter.Share bandwidthShare;
+    private volatile int bandwidthWeight = BandwidthLimiter.WEIGHT_NORMAL;
+    private volatile HttpTransport transport = HttpTransport.defaultTransport();
+    // Other URLs serving the same file; segmented downloads spread their ranges across all of them
+    private volatile List<String> mirrors = Collections.emptyList();
+    private volatile MirrorSet mirrorSet;
+    private volatile RetryPolicy retryPolicy;
+    // What the file is checked against; without any of these the download is not verified
+    private volatile Checksum checksum;
+    private volatile String checksumUrl;
+    private volatile PieceChecksums pieceChecksums;
+    private volatile DownloadCache cache = DownloadCache.shared();
+    // File of an identical download that finished while this one waited for it
+    private volatile File reuseSource;
+    // What the cache records once this run completes
+    private String remoteEtag;
+    private String remoteLastModified;
+    private Checksum verifiedChecksum;
+    // When a single-connection download last wrote its journal
+    private long lastPrefixCheckpoint;
+    private static final long STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;
+    private static final long MONITOR_INTERVAL_MS = 500;
+    // Upper bound per transferFrom call, keeps pause/cancel and progress responsive
+    private static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+    // Time the monitor may spend per tick hashing what has reached the disk
+    private static final long HASH_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(MONITOR_INTERVAL_MS / 2);
+    private static final int MAX_CHECKSUM_FILE_SIZE = 64 * 1024;
+
+    public DownloadTask(String url, String savePath, DownloadListener listener) {
+        this.url = url;
+        this.savePath = savePath;
+        this.listener = listener;
+        this.fileName = sanitizeFileName(getFileNameFromUrl(url));
+        this.paused = false;
+        this.cancelled = false;
+    }
+
+    // Restores a download from history, keeping the file name it was saved under
+    public DownloadTask(String url, String savePath, String fileName, boolean completed, DownloadListener listener) {
+        this.url = url;
+        this.savePath = savePath;
+        this.listener = listener;
+        this.fileName = sanitizeFileName(fileName);
+        this.completed = completed;
+        this.paused = !completed;
+        this.cancelled = false;
+        if (completed) {
+            state = DownloadState.COMPLETED;
+            completion.complete(new File(savePath, this.fileName));
+        } else {
+            state = DownloadState.PAUSED;
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public void run() {
+        // A resume can be submitted while the paused run is still winding down
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture<Void> runStopped = new CompletableFuture<>();
+        stopped = runStopped;
+        try {
+            if (paused || cancelled) {
+                setState(cancelled ? DownloadState.CANCELLED : DownloadState.PAUSED, null);
+                return;
+            }
+
+            startTime = System.currentTimeMillis();
+            stopTime = 0;
+            setState(DownloadState.CONNECTING, null);
+            bandwidthShare = BandwidthLimiter.shared().register(bandwidthWeight);
+
+            try {
+                download();
+            } catch (RemoteFileChangedException e) {
+                // The journal no longer describes the remote file, start over once from scratch
+                setState(DownloadState.CONNECTING, "Remote file changed, restarting");
+                download();
+            }
+            if (cancelled) {
+                setState(DownloadState.CANCELLED, null);
+            }
+
+        } catch (Exception e) {
+            if (cancelled) {
+                setState(DownloadState.CANCELLED, null);
+            } else {
+                recordFailure("download", e);
+                setState(DownloadState.FAILED, e.getMessage());
+                completion.completeExceptionally(e);
+            }
+        } finally {
+            stopTime = System.currentTimeMillis();
+            if (bandwidthShare != null) {
+                bandwidthShare.close();
+            }
+            running.set(false);
+            runStopped.complete(null);
+        }
+    }
+
+    private void setState(DownloadState state, String message) {
+        this.state = state;
+        if (state == DownloadState.COMPLETED || state == DownloadState.FAILED || state == DownloadState.CANCELLED) {
+            Metrics.shared().counter("dm_downloads_total", "Downloads that ended, by final state", "state",
+                    state.name().toLowerCase()).increment();
+        }
+        listener.onStateChanged(this, state, message);
+        if (state == DownloadState.COMPLETED) {
+            completion.complete(new File(savePath, fileName));
+        } else if (state == DownloadState.CANCELLED) {
+            completion.cancel(false);
+        }
+    }
+
+    private void download() throws Exception {
+        remoteFileChanged = false;
+        rangesIgnored = false;
+        scheduler = null;
+        resumedBytes = 0;
+        streamedBytes.set(0);
+        encoded = false;
+
+        File saveFile = new File(savePath, fileName);
+
+        // Ensure the file path is valid and within the save directory
+        String canonicalSavePath = new File(savePath).getCanonicalPath();
+        String canonicalFilePath = saveFile.getCanonicalPath();
+
+        if (!canonicalFilePath.startsWith(canonicalSavePath)) {
+            throw new SecurityException("Invalid file path: potential directory traversal");
+        }
+
+        // The same URL was fetched while this download waited, nothing left to ask the server
+        File source = reuseSource;
+        reuseSource = null;
+        if (source != null && source.isFile()) {
+            completeFromCache(source, saveFile);
+            return;
+        }
+
+        // A cached copy is revalidated with the probe; 304 means it is still current
+        DownloadCache currentCache = cache;
+        DownloadCache.Entry cached = currentCache != null ? currentCache.lookup(url) : null;
+
+        // A checksum known up front can find the content in the cache without asking the server at all
+        Checksum expected = checksum;
+        if (expected == null && checksumUrl != null) {
+            expected = fetchChecksum(checksumUrl);
+        }
+        File sameContent = expected != null && currentCache != null ? currentCache.findContent(expected) : null;
+        if (sameContent != null) {
+            completeFromCache(sameContent, saveFile);
+            return;
+        }
+
+        // Get file information. A download resumed from its journal already has its first bytes,
+        // the GET probe would only fetch them again.
+        boolean resumable = SegmentJournal.journalFile(saveFile).exists();
+        ProbeMode mode = resumable ? ProbeMode.HEAD : probeMode;
+        long probeStart = System.nanoTime();
+        boolean supportsRanges;
+        // Whether the probe's response carries the whole file
+        boolean wholeFile;
+        String validator;
+        Checksum announced;
+        // The GET probe's response, still unread; whoever fetches the first bytes takes it over
+        HttpTransport.Response stream = null;
+        Map<String, String> conditional = cached != null ? cached.conditionalHeaders() : Collections.emptyMap();
+        HttpTransport.Response probe;
+        try {
+            probe = probe(conditional, mode);
+        } catch (IOException e) {
+            ErrorClass errorClass = ErrorClass.of(e);
+            if (mode == ProbeMode.HEAD || (errorClass != ErrorClass.RESET && errorClass != ErrorClass.PROTOCOL)) {
+                throw e;
+            }
+            // Some servers hang up on an open-ended range; they get the HEAD instead
+            mode = ProbeMode.HEAD;
+            probe = probe(conditional, mode);
+        }
+        try {
+            int status = probe.getStatusCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                completeFromCache(cached.file, saveFile);
+                return;
+            }
+            boolean compressed = ContentEncoding.isEncoded(probe.getHeader("Content-Encoding"));
+            if (mode == ProbeMode.RANGE_GET && status == HttpURLConnection.HTTP_PARTIAL) {
+                ContentRange range = ContentRange.parse(probe.getHeader("Content-Range"));
+                boolean fromStart = range != null && range.first == 0 && range.total > 0;
+                // A range of the compressed bytes doesn't combine with ranges of the file
+                supportsRanges = fromStart && !compressed;
+                fileSize = supportsRanges ? range.total : -1;
+                // Some servers cap how much one range response carries
+                wholeFile = fromStart && range.last == range.total - 1;
+            } else {
+                // Decoded, a compressed body has a size no header gives; an error's body says nothing
+                boolean fileBody = mode == ProbeMode.HEAD || status == HttpURLConnection.HTTP_OK;
+                fileSize = compressed || !fileBody ? -1 : probe.getContentLength();
+                supportsRanges = mode == ProbeMode.HEAD && "bytes".equals(probe.getHeader("Accept-Ranges"));
+                wholeFile = status == HttpURLConnection.HTTP_OK;
+            }
+            validator = getRangeValidator(probe);
+            // Content-MD5 and Repr-Digest cover the body as sent, which is the file only when it is all
+            // of it, uncompressed
+            announced = wholeFile && !compressed ? Checksum.fromHeaders(probe) : null;
+            remoteEtag = probe.getHeader("ETag");
+            remoteLastModified = probe.getHeader("Last-Modified");
+            if (mode == ProbeMode.RANGE_GET && (status == HttpURLConnection.HTTP_OK
+                    || status == HttpURLConnection.HTTP_PARTIAL)) {
+                stream = probe;
+            }
+        } finally {
+            if (stream == null) {
+                probe.close();
+            }
+        }
+        long setupMillis = (System.nanoTime() - probeStart) / 1_000_000;
+
+        // Whatever doesn't take the stream over leaves it to be closed here
+        try {
+            // A checksum the caller gave wins over a checksum file, which wins over what the server announces
+            if (expected == null && announced != null) {
+                expected = announced;
+                // Any URL that served the same verified content will do
+                sameContent = currentCache != null ? currentCache.findContent(expected) : null;
+                if (sameContent != null) {
+                    completeFromCache(sameContent, saveFile);
+                    return;
+                }
+            }
+            verifiedChecksum = expected;
+            DownloadCache.unlinkShared(saveFile);
+
+            // Only split when the file takes longer to fetch than opening the extra connections costs
+            String host = hostOf(url);
+            HostProfileStore profiles = HostProfileStore.shared();
+            long threshold = ConnectionController.multiConnectionThreshold(host, profiles,
+                    SegmentScheduler.DEFAULT_MIN_SPLIT_SIZE);
+
+            if (supportsRanges && fileSize > 0 && (fileSize >= threshold || resumable)) {
+                ConnectionController controller = new ConnectionController(host, profiles, ConnectionBudget.shared());
+                controller.setSetupMillis(setupMillis);
+                try {
+                    downloadWithMultipleThreads(saveFile, controller, validator, expected, stream);
+                } catch (RangesIgnoredException e) {
+                    // Ranges were advertised but the whole file comes back anyway; one connection is all it takes
+                    rangesIgnored = false;
+                    scheduler = null;
+                    resumedBytes = 0;
+                    setState(DownloadState.CONNECTING, "Server ignores ranges, using one connection");
+                    downloadWithSingleThread(saveFile, expected, null, null);
+                }
+            } else {
+                // A journal left by an earlier run means the server answered a range request before
+                downloadWithSingleThread(saveFile, expected, wholeFile ? stream : null,
+                        supportsRanges || resumable ? validator : null);
+            }
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    // Host profiles are keyed by this
+    private static String hostOf(String url) {
+        try {
+            return String.valueOf(URI.create(url).getHost());
+        } catch (IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    // A sha256sum-style file published next to the download
+    private Checksum fetchChecksum(String checksumUrl) throws IOException {
+        try (HttpTransport.Response response = transport.get(checksumUrl, Collections.emptyMap())) {
+            if (response.getStatusCode() >= 400) {
+                throw new HttpStatusException("Checksum file returned HTTP " + response.getStatusCode(),
+                        response.getStatusCode());
+            }
+            ByteBuffer text = ByteBuffer.allocate(MAX_CHECKSUM_FILE_SIZE);
+            ReadableByteChannel in = response.getBody();
+            while (text.hasRemaining() && in.read(text) != -1) {
+                // Checksum files are a line per file, anything past the limit is not one
+            }
+            Checksum found = Checksum.fromSidecar(
+                    new String(text.array(), 0, text.position(), StandardCharsets.UTF_8), fileName);
+            if (found == null) {
+                throw new IOException("No checksum for " + fileName + " in " + checksumUrl);
+            }
+            return found;
+        }
+    }
+
+    // Servers that trip up the HttpClient (broken h2c upgrades, malformed responses) get the old transport
+    // for this download. Anything else, DNS or connect failures included, goes to the caller as it is.
+    private HttpTransport.Response probe(Map<String, String> headers, ProbeMode mode) throws IOException {
+        DownloadEvents.ProbeEvent event = new DownloadEvents.ProbeEvent();
+        event.begin();
+        long start = System.nanoTime();
+        HttpTransport.Response response;
+        try {
+            response = sendProbe(headers, mode);
+        } catch (IOException | IllegalArgumentException e) {
+            if (transport instanceof UrlConnectionTransport || e instanceof InterruptedIOException
+                    || !HttpClientTransport.isClientSpecific(e)) {
+                throw e;
+            }
+            transport = UrlConnectionTransport.shared();
+            response = sendProbe(headers, mode);
+        }
+        Metrics.PROBE_SECONDS.observeNanos(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.method = mode == ProbeMode.HEAD ? "HEAD" : "GET";
+            event.status = response.getStatusCode();
+            event.commit();
+        }
+        return response;
+    }
+
+    private HttpTransport.Response sendProbe(Map<String, String> headers, ProbeMode mode) throws IOException {
+        if (mode == ProbeMode.HEAD) {
+            return transport.head(url, headers);
+        }
+        Map<String, String> rangeHeaders = new LinkedHashMap<>(headers);
+        rangeHeaders.put("Range", "bytes=0-");
+        // Servers that ignore ranges send the whole file, which may as well come compressed
+        rangeHeaders.put("Accept-Encoding", ContentEncoding.ACCEPT);
+        return request(url, rangeHeaders, 0);
+    }
+
+    // A GET for file data; the event and the histogram cover connecting and waiting for the headers
+    private HttpTransport.Response request(String requestUrl, Map<String, String> headers, long rangeStart)
+            throws IOException {
+        DownloadEvents.RequestEvent event = new DownloadEvents.RequestEvent();
+        DownloadEvents.FirstByteEvent firstByte = new DownloadEvents.FirstByteEvent();
+        event.begin();
+        firstByte.begin();
+        long start = System.nanoTime();
+        HttpTransport.Response response = transport.get(requestUrl, headers);
+        Metrics.REQUESTS.increment();
+        Metrics.HEADERS_SECONDS.observeNanos(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.url = requestUrl;
+            event.rangeStart = rangeStart;
+            event.status = response.getStatusCode();
+            event.commit();
+        }
+        return new MeteredResponse(response, requestUrl, rangeStart, start, firstByte);
+    }
+
+    // Links or copies a file that is known to hold this download's content instead of fetching it
+    private void completeFromCache(File source, File saveFile) throws IOException {
+        DownloadCache.materialize(source, saveFile);
+        // Nothing left for a journal of an earlier, interrupted run to resume
+        SegmentJournal.journalFile(saveFile).delete();
+        fileSize = saveFile.length();
+        resumedBytes = fileSize;
+        completed = true;
+        setState(DownloadState.COMPLETED, null);
+    }
+
+    // Every byte is on disk and, if a checksum was known, verified
+    private void markCompleted(File saveFile) {
+        long runMillis = System.currentTimeMillis() - startTime;
+        long fetched = getDownloadedBytes() - resumedBytes;
+        if (runMillis > 0 && fetched > 0) {
+            Metrics.DOWNLOAD_THROUGHPUT.observe(fetched * 1000.0 / runMillis);
+        }
+        DownloadCache currentCache = cache;
+        if (currentCache != null) {
+            currentCache.put(url, remoteEtag, remoteLastModified, saveFile, verifiedChecksum);
+        }
+        completed = true;
+        setState(DownloadState.COMPLETED, null);
+    }
+
+    // If-Range needs a strong ETag or a Last-Modified date; weak ETags can't validate byte ranges
+    private String getRangeValidator(HttpTransport.Response response) {
+        String etag = response.getHeader("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.getHeader("Last-Modified");
+    }
+
+    // firstBytes, when not null, is an open response for the file from byte 0 onwards
+    private void downloadWithMultipleThreads(File saveFile, ConnectionController controller, String validator,
+            Checksum expected, HttpTransport.Response firstBytes) throws Exception {
+        connectionController = controller;
+        rangeValidator = validator;
+        mirrorSet = new MirrorSet(url, validator, mirrors, fileSize);
+        retryPolicy = new RetryPolicy();
+        long downloadStart = System.currentTimeMillis();
+
+        // The journal needs a validator to prove that earlier bytes still belong to the same remote file
+        SegmentJournal journal = null;
+        if (storageMode == StorageMode.PREALLOCATED && validator != null) {
+            journal = SegmentJournal.open(saveFile, url, fileSize, validator);
+        }
+        journaled = journal != null;
+
+        SegmentScheduler segmentScheduler = journal != null
+                ? new SegmentScheduler(journal.getMissingRanges(), controller.getInitialConnections(),
+                        SegmentScheduler.DEFAULT_MIN_SPLIT_SIZE)
+                : new SegmentScheduler(fileSize, controller.getInitialConnections(),
+                        SegmentScheduler.DEFAULT_MIN_SPLIT_SIZE);
+        resumedBytes = journal != null ? journal.getCompletedBytes() : 0;
+        scheduler = segmentScheduler;
+
+        // The whole-file digest follows the persisted prefix; pieces are checked out of order as they
+        // land. A failed piece is fetched again in place, which part files can't do, so they only
+        // get the whole-file check.
+        FrontierHasher hasher = expected != null ? new FrontierHasher(expected.newDigest()) : null;
+        PieceVerifier verifier = pieceChecksums != null && storageMode == StorageMode.PREALLOCATED
+                ? new PieceVerifier(pieceChecksums, fileSize) : null;
+        // Announced once the counter holds the resumed bytes, so the first speed sample starts from there
+        setState(DownloadState.DOWNLOADING, null);
+
+        // Closed in reverse: the workers end first, then their queued writes, then the file
+        try (DownloadStorage storage = DownloadStorage.create(storageMode, saveFile, fileSize);
+                DiskWriter.Sink sink = DiskWriter.forFile(saveFile).open(storage, BufferPool.shared(), syncPolicy);
+                TaskScope scope = new TaskScope("segment", executionMode)) {
+            // Pause and cancel shut the scope down, which drops every connection of this download at once
+            scope.onShutdown(segmentScheduler::abortAll);
+            workers = scope;
+            if (isStopping()) {
+                scope.shutdown();
+            }
+
+            // Start download threads, each one keeps taking work until nothing is left to split. The
+            // first one goes on reading the probe's response while the others send their requests.
+            for (int i = 0; i < controller.getInitialConnections(); i++) {
+                if (!startSegmentWorker(scope, segmentScheduler, storage, sink, i == 0 ? firstBytes : null)) {
+                    break;
+                }
+            }
+
+            // Monitor progress, reconnect stalled segments and add connections while throughput keeps rising
+            long lastCheckpoint = System.currentTimeMillis();
+            while (!isStopping()) {
+                boolean idle = scope.join(MONITOR_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (idle) {
+                    // The workers' last buffers may still be queued, their pieces can be checked once written
+                    sink.drain();
+                }
+                sink.throwIfFailed();
+                if (verifier != null) {
+                    verifier.throwIfFailed();
+                    if (verifier.forkReadyChecks(scope, segmentScheduler, storage) > 0) {
+                        idle = false;
+                    }
+                }
+                if (idle) {
+                    // A piece that failed its check after the last worker was gone needs a new one
+                    if (verifier == null || !verifier.consumeRequeued()
+                            || !startSegmentWorker(scope, segmentScheduler, storage, sink)) {
+                        break;
+                    }
+                    continue;
+                }
+
+                segmentScheduler.abortStalled(STALL_TIMEOUT_NANOS);
+
+                int wanted = controller.update(getDownloadedBytes());
+                for (int i = 0; i < wanted; i++) {
+                    if (!startSegmentWorker(scope, segmentScheduler, storage, sink)) {
+                        break;
+                    }
+                }
+
+                if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+                    checkpoint(segmentScheduler, storage, journal, false);
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+
+                if (hasher != null) {
+                    long verifiedUpTo = Math.min(segmentScheduler.getPersistedFrontier(), fileSize);
+                    if (verifier != null) {
+                        // Bytes of a piece that may still be fetched again can't go into the digest yet
+                        verifiedUpTo = Math.min(verifiedUpTo, verifier.getVerifiedPrefix());
+                    }
+                    hasher.advance(storage, verifiedUpTo, HASH_BUDGET_NANOS);
+                }
+            }
+
+            // Every worker has to be gone and its last buffers written before the final checkpoint
+            scope.shutdownAndJoin();
+            sink.drain();
+            sink.throwIfFailed();
+
+            if (remoteFileChanged || rangesIgnored) {
+                if (journal != null) {
+                    journal.delete();
+                }
+                throw remoteFileChanged ? new RemoteFileChangedException() : new RangesIgnoredException();
+            }
+
+            // Whatever reached the disk is kept, so a resume only fetches the missing bytes
+            checkpoint(segmentScheduler, storage, journal, true);
+
+            if (paused) {
+                // A preempted download goes straight back into the queue
+                setState(preempted ? DownloadState.QUEUED : DownloadState.PAUSED, null);
+            } else if (!cancelled) {
+                if (!segmentScheduler.isComplete()) {
+                    throw new IOException("Download incomplete: all segment connections failed");
+                }
+                if (verifier != null) {
+                    verifier.throwIfFailed();
+                    if (!verifier.isAllVerified()) {
+                        throw new IOException("Download incomplete: not every piece passed its check");
+                    }
+                }
+                controller.saveProfile(fileSize, System.currentTimeMillis() - downloadStart);
+                if (hasher != null) {
+                    // Usually only the last few segments are left to hash
+                    setState(DownloadState.VERIFYING, null);
+                    hasher.advance(storage, fileSize, Long.MAX_VALUE);
+                    try {
+                        StreamVerifier.checkDigest(expected, hasher.finish());
+                    } catch (IOException e) {
+                        // The bytes on disk are wrong somewhere, a retry has to fetch everything again
+                        if (journal != null) {
+                            journal.delete();
+                        }
+                        throw e;
+                    }
+                }
+                if (storageMode == StorageMode.PART_FILES) {
+                    setState(DownloadState.MERGING, null);
+                    merge(storage);
+                } else {
+                    storage.finish();
+                }
+                if (journal != null) {
+                    journal.delete();
+                }
+                markCompleted(saveFile);
+            }
+        } finally {
+            workers = null;
+            journaled = false;
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    private void merge(DownloadStorage storage) throws IOException {
+        DownloadEvents.MergeEvent event = new DownloadEvents.MergeEvent();
+        event.begin();
+        long start = System.nanoTime();
+        storage.finish();
+        Metrics.MERGE_SECONDS.observeNanos(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.file = fileName;
+            event.size = fileSize;
+            event.commit();
+        }
+    }
+
+    // Hands the next unclaimed range to a new worker; returns false when there is nothing left to hand out
+    private boolean startSegmentWorker(TaskScope scope, SegmentScheduler segmentScheduler, DownloadStorage storage,
+            DiskWriter.Sink sink) throws IOException {
+        return startSegmentWorker(scope, segmentScheduler, storage, sink, null);
+    }
+
+    // The worker reads on from firstBytes if its range starts at byte 0; otherwise the response
+    // is closed here
+    private boolean startSegmentWorker(TaskScope scope, SegmentScheduler segmentScheduler, DownloadStorage storage,
+            DiskWriter.Sink sink, HttpTransport.Response firstBytes) throws IOException {
+        boolean handedOver = false;
+        try {
+            // The global connection budget may say no even when the controller wants more
+            if (!connectionController.tryStartWorker()) {
+                return false;
+            }
+            Segment segment = segmentScheduler.next();
+            if (segment == null) {
+                connectionController.workerFinished();
+                return false;
+            }
+            if (segment.getPosition() == segment.getStartPos()) {
+                storage.openSegment(segment.getStartPos());
+            }
+            // A resumed download may already have its first bytes
+            HttpTransport.Response opened = segment.getPosition() == 0 ? firstBytes : null;
+            if (!scope.fork(() -> runSegmentWorker(scope, segment, opened, segmentScheduler, storage, sink))) {
+                connectionController.workerFinished();
+                segment.release(true);
+                return false;
+            }
+            handedOver = opened != null;
+            return true;
+        } finally {
+            if (firstBytes != null && !handedOver) {
+                firstBytes.close();
+            }
+        }
+    }
+
+    // last is the checkpoint at the end of a run. Under SyncPolicy.NONE nothing is forced while the
+    // download runs, so that is the only one: the journal never vouches for data that wasn't forced.
+    private void checkpoint(SegmentScheduler segmentScheduler, DownloadStorage storage, SegmentJournal journal,
+            boolean last) throws IOException {
+        if (journal == null || (syncPolicy == SyncPolicy.NONE && !last)) {
+            return;
+        }
+        for (Segment segment : segmentScheduler.getSegments()) {
+            journal.record(segment.getStartPos(), segment.getPersistedPos());
+        }
+        // Data first, then the journal line that vouches for it
+        storage.force();
+        journal.checkpoint();
+    }
+
+    // The worker has already been counted with tryStartWorker() by whoever submitted it
+    private void runSegmentWorker(TaskScope scope, Segment first, HttpTransport.Response opened,
+            SegmentScheduler segmentScheduler, DownloadStorage storage, DiskWriter.Sink sink) {
+        ConnectionController controller = connectionController;
+        Segment segment = first;
+        // Only the first connection can be the probe's, later ones are requests of their own
+        HttpTransport.Response response = opened;
+        boolean retired = false;
+        // Failed connections in a row that brought no new bytes
+        int failures = 0;
+        try {
+            while (segment != null && !isStopping()) {
+                MirrorSet.Mirror mirror = response != null ? mirrorSet.acquirePrimary() : mirrorSet.acquire();
+                if (mirror == null) {
+                    throw new IOException("Every mirror has been dropped");
+                }
+                long before = segment.getPosition();
+                HttpTransport.Response current = response;
+                response = null;
+                try {
+                    if (downloadChunk(segment, mirror, sink, current)) {
+                        // Fewer connections perform better, leave the rest of the range to the others
+                        retired = true;
+                        segment.release(true);
+                        return;
+                    }
+                    failures = 0;
+                } catch (IOException e) {
+                    if (isStopping()) {
+                        throw e;
+                    }
+                    Metrics.recordError("segment", e);
+                    failures = segment.getPosition() > before ? 1 : failures + 1;
+                    // A stalled connection was dropped by the monitor and reconnects at once
+                    long delay = retryPolicy.delayBeforeRetry(mirror.url, e, segment.consumeAbort(), failures);
+                    if (delay < 0) {
+                        // With mirrors left, the next connection may go to another one
+                        if (mirrorSet.getLiveCount() <= 1) {
+                            throw e;
+                        }
+                        delay = 0;
+                    }
+                    recordRetry(segment, e, delay);
+                    // Everything claimed so far went to the sink, so this picks up at the first missing byte
+                    if (delay > 0 && scope.awaitShutdown(delay, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                    continue;
+                }
+                if (isStopping()) {
+                    break;
+                }
+                if (!segment.isComplete()) {
+                    continue;
+                }
+
+                segment = segmentScheduler.next();
+                if (segment != null && segment.getPosition() == segment.getStartPos()) {
+                    storage.openSegment(segment.getStartPos());
+                }
+            }
+        } catch (InterruptedException e) {
+            // The scope is shutting down; keep the flag set for whatever runs after this on the thread
+            segment.release(true);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Leave the rest of the range to another worker
+            segment.release(true);
+            if (!isStopping()) {
+                recordFailure("worker", e);
+            }
+        } finally {
+            if (!retired) {
+                controller.workerFinished();
+            }
+        }
+    }
+
+    // Failures that end the download, or one of its workers, go to the metrics and the JFR recording
+    private void recordFailure(String stage, Exception error) {
+        Metrics.recordError(stage, error);
+        DownloadEvents.FailureEvent event = new DownloadEvents.FailureEvent();
+        if (event.shouldCommit()) {
+            event.file = fileName;
+            event.stage = stage;
+            event.errorClass = Metrics.errorClass(error);
+            event.message = String.valueOf(error.getMessage());
+            event.commit();
+        }
+    }
+
+    private void recordRetry(Segment segment, IOException error, long delayMillis) {
+        ErrorClass errorClass = ErrorClass.of(error);
+        Metrics.recordRetry(errorClass);
+        DownloadEvents.RetryEvent event = new DownloadEvents.RetryEvent();
+        if (event.shouldCommit()) {
+            event.file = fileName;
+            event.segment = segment.getIndex();
+            event.position = segment.getPosition();
+            event.errorClass = errorClass.label;
+            event.delay = delayMillis;
+            event.message = error.getMessage();
+            event.commit();
+        }
+    }
+
+    // Reads one response for the segment from the mirror, which was acquired for it; the mirror
+    // is released here. opened is the probe's response, which asked for everything from byte 0.
+    // Returns true if the connection retired, which has already released it with the controller.
+    private boolean downloadChunk(Segment segment, MirrorSet.Mirror mirror, DiskWriter.Sink sink,
+            HttpTransport.Response opened) throws Exception {
+        MirrorSet sources = mirrorSet;
+        long requestedEnd = opened != null ? fileSize - 1 : segment.getEndPos();
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Range", "bytes=" + segment.getPosition() + "-" + requestedEnd);
+        String validator = mirror.validator;
+        if (validator != null) {
+            headers.put("If-Range", validator);
+        }
+
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer buffer = null;
+        long position = segment.getPosition();
+        long firstPosition = position;
+        long connectNanos = System.nanoTime();
+        boolean failed = true;
+        boolean retired = false;
+        DownloadEvents.SegmentEvent segmentEvent = new DownloadEvents.SegmentEvent();
+        segmentEvent.begin();
+        try (HttpTransport.Response response = opened != null ? opened : request(mirror.url, headers, firstPosition)) {
+            segment.start(response::abort);
+
+            int responseCode = response.getStatusCode();
+            long retryAfter = RetryPolicy.parseRetryAfter(response.getHeader("Retry-After"));
+            if (responseCode == 429 || responseCode == 503) {
+                connectionController.onThrottled();
+                throw new HttpStatusException("Server throttled range request: HTTP " + responseCode, responseCode,
+                        retryAfter);
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK && mirror.primary) {
+                String served = getRangeValidator(response);
+                response.abort();
+                if (validator != null && !validator.equals(served)) {
+                    // If-Range failed: the server is sending a different version of the file
+                    remoteFileChanged = true;
+                    throw new RemoteFileChangedException();
+                }
+                // Same file, whole body: writing it at this segment's offset would corrupt the download
+                rangesIgnored = true;
+                throw new RangesIgnoredException();
+            }
+            if (responseCode >= 400) {
+                throw new HttpStatusException("Server returned HTTP " + responseCode, responseCode, retryAfter);
+            }
+            // A mirror that changed its file is dropped instead of restarting the download
+            sources.checkResponse(mirror, response);
+            ContentRange served = checkContentRange(response, firstPosition, requestedEnd);
+
+            ReadableByteChannel in = response.getBody();
+            buffer = acquireBuffer(pool, segment);
+            int bytesRead = 0;
+
+            while (!isStopping() && (bytesRead = in.read(buffer)) != -1) {
+                // Another worker may have taken the upper half of this range, drop anything past the new end
+                int claimed = segment.claim(bytesRead);
+                if (claimed < bytesRead) {
+                    buffer.position(buffer.position() - (bytesRead - claimed));
+                }
+                segment.beginLocalWait();
+                try {
+                    bandwidthShare.acquire(claimed);
+                } finally {
+                    segment.endLocalWait();
+                }
+
+                // Full buffers go to the volume's writer and reading goes on with a fresh one
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    int length = buffer.remaining();
+                    ByteBuffer full = buffer;
+                    buffer = null;
+                    // A full writer queue blocks here
+                    segment.beginLocalWait();
+                    try {
+                        sink.write(full, position, segment);
+                    } finally {
+                        segment.endLocalWait();
+                    }
+                    position += length;
+                    // Waits here, with the socket unread, while the memory budget is used up
+                    buffer = acquireBuffer(pool, segment);
+
+                    // The controller wants fewer connections; if another worker left first, this
+                    // one reads on from the same response
+                    if (connectionController.shouldRetire() && connectionController.tryRetire()) {
+                        retired = true;
+                        break;
+                    }
+                }
+                if (segment.isComplete()) {
+                    break;
+                }
+            }
+            // A server that caps range sizes ends the response at its declared last byte; that is a
+            // complete response, and the worker asks for the rest right away. Anything short of it is a reset.
+            if (bytesRead == -1 && !segment.isComplete() && !isStopping()
+                    && segment.getPosition() != served.last + 1) {
+                throw new IOException("Connection closed before the end of segment " + segment.getIndex());
+            }
+            failed = false;
+            return retired;
+        } finally {
+            if (segmentEvent.shouldCommit()) {
+                segmentEvent.file = fileName;
+                segmentEvent.segment = segment.getIndex();
+                segmentEvent.start = firstPosition;
+                segmentEvent.bytes = segment.getPosition() - firstPosition;
+                segmentEvent.outcome = failed ? "failed" : segment.isComplete() ? "completed" : "stopped";
+                segmentEvent.commit();
+            }
+            long delivered = segment.getPosition() - firstPosition;
+            retryPolicy.recordProgress(mirror.url, delivered);
+            // Stopping is not the mirror's fault
+            sources.release(mirror, delivered, System.nanoTime() - connectNanos, failed && !isStopping());
+            try {
+                if (buffer != null) {
+                    // Whatever was claimed has to reach the disk, or the segment would have a hole
+                    buffer.flip();
+                    sink.write(buffer, position, segment);
+                }
+            } finally {
+                segment.release(false);
+            }
+        }
+    }
+
+    // The pool blocks while the memory budget is used up, which is no reason to drop the connection
+    private static ByteBuffer acquireBuffer(BufferPool pool, Segment segment) throws InterruptedException {
+        segment.beginLocalWait();
+        try {
+            return pool.acquire();
+        } finally {
+            segment.endLocalWait();
+        }
+    }
+
+    // A 206 has to start at the first byte asked for and may end early, but not late; returns what it covers
+    private ContentRange checkContentRange(HttpTransport.Response response, long start, long end)
+            throws IOException {
+        if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+            throw new ProtocolException("Server answered a range request with HTTP " + response.getStatusCode());
+        }
+        String header = response.getHeader("Content-Range");
+        ContentRange range = ContentRange.parse(header);
+        if (range == null || range.first != start || range.last > end) {
+            throw new ProtocolException("Asked for bytes " + start + "-" + end + ", got Content-Range " + header);
+        }
+        if (range.total >= 0 && range.total != fileSize) {
+            throw new ProtocolException("Server reports " + range.total + " bytes instead of " + fileSize);
+        }
+        return range;
+    }
+
+    // opened, when not null, is the probe's response and holds the whole file. With a validator the
+    // written prefix is journaled, and a later run asks for the rest with Range and If-Range.
+    private void downloadWithSingleThread(File saveFile, Checksum expected, HttpTransport.Response opened,
+            String validator) throws Exception {
+        SegmentJournal journal = null;
+        if (validator != null && fileSize > 0 && storageMode == StorageMode.PREALLOCATED) {
+            journal = SegmentJournal.open(saveFile, url, fileSize, validator);
+        }
+        long start = opened == null && journal != null ? journal.getPrefixEnd() : 0;
+        Map<String, String> headers;
+        if (start > 0) {
+            headers = new LinkedHashMap<>();
+            headers.put("Range", "bytes=" + start + "-" + (fileSize - 1));
+            headers.put("If-Range", validator);
+        } else {
+            // Without ranges the whole body comes in one response, so it may as well come compressed
+            headers = Collections.singletonMap("Accept-Encoding", ContentEncoding.ACCEPT);
+        }
+        journaled = journal != null;
+        try (HttpTransport.Response response = opened != null ? opened : request(url, headers, start);
+                FileChannel out = FileChannel.open(saveFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            if (response.getStatusCode() >= 400) {
+                throw new HttpStatusException("Server returned HTTP " + response.getStatusCode(),
+                        response.getStatusCode());
+            }
+            if (start > 0 && response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL) {
+                checkContentRange(response, start, fileSize - 1);
+            } else if (start > 0) {
+                // If-Range failed or the range was ignored, either way the whole file comes again
+                journal.delete();
+                journal = null;
+                journaled = false;
+                start = 0;
+            }
+            if (journal != null) {
+                // Sized up front like a segmented download's file, which the journal checks on resume
+                if (out.size() > fileSize) {
+                    out.truncate(fileSize);
+                } else if (out.size() < fileSize) {
+                    out.write(ByteBuffer.allocate(1), fileSize - 1);
+                }
+            } else {
+                out.truncate(0);
+            }
+
+            ReadableByteChannel in = response.getBody();
+            String contentEncoding = response.getHeader("Content-Encoding");
+            if (ContentEncoding.isEncoded(contentEncoding)) {
+                wireBytes.set(0);
+                chargedWireBytes = 0;
+                in = ContentEncoding.decode(contentEncoding, ContentEncoding.counting(in, wireBytes));
+                encoded = true;
+            }
+            resumedBytes = start;
+            lastPrefixCheckpoint = System.currentTimeMillis();
+            setState(DownloadState.DOWNLOADING, null);
+
+            StreamVerifier verifier = null;
+            try {
+                if (expected != null || pieceChecksums != null) {
+                    verifier = new StreamVerifier(expected, pieceChecksums);
+                    transferVerified(in, out, verifier, start, journal);
+                } else {
+                    // transferFrom moves the data through the JDK's cached direct buffer straight into the file
+                    long position = start;
+                    long transferred;
+                    while (!cancelled && !paused
+                            && (transferred = out.transferFrom(in, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                        position += transferred;
+                        streamedBytes.add(transferred);
+                        acquireBandwidth(transferred);
+                        checkpointPrefix(out, journal, position, false);
+                    }
+                }
+            } finally {
+                // Kept on failure too, so a retry picks up where this run stopped
+                checkpointPrefix(out, journal, start + streamedBytes.get(), true);
+            }
+
+            if (paused) {
+                setState(preempted ? DownloadState.QUEUED : DownloadState.PAUSED, null);
+            } else if (!cancelled) {
+                long written = start + streamedBytes.get();
+                if (journal != null && written < fileSize) {
+                    throw new IOException("Connection closed after " + written + " of " + fileSize + " bytes");
+                }
+                if (verifier != null) {
+                    verifier.finish();
+                }
+                if (journal != null) {
+                    journal.delete();
+                }
+                markCompleted(saveFile);
+            }
+        } finally {
+            journaled = false;
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    // Journals [0, written) of a single-connection download; last is the checkpoint at the end of a
+    // run, the others are spaced CHECKPOINT_INTERVAL_MS apart and skipped under SyncPolicy.NONE
+    private void checkpointPrefix(FileChannel out, SegmentJournal journal, long written, boolean last)
+            throws IOException {
+        if (journal == null) {
+            return;
+        }
+        if (!last && (syncPolicy == SyncPolicy.NONE
+                || System.currentTimeMillis() - lastPrefixCheckpoint < CHECKPOINT_INTERVAL_MS)) {
+            return;
+        }
+        journal.record(0, written);
+        out.force(false);
+        journal.checkpoint();
+        lastPrefixCheckpoint = System.currentTimeMillis();
+    }
+
+    // transferFrom never shows the bytes to us, so a verified download reads into a pooled buffer
+    // and hashes each chunk on its way to the file. A resumed download hashes what it already has first.
+    private void transferVerified(ReadableByteChannel in, FileChannel out, StreamVerifier verifier, long start,
+            SegmentJournal journal) throws IOException, InterruptedException {
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer buffer = pool.acquire();
+        long position = 0;
+        try {
+            while (position < start) {
+                buffer.limit((int) Math.min(buffer.capacity(), start - position));
+                int read = out.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File ends before its journaled " + start + " bytes");
+                }
+                buffer.flip();
+                position += buffer.remaining();
+                verifier.update(buffer);
+                buffer.clear();
+            }
+            int bytesRead;
+            while (!cancelled && !paused && (bytesRead = in.read(buffer)) != -1) {
+                buffer.flip();
+                verifier.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer, position);
+                }
+                buffer.clear();
+                streamedBytes.add(bytesRead);
+                acquireBandwidth(bytesRead);
+                checkpointPrefix(out, journal, position, false);
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    // The limit is on the network, so a compressed response is charged for what it took on the wire
+    private void acquireBandwidth(long decodedBytes) throws InterruptedException {
+        if (!encoded) {
+            bandwidthShare.acquire(decodedBytes);
+            return;
+        }
+        long wire = wireBytes.get();
+        bandwidthShare.acquire(wire - chargedWireBytes);
+        chargedWireBytes = wire;
+    }
+
+    private String getFileNameFromUrl(String url) {
+        String fileName = url.substring(url.lastIndexOf('/') + 1);
+
+        // Remove query parameters and fragments
+        int queryIndex = fileName.indexOf('?');
+        if (queryIndex != -1) {
+            fileName = fileName.substring(0, queryIndex);
+        }
+        int fragmentIndex = fileName.indexOf('#');
+        if (fragmentIndex != -1) {
+            fileName = fileName.substring(0, fragmentIndex);
+        }
+
+        // Sanitize filename - remove invalid characters
+        fileName = sanitizeFileName(fileName);
+
+        if (fileName.isEmpty() || !fileName.contains(".")) {
+            fileName = "download_" + System.currentTimeMillis() + ".tmp";
+        }
+        return fileName;
+    }
+
+    private String sanitizeFileName(String fileName) {
+        // Remove or replace invalid characters for Windows/Linux/Mac
+        String sanitized = fileName.replaceAll("[<>:\"/\\\\|?*]", "_");
+
+        // Remove control characters
+        sanitized = sanitized.replaceAll("[\\x00-\\x1F\\x7F]", "");
+
+        // Trim whitespace and dots from start/end
+        sanitized = sanitized.trim().replaceAll("^[.]+|[.]+$", "");
+
+        // Handle reserved Windows names
+        String[] reservedNames = { "CON", "PRN", "AUX", "NUL", "COM1", "COM2", "COM3", "COM4",
+                "COM5", "COM6", "COM7", "COM8", "COM9", "LPT1", "LPT2",
+                "LPT3", "LPT4", "LPT5", "LPT6", "LPT7", "LPT8", "LPT9" };
+
+        String nameWithoutExt = sanitized;
+        String extension = "";
+        int lastDot = sanitized.lastIndexOf('.');
+        if (lastDot > 0) {
+            nameWithoutExt = sanitized.substring(0, lastDot);
+            extension = sanitized.substring(lastDot);
+        }
+
+        for (String reserved : reservedNames) {
+            if (nameWithoutExt.equalsIgnoreCase(reserved)) {
+                nameWithoutExt = nameWithoutExt + "_file";
+                break;
+            }
+        }
+
+        sanitized = nameWithoutExt + extension;
+
+        // Ensure filename is not too long (max 255 characters)
+        if (sanitized.length() > 255) {
+            if (lastDot > 0) {
+                extension = sanitized.substring(lastDot);
+                sanitized = sanitized.substring(0, Math.min(255 - extension.length(), lastDot));
+            } else {
+                sanitized = sanitized.substring(0, 255);
+            }
+            sanitized += extension;
+        }
+
+        return sanitized.isEmpty() ? "download.tmp" : sanitized;
+    }
+
+    public void pause() {
+        preempted = false;
+        stop();
+        // A task that isn't running has nobody else to report the change
+        if (!running.get() && !completed) {
+            setState(DownloadState.PAUSED, null);
+        }
+    }
+
+    // Stops a running download on behalf of the queue, which puts it back once a slot frees up
+    void preempt() {
+        preempted = true;
+        stop();
+    }
+
+    private void stop() {
+        paused = true;
+        shutdownWorkers();
+    }
+
+    boolean consumePreempted() {
+        boolean wasPreempted = preempted;
+        preempted = false;
+        return wasPreempted;
+    }
+
+    // Only journaled downloads can stop without losing what they have fetched
+    boolean isPreemptible() {
+        return journaled && running.get() && !isStopping();
+    }
+
+    void markQueued() {
+        setState(DownloadState.QUEUED, null);
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public DownloadState getState() {
+        return state;
+    }
+
+    // Completes with the file; a failed or cancelled download gets a fresh future when it is resumed
+    public CompletableFuture<File> getCompletion() {
+        return completion;
+    }
+
+    // Completes once the current run, if any, has returned
+    public CompletableFuture<Void> whenStopped() {
+        return running.get() ? stopped : CompletableFuture.completedFuture(null);
+    }
+
+    public DownloadQueue.Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(DownloadQueue.Priority priority) {
+        this.priority = priority;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        cancelled = false;
+        if (completion.isDone() && !completed) {
+            completion = new CompletableFuture<>();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    // Paused, failed and restored-from-history downloads can all continue from their journal
+    public boolean isResumable() {
+        return !running.get() && !completed;
+    }
+
+    private boolean isStopping() {
+        return cancelled || paused || remoteFileChanged || rangesIgnored;
+    }
+
+    public void cancel() {
+        preempted = false;
+        cancelled = true;
+        shutdownWorkers();
+        if (!running.get() && !completed) {
+            setState(DownloadState.CANCELLED, null);
+        }
+    }
+
+    private void shutdownWorkers() {
+        // A reader waiting for its bandwidth turn isn't woken by the scope
+        BandwidthLimiter.Share share = bandwidthShare;
+        if (share != null) {
+            share.close();
+        }
+        TaskScope scope = workers;
+        if (scope != null) {
+            scope.shutdown();
+        }
+    }
+
+    // Live view of the segment map, empty for single-connection downloads
+    public List<Segment.Snapshot> getSegmentSnapshot() {
+        SegmentScheduler current = scheduler;
+        return current != null ? current.snapshot() : new ArrayList<>();
+    }
+
+    public void setBandwidthWeight(int weight) {
+        bandwidthWeight = weight;
+        BandwidthLimiter.Share share = bandwidthShare;
+        if (share != null) {
+            share.setWeight(weight);
+        }
+    }
+
+    public int getBandwidthWeight() {
+        return bandwidthWeight;
+    }
+
+    // Checked before the download is reported complete, e.g. Checksum.parse("sha256:<hex>")
+    public void setChecksum(Checksum checksum) {
+        this.checksum = checksum;
+    }
+
+    // A checksum file such as "file.iso.sha256", fetched when the download starts
+    public void setChecksumUrl(String checksumUrl) {
+        this.checksumUrl = checksumUrl;
+    }
+
+    // Lets a segmented download check and re-fetch single pieces instead of the whole file
+    public void setPieceChecksums(PieceChecksums pieceChecksums) {
+        this.pieceChecksums = pieceChecksums;
+    }
+
+    // null turns the cache off for this download
+    public void setCache(DownloadCache cache) {
+        this.cache = cache;
+    }
+
+    // Called by the engine when an identical download this one waited for has finished
+    void reuseFrom(File file) {
+        reuseSource = file;
+    }
+
+    // Other URLs of the same file, e.g. from a Metalink; they only serve ranges of segmented downloads
+    public void setMirrors(List<String> mirrors) {
+        this.mirrors = new ArrayList<>(mirrors);
+    }
+
+    public List<String> getMirrors() {
+        return Collections.unmodifiableList(mirrors);
+    }
+
+    // Saves under another name than the one taken from the URL, e.g. the one a Metalink gives
+    public void setFileName(String fileName) {
+        this.fileName = sanitizeFileName(fileName);
+    }
+
+    public void setStorageMode(StorageMode storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    public void setProbeMode(ProbeMode probeMode) {
+        this.probeMode = probeMode;
+    }
+
+    public void setDownloadId(long downloadId) {
+        this.downloadId = downloadId;
+    }
+
+    public long getDownloadId() {
+        return downloadId;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getSavePath() {
+        return savePath;
+    }
+
+    // -1 until the server has reported the size
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    // Sums the per-worker counters without locks or syscalls
+    public long getDownloadedBytes() {
+        SegmentScheduler current = scheduler;
+        return resumedBytes + (current != null ? current.getReceivedBytes() : streamedBytes.get());
+    }
+
+    // Bytes as received from the network; fewer than getDownloadedBytes() while a compressed response is decoded
+    public long getWireBytes() {
+        return encoded ? wireBytes.get() : getDownloadedBytes();
+    }
+
+    // Time spent in the current or last run, frozen once that run has stopped
+    public long getElapsedMillis() {
+        long start = startTime;
+        if (start == 0) {
+            return 0;
+        }
+        long stop = stopTime;
+        return (stop != 0 ? stop : System.currentTimeMillis()) - start;
+    }
+
+    private static class RemoteFileChangedException extends IOException {
+        RemoteFileChangedException() {
+            super("Remote file changed since the download started");
+        }
+    }
+
+    private static class RangesIgnoredException extends ProtocolException {
+        RangesIgnoredException() {
+            super("Server answered a range request with the whole file");
+        }
+    }
+}
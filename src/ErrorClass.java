@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import javax.net.ssl.SSLException;
+
+// What went wrong with a request, as far as trying it again is concerned. The label is what the
+// metrics and JFR events call it.
+enum ErrorClass {
+    TIMEOUT("timeout", true),
+    DNS("dns", true),
+    CONNECT("connect", true),
+    // The connection was dropped or the body ended early
+    RESET("reset", true),
+    // 429 or 503, usually with a Retry-After
+    THROTTLED("throttled", true),
+    SERVER_ERROR("http_5xx", true),
+    CLIENT_ERROR("http_4xx", false),
+    // The server answered, but not with what was asked for, e.g. another byte range
+    PROTOCOL("protocol", false),
+    TLS("tls", false),
+    OTHER("other", false);
+
+    final String label;
+    final boolean retryable;
+
+    ErrorClass(String label, boolean retryable) {
+        this.label = label;
+        this.retryable = retryable;
+    }
+
+    static ErrorClass of(Throwable error) {
+        if (error instanceof HttpStatusException) {
+            int status = ((HttpStatusException) error).getStatusCode();
+            if (status == 429 || status == 503) {
+                return THROTTLED;
+            }
+            if (status == 408) {
+                return TIMEOUT;
+            }
+            return status >= 500 ? SERVER_ERROR : CLIENT_ERROR;
+        }
+        if (error instanceof HttpTimeoutException || error instanceof SocketTimeoutException) {
+            return TIMEOUT;
+        }
+        if (error instanceof UnknownHostException) {
+            return DNS;
+        }
+        if (error instanceof ConnectException) {
+            return CONNECT;
+        }
+        if (error instanceof SSLException) {
+            return TLS;
+        }
+        if (error instanceof ProtocolException) {
+            return PROTOCOL;
+        }
+        if (error instanceof IOException) {
+            return RESET;
+        }
+        return OTHER;
+    }
+}
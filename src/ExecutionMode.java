@@ -0,0 +1,34 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Which threads downloads and their segment workers run on. Workers spend nearly all their
+// time blocked on sockets, so virtual threads are the default: a connection costs a few
+// kilobytes of heap instead of a platform thread, and nothing needs a pool size.
+enum ExecutionMode {
+    // One platform thread per download and per connection, as before virtual threads
+    PLATFORM,
+    VIRTUAL;
+
+    // -Ddm.threads=platform switches back to platform threads
+    static final String PROPERTY = "dm.threads";
+
+    static ExecutionMode current() {
+        return "platform".equalsIgnoreCase(System.getProperty(PROPERTY)) ? PLATFORM : VIRTUAL;
+    }
+
+    ThreadFactory threadFactory(String name) {
+        if (this == VIRTUAL) {
+            return Thread.ofVirtual().name(name + "-", 0).factory();
+        }
+        return Thread.ofPlatform().name(name + "-", 0).daemon(true).factory();
+    }
+
+    // Executor for whole downloads; platform mode keeps the old fixed pool
+    ExecutorService newDownloadExecutor(int platformThreads) {
+        if (this == VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(threadFactory("download"));
+        }
+        return Executors.newFixedThreadPool(platformThreads, threadFactory("download"));
+    }
+}
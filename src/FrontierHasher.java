@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+// Hashes a file in order while its segments still arrive out of order. A whole-file digest can't
+// be computed in parallel, so the monitor feeds it the contiguous prefix that is already on disk,
+// reading it back while it is still in the page cache; by the time the last segment lands, only
+// the tail is left to hash instead of the whole file.
+class FrontierHasher {
+    private final MessageDigest digest;
+    private long position;
+
+    FrontierHasher(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    // Hashes up to upTo, or less once budgetNanos have passed, so a slow disk can't hold up the monitor.
+    // The buffer is leased per call, so an idle download holds none of the memory budget.
+    void advance(DownloadStorage storage, long upTo, long budgetNanos) throws IOException, InterruptedException {
+        if (position >= upTo) {
+            return;
+        }
+        long start = System.nanoTime();
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer buffer = pool.acquire();
+        try {
+            while (position < upTo) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), upTo - position));
+                int read = storage.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File ends at " + position + " before the verified range does");
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+                if (System.nanoTime() - start > budgetNanos) {
+                    return;
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    byte[] finish() {
+        return digest.digest();
+    }
+}
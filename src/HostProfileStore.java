@@ -0,0 +1,50 @@
+import java.io.File;
+
+// Remembers what each origin host tolerates, so the next download from it starts at the
+// connection count that worked best last time instead of probing from scratch.
+class HostProfileStore {
+    private static final String PROFILES_FILE = "host_profiles.log";
+    private static final String LEGACY_PROFILES_FILE = "host_profiles.properties";
+    private static final HostProfileStore SHARED = new HostProfileStore(new File(PROFILES_FILE),
+            new File(LEGACY_PROFILES_FILE));
+
+    // Every completed download updates its host, which appends one line
+    private final KeyValueLog profiles;
+
+    HostProfileStore(File file, File legacyPropertiesFile) {
+        profiles = new KeyValueLog(file, legacyPropertiesFile, "host profiles");
+    }
+
+    static HostProfileStore shared() {
+        return SHARED;
+    }
+
+    HostProfile get(String host) {
+        String value = profiles.get(host);
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split("\\|");
+        try {
+            return new HostProfile(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    void put(String host, HostProfile profile) {
+        profiles.put(host, profile.connections + "|" + profile.bytesPerSecond + "|" + profile.setupMillis);
+    }
+
+    static class HostProfile {
+        final int connections;
+        final long bytesPerSecond;
+        final long setupMillis;
+
+        HostProfile(int connections, long bytesPerSecond, long setupMillis) {
+            this.connections = connections;
+            this.bytesPerSecond = bytesPerSecond;
+            this.setupMillis = setupMillis;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Transport on one shared java.net.http.HttpClient. The client keeps a pool of keep-alive
+// connections and TLS sessions across segments and downloads, and negotiates HTTP/2 so range
+// requests to the same origin become streams on one multiplexed connection.
+class HttpClientTransport implements HttpTransport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(60);
+    private static final HttpClientTransport SHARED = new HttpClientTransport();
+
+    private final HttpClient client;
+
+    HttpClientTransport() {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    static HttpClientTransport shared() {
+        return SHARED;
+    }
+
+    // Failures of this client that HttpURLConnection may not run into: HTTP/2 negotiation, a
+    // response it can't parse, a connection dropped mid-handshake, or a URL its URI parser rejects.
+    // DNS, connect, timeout and TLS failures would only happen again.
+    static boolean isClientSpecific(Exception error) {
+        if (error instanceof IllegalArgumentException) {
+            return true;
+        }
+        ErrorClass errorClass = ErrorClass.of(error);
+        return errorClass == ErrorClass.PROTOCOL || errorClass == ErrorClass.RESET;
+    }
+
+    @Override
+    public HttpTransport.Response head(String url, Map<String, String> headers) throws IOException {
+        HttpRequest request = newRequest(url, headers).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        HttpResponse<Void> response = send(request, HttpResponse.BodyHandlers.discarding());
+        return new Response(response, null);
+    }
+
+    @Override
+    public HttpTransport.Response get(String url, Map<String, String> headers) throws IOException {
+        HttpRequest request = newRequest(url, headers).GET().build();
+        HttpResponse<Flow.Publisher<List<ByteBuffer>>> response = send(request, HttpResponse.BodyHandlers.ofPublisher());
+        BodyChannel body = new BodyChannel();
+        response.body().subscribe(body);
+        return new Response(response, body);
+    }
+
+    private static HttpRequest.Builder newRequest(String url, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(RESPONSE_TIMEOUT);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted");
+        }
+    }
+
+    private static class Response implements HttpTransport.Response {
+        private final HttpResponse<?> response;
+        private final BodyChannel body;
+
+        Response(HttpResponse<?> response, BodyChannel body) {
+            this.response = response;
+            this.body = body;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+        }
+
+        @Override
+        public ReadableByteChannel getBody() throws IOException {
+            if (body == null) {
+                throw new IOException("Response has no body");
+            }
+            return body;
+        }
+
+        @Override
+        public void abort() {
+            if (body != null) {
+                body.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            abort();
+        }
+    }
+
+    // Pulls the client's body buffers one batch at a time and copies them straight into the
+    // caller's buffer, so there is no InputStream or intermediate byte[] on the data path.
+    // Requesting the next batch only once the previous one is drained gives flow control.
+    private static class BodyChannel implements ReadableByteChannel, Flow.Subscriber<List<ByteBuffer>> {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        private volatile Flow.Subscription subscription;
+        private volatile boolean closed;
+        private Iterator<ByteBuffer> batch;
+        private ByteBuffer current;
+        private boolean eof;
+        // FileChannel.transferFrom swallows a read error once it has moved some bytes and calls
+        // read again, so the error has to come back from every later read too
+        private IOException failure;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (closed) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            queue.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            queue.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            queue.add(END);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (eof) {
+                return -1;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            int total = 0;
+            while (dst.hasRemaining()) {
+                if (current != null && current.hasRemaining()) {
+                    int n = Math.min(current.remaining(), dst.remaining());
+                    int limit = current.limit();
+                    current.limit(current.position() + n);
+                    dst.put(current);
+                    current.limit(limit);
+                    total += n;
+                } else if (batch != null && batch.hasNext()) {
+                    current = batch.next();
+                } else if (total > 0) {
+                    // Hand back what we have rather than block for the next batch
+                    break;
+                } else {
+                    if (batch != null) {
+                        batch = null;
+                        subscription.request(1);
+                    }
+                    if (!take()) {
+                        return -1;
+                    }
+                }
+            }
+            return total;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean take() throws IOException {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new InterruptedIOException("Read interrupted");
+            }
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (item == END) {
+                eof = true;
+                return false;
+            }
+            if (item instanceof Throwable) {
+                Throwable error = (Throwable) item;
+                failure = error instanceof IOException ? (IOException) error : new IOException(error);
+                throw failure;
+            }
+            batch = ((List<ByteBuffer>) item).iterator();
+            return true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        // Safe from any thread; cancelling the subscription resets the HTTP/2 stream or drops the connection
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            // Wakes a reader blocked in take()
+            queue.add(END);
+        }
+    }
+}
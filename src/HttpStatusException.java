@@ -0,0 +1,27 @@
+import java.io.IOException;
+
+// A response status that ends the request, kept as a number so that throttling and server
+// errors can be told apart from client errors without parsing the message
+class HttpStatusException extends IOException {
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    HttpStatusException(String message, int statusCode) {
+        this(message, statusCode, -1);
+    }
+
+    HttpStatusException(String message, int statusCode, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    // What the server's Retry-After asked for, -1 without one
+    long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,37 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+
+// How DownloadTask talks HTTP. Implementations hand back the status, headers and a channel
+// over the body so the data path can stream it straight into the storage layer.
+interface HttpTransport {
+    // -Ddm.transport=urlconnection switches back to one HttpURLConnection per request
+    String TRANSPORT_PROPERTY = "dm.transport";
+
+    Response head(String url, Map<String, String> headers) throws IOException;
+
+    Response get(String url, Map<String, String> headers) throws IOException;
+
+    static HttpTransport defaultTransport() {
+        if ("urlconnection".equalsIgnoreCase(System.getProperty(TRANSPORT_PROPERTY))) {
+            return UrlConnectionTransport.shared();
+        }
+        return HttpClientTransport.shared();
+    }
+
+    interface Response extends Closeable {
+        int getStatusCode();
+
+        // Case-insensitive, null when absent
+        String getHeader(String name);
+
+        // -1 when the server did not send a length
+        long getContentLength();
+
+        ReadableByteChannel getBody() throws IOException;
+
+        // Tears the connection down from another thread, e.g. when it stalls; a blocked read fails
+        void abort();
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// A string map kept in an AppendLog, the same way DownloadStore keeps the history: every change
+// appends one line, and the log is rewritten only when superseded lines outnumber live entries.
+class KeyValueLog {
+    private static final String PUT = "P";
+    private static final String DELETE = "D";
+
+    private final AppendLog log;
+    private final Map<String, String> entries = new LinkedHashMap<>();
+
+    // The entries of legacyPropertiesFile, if given, are imported when the log doesn't exist yet
+    KeyValueLog(File file, File legacyPropertiesFile, String name) {
+        log = new AppendLog(file, name);
+        if (log.exists()) {
+            log.replay(this::apply);
+        } else if (legacyPropertiesFile != null && legacyPropertiesFile.exists()) {
+            migrate(legacyPropertiesFile, name);
+        }
+        if (!log.exists() || log.getLineCount() > entries.size()) {
+            compact();
+        }
+    }
+
+    synchronized String get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized Map<String, String> getAll() {
+        return new LinkedHashMap<>(entries);
+    }
+
+    // Writing the value a key already has doesn't reach the log
+    synchronized void put(String key, String value) {
+        if (value.equals(entries.put(key, value))) {
+            return;
+        }
+        log.append(PUT, key, value);
+        compactIfSuperseded();
+    }
+
+    synchronized void remove(String key) {
+        if (entries.remove(key) != null) {
+            log.append(DELETE, key);
+            compactIfSuperseded();
+        }
+    }
+
+    synchronized void close() {
+        log.close();
+    }
+
+    private void apply(String[] fields) {
+        if (PUT.equals(fields[0]) && fields.length == 3) {
+            entries.put(fields[1], fields[2]);
+        } else if (DELETE.equals(fields[0]) && fields.length == 2) {
+            entries.remove(fields[1]);
+        }
+    }
+
+    // One-time import of the properties file the data was kept in before
+    private void migrate(File legacyPropertiesFile, String name) {
+        Properties legacy = new Properties();
+        try (FileInputStream fis = new FileInputStream(legacyPropertiesFile)) {
+            legacy.load(fis);
+        } catch (IOException e) {
+            System.err.println("Error loading " + name + ": " + e.getMessage());
+            return;
+        }
+        for (String key : legacy.stringPropertyNames()) {
+            entries.put(key, legacy.getProperty(key));
+        }
+    }
+
+    private void compactIfSuperseded() {
+        if (log.shouldCompact(entries.size())) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        List<String[]> lines = new ArrayList<>(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            lines.add(new String[] { PUT, entry.getKey(), entry.getValue() });
+        }
+        log.rewrite(lines);
+    }
+}
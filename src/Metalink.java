@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+// Reads Metalink 4 (RFC 5854) and Metalink 3 files: for every file its HTTP(S) mirrors in order
+// of preference, its size and, when listed, its checksum and piece checksums.
+class Metalink {
+    static List<Entry> parse(InputStream in) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // Metalinks come from the network, so no DTDs and no external entities
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setExpandEntityReferences(false);
+            factory.setNamespaceAware(true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // Errors become the exception below instead of being printed as well
+            builder.setErrorHandler(new DefaultHandler());
+            document = builder.parse(in);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Not a valid Metalink file: " + e.getMessage(), e);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (Element file : children(document.getDocumentElement(), "file", true)) {
+            Entry entry;
+            try {
+                entry = parseFile(file);
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a valid Metalink file: bad number in " + file.getAttribute("name"), e);
+            }
+            if (!entry.urls.isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static Entry parseFile(Element file) {
+        String name = file.getAttribute("name");
+        long size = -1;
+        Element sizeElement = first(file, "size");
+        if (sizeElement != null) {
+            size = Long.parseLong(sizeElement.getTextContent().trim());
+        }
+
+        // Metalink 4 ranks by priority, lowest first; Metalink 3 by preference, highest first
+        List<Element> urlElements = children(file, "url", true);
+        urlElements.sort(Comparator.comparingLong(Metalink::rank));
+        List<String> urls = new ArrayList<>();
+        for (Element url : urlElements) {
+            String value = url.getTextContent().trim();
+            if (value.startsWith("http://") || value.startsWith("https://")) {
+                urls.add(value);
+            }
+        }
+
+        Checksum checksum = null;
+        PieceChecksums pieces = null;
+        for (Element hash : children(file, "hash", true)) {
+            if (hash.getParentNode().getLocalName().equals("pieces")) {
+                continue;
+            }
+            Checksum candidate = checksum(hash.getAttribute("type"), hash.getTextContent());
+            if (candidate != null && (checksum == null
+                    || candidate.newDigest().getDigestLength() > checksum.newDigest().getDigestLength())) {
+                checksum = candidate;
+            }
+        }
+        Element piecesElement = first(file, "pieces");
+        if (piecesElement != null) {
+            pieces = pieceChecksums(piecesElement);
+        }
+        return new Entry(name, size, urls, checksum, pieces);
+    }
+
+    private static long rank(Element url) {
+        String priority = url.getAttribute("priority");
+        if (!priority.isEmpty()) {
+            return Long.parseLong(priority.trim());
+        }
+        String preference = url.getAttribute("preference");
+        if (!preference.isEmpty()) {
+            return -Long.parseLong(preference.trim());
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static PieceChecksums pieceChecksums(Element pieces) {
+        List<byte[]> hashes = new ArrayList<>();
+        String algorithm = null;
+        for (Element hash : children(pieces, "hash", false)) {
+            Checksum piece = checksum(pieces.getAttribute("type"), hash.getTextContent());
+            if (piece == null) {
+                // Unknown algorithm: skip the piece list rather than half of it
+                return null;
+            }
+            algorithm = piece.getAlgorithm();
+            hashes.add(HexFormat.of().parseHex(hash.getTextContent().trim()));
+        }
+        if (hashes.isEmpty()) {
+            return null;
+        }
+        return new PieceChecksums(algorithm, Long.parseLong(pieces.getAttribute("length").trim()), hashes);
+    }
+
+    // null for algorithms the JDK can't compute
+    private static Checksum checksum(String type, String hex) {
+        try {
+            return Checksum.parse(type + ":" + hex.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Element first(Element parent, String localName) {
+        List<Element> found = children(parent, localName, true);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    // Matches on the local name, so both the Metalink 3 and 4 namespaces work
+    private static List<Element> children(Element parent, String localName, boolean deep) {
+        List<Element> found = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Element element = (Element) node;
+            if (localName.equals(element.getLocalName())) {
+                found.add(element);
+            } else if (deep && !element.getLocalName().equals("file")) {
+                found.addAll(children(element, localName, true));
+            }
+        }
+        return found;
+    }
+
+    static class Entry {
+        final String name;
+        final long size;
+        // Most preferred first
+        final List<String> urls;
+        final Checksum checksum;
+        final PieceChecksums pieces;
+
+        Entry(String name, long size, List<String> urls, Checksum checksum, PieceChecksums pieces) {
+            this.name = name;
+            this.size = size;
+            this.urls = urls;
+            this.checksum = checksum;
+            this.pieces = pieces;
+        }
+    }
+}
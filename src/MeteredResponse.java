@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A data GET's response as the metrics see it: an active connection until it is closed, the
+// time from the request to the first body byte, and every byte read off the network. The body
+// is counted before any decoding, and before a segment drops what another worker has taken over.
+class MeteredResponse implements HttpTransport.Response {
+    private final HttpTransport.Response response;
+    private final String url;
+    private final long rangeStart;
+    private final long requestNanos;
+    private final DownloadEvents.FirstByteEvent firstByte;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private ReadableByteChannel body;
+    private boolean firstByteSeen;
+
+    // The event has been begun when the request was sent
+    MeteredResponse(HttpTransport.Response response, String url, long rangeStart, long requestNanos,
+            DownloadEvents.FirstByteEvent firstByte) {
+        this.response = response;
+        this.url = url;
+        this.rangeStart = rangeStart;
+        this.requestNanos = requestNanos;
+        this.firstByte = firstByte;
+        Metrics.ACTIVE_CONNECTIONS.add(1);
+    }
+
+    @Override
+    public int getStatusCode() {
+        return response.getStatusCode();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return response.getHeader(name);
+    }
+
+    @Override
+    public long getContentLength() {
+        return response.getContentLength();
+    }
+
+    @Override
+    public ReadableByteChannel getBody() throws IOException {
+        if (body == null) {
+            ReadableByteChannel in = response.getBody();
+            body = new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int read = in.read(dst);
+                    if (read > 0) {
+                        if (!firstByteSeen) {
+                            firstByteSeen = true;
+                            recordFirstByte();
+                        }
+                        Metrics.BYTES_RECEIVED.add(read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return in.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        }
+        return body;
+    }
+
+    private void recordFirstByte() {
+        Metrics.FIRST_BYTE_SECONDS.observeNanos(System.nanoTime() - requestNanos);
+        if (firstByte.shouldCommit()) {
+            firstByte.url = url;
+            firstByte.rangeStart = rangeStart;
+            firstByte.commit();
+        }
+    }
+
+    @Override
+    public void abort() {
+        response.abort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            Metrics.ACTIVE_CONNECTIONS.add(-1);
+        }
+        response.close();
+    }
+}
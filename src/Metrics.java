@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Process-wide counters, gauges and histograms of the downloader, written out in the Prometheus
+// text format. Recording is a LongAdder add, cheap enough for the read loops; a scrape walks the
+// registered families under the registry lock and never blocks a download.
+class Metrics {
+    private static final Metrics SHARED = new Metrics();
+
+    // Seconds, from a fast LAN response to an origin that makes us wait
+    private static final double[] LATENCY_BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+    // Bytes per second, 64 KB/s to 1 GB/s
+    private static final double[] THROUGHPUT_BUCKETS = { 64e3, 256e3, 1e6, 4e6, 16e6, 64e6, 256e6, 1e9 };
+
+    static final Counter BYTES_RECEIVED = SHARED.counter("dm_received_bytes_total",
+            "Body bytes read from the network, before decoding");
+    static final Counter REQUESTS = SHARED.counter("dm_requests_total", "GET requests sent for file data");
+    static final Counter DISK_STALLS = SHARED.counter("dm_disk_stalls_total",
+            "Times a reader waited because its volume's write queue was full");
+    static final Counter MIRRORS_DROPPED = SHARED.counter("dm_mirrors_dropped_total",
+            "Mirrors taken out of a download for failing or serving another file");
+    static final Gauge ACTIVE_CONNECTIONS = SHARED.gauge("dm_active_connections",
+            "Responses currently being read, on either path");
+    static final Gauge QUEUED_DOWNLOADS = SHARED.gauge("dm_queued_downloads", "Downloads waiting for a slot");
+    static final Gauge RUNNING_DOWNLOADS = SHARED.gauge("dm_running_downloads", "Downloads holding a slot");
+    static final Histogram PROBE_SECONDS = SHARED.histogram("dm_probe_seconds",
+            "Probe request until its response headers arrived", LATENCY_BUCKETS);
+    static final Histogram HEADERS_SECONDS = SHARED.histogram("dm_response_headers_seconds",
+            "GET sent to response headers, including any new connection", LATENCY_BUCKETS);
+    static final Histogram FIRST_BYTE_SECONDS = SHARED.histogram("dm_first_byte_seconds",
+            "GET sent to the first body byte", LATENCY_BUCKETS);
+    static final Histogram DISK_STALL_SECONDS = SHARED.histogram("dm_disk_stall_seconds",
+            "Time a reader waited for room in its volume's write queue", LATENCY_BUCKETS);
+    static final Histogram MERGE_SECONDS = SHARED.histogram("dm_merge_seconds",
+            "Joining part files into the final file", LATENCY_BUCKETS);
+    static final Histogram DOWNLOAD_THROUGHPUT = SHARED.histogram("dm_download_throughput_bytes_per_second",
+            "Average rate of each completed download run", THROUGHPUT_BUCKETS);
+
+    static {
+        SHARED.gauge("dm_range_connections", "Range connections held in the connection budget",
+                () -> ConnectionBudget.shared().getUsed());
+        SHARED.gauge("dm_buffer_leased_bytes", "I/O buffers lent out of the memory budget",
+                () -> BufferPool.shared().getStats().leasedBytes);
+        SHARED.gauge("dm_buffer_pooled_bytes", "I/O buffers kept for the next lease",
+                () -> BufferPool.shared().getStats().pooledBytes);
+        SHARED.gauge("dm_buffer_budget_bytes", "Memory budget for I/O buffers",
+                () -> BufferPool.shared().getStats().budgetBytes);
+        SHARED.counter("dm_buffer_stalls_total", "Buffer leases that waited for the memory budget",
+                () -> BufferPool.shared().getStats().stalls);
+    }
+
+    // Guarded by this; insertion order is the order of the scrape
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    static Metrics shared() {
+        return SHARED;
+    }
+
+    // Labels come as name, value pairs; the same name and labels always give the same counter
+    synchronized Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").children.computeIfAbsent(labels(labels), l -> new Counter());
+    }
+
+    // A counter kept elsewhere, read at scrape time
+    synchronized void counter(String name, String help, LongSupplier supplier) {
+        family(name, help, "counter").children.put("", supplier);
+    }
+
+    synchronized Gauge gauge(String name, String help) {
+        return (Gauge) family(name, help, "gauge").children.computeIfAbsent("", l -> new Gauge());
+    }
+
+    // A gauge kept elsewhere, read at scrape time
+    synchronized void gauge(String name, String help, LongSupplier supplier) {
+        family(name, help, "gauge").children.put("", supplier);
+    }
+
+    synchronized Histogram histogram(String name, String help, double[] buckets) {
+        return (Histogram) family(name, help, "histogram").children.computeIfAbsent("", l -> new Histogram(buckets));
+    }
+
+    // Failed downloads and failed segment connections, by where and what went wrong
+    static void recordError(String stage, Throwable error) {
+        SHARED.counter("dm_errors_total", "Failed downloads and segment connections by error class",
+                "stage", stage, "class", errorClass(error)).increment();
+    }
+
+    // Segment connections reopened, by what made them fail
+    static void recordRetry(ErrorClass errorClass) {
+        SHARED.counter("dm_segment_retries_total", "Segment connections reopened after a stall or error",
+                "class", errorClass.label).increment();
+    }
+
+    // Retries refused because the download or the host had used up its retry budget
+    static void recordRetryBudgetExhausted(String scope) {
+        SHARED.counter("dm_retry_budget_exhausted_total", "Retries refused for lack of retry budget",
+                "scope", scope).increment();
+    }
+
+    static String errorClass(Throwable error) {
+        return ErrorClass.of(error).label;
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String labels(String[] labels) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            String escaped = labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            text.append(labels[i]).append("=\"").append(escaped).append('"');
+        }
+        return text.toString();
+    }
+
+    // Text exposition format 0.0.4
+    void writePrometheus(Writer out) throws IOException {
+        List<Map.Entry<String, Family>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>();
+            for (Map.Entry<String, Family> entry : families.entrySet()) {
+                Family family = entry.getValue();
+                Family copy = new Family(family.help, family.type);
+                copy.children.putAll(family.children);
+                snapshot.add(Map.entry(entry.getKey(), copy));
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Family> entry : snapshot) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            text.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Histogram) {
+                    ((Histogram) metric).write(text, name);
+                } else {
+                    text.append(name);
+                    if (!labels.isEmpty()) {
+                        text.append('{').append(labels).append('}');
+                    }
+                    text.append(' ').append(value(metric)).append('\n');
+                }
+            }
+        }
+        out.write(text.toString());
+    }
+
+    private static long value(Object metric) {
+        if (metric instanceof Counter) {
+            return ((Counter) metric).get();
+        }
+        if (metric instanceof Gauge) {
+            return ((Gauge) metric).get();
+        }
+        return ((LongSupplier) metric).getAsLong();
+    }
+
+    private static String format(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value)
+                : String.valueOf(value);
+    }
+
+    private static class Family {
+        final String help;
+        final String type;
+        // Label string, e.g. class="timeout", to the metric or its LongSupplier
+        final Map<String, Object> children = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        void increment() {
+            count.increment();
+        }
+
+        void add(long amount) {
+            count.add(amount);
+        }
+
+        long get() {
+            return count.sum();
+        }
+    }
+
+    static class Gauge {
+        private final AtomicLong value = new AtomicLong();
+
+        void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        long get() {
+            return value.get();
+        }
+    }
+
+    // Cumulative buckets as Prometheus wants them are summed at scrape time; observing only
+    // bumps the one bucket the value falls into
+    static class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds.clone();
+            counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void observe(double value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sum.add(value);
+        }
+
+        void observeNanos(long nanos) {
+            observe(nanos / 1e9);
+        }
+
+        private void write(StringBuilder text, String name) {
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                double bound = i < bounds.length ? bounds[i] : Double.POSITIVE_INFINITY;
+                text.append(name).append("_bucket{le=\"").append(format(bound)).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            text.append(name).append("_sum ").append(format(sum.sum())).append('\n');
+            text.append(name).append("_count ").append(cumulative).append('\n');
+        }
+    }
+}
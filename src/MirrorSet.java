@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// The sources of one segmented download: its own URL plus mirrors of the same file. Every new
+// range connection goes to the mirror with the best expected speed per connection, so faster
+// mirrors end up serving more of the file. A mirror that keeps failing, serves a file of another
+// size or changes its ETag is dropped for the rest of the download.
+class MirrorSet {
+    static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final double SPEED_SMOOTHING = 0.3;
+
+    private final List<Mirror> mirrors = new ArrayList<>();
+    private final long fileSize;
+
+    // primaryValidator is the If-Range value from the probe of the download's own URL
+    MirrorSet(String primaryUrl, String primaryValidator, List<String> mirrorUrls, long fileSize) {
+        this.fileSize = fileSize;
+        mirrors.add(new Mirror(primaryUrl, true, primaryValidator));
+        for (String url : mirrorUrls) {
+            if (!url.equals(primaryUrl)) {
+                mirrors.add(new Mirror(url, false, null));
+            }
+        }
+    }
+
+    // The mirror for the next connection, or null once every mirror has been dropped. Until a
+    // mirror has finished a connection its speed is unknown, so new mirrors get one connection
+    // each before the measured ones get a second.
+    synchronized Mirror acquire() {
+        double measuredTotal = 0;
+        int measuredCount = 0;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.dropped && mirror.measured) {
+                measuredTotal += mirror.bytesPerSecond;
+                measuredCount++;
+            }
+        }
+        double unknownSpeed = measuredCount > 0 ? measuredTotal / measuredCount : 1;
+
+        Mirror best = null;
+        double bestScore = -1;
+        for (Mirror mirror : mirrors) {
+            if (mirror.dropped) {
+                continue;
+            }
+            double score;
+            if (!mirror.measured && mirror.active == 0) {
+                score = Double.POSITIVE_INFINITY;
+            } else {
+                score = (mirror.measured ? mirror.bytesPerSecond : unknownSpeed) / (mirror.active + 1);
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = mirror;
+            }
+        }
+        if (best != null) {
+            best.active++;
+        }
+        return best;
+    }
+
+    // The download's own URL, for a connection that is already open to it
+    synchronized Mirror acquirePrimary() {
+        Mirror primary = mirrors.get(0);
+        primary.active++;
+        return primary;
+    }
+
+    // Ends a connection started with acquire(); bytes and nanos measure what it delivered
+    synchronized void release(Mirror mirror, long bytes, long nanos, boolean failed) {
+        mirror.active--;
+        if (failed) {
+            if (++mirror.failures >= MAX_CONSECUTIVE_FAILURES) {
+                drop(mirror, mirror.failures + " failed connections in a row");
+            }
+            return;
+        }
+        mirror.failures = 0;
+        if (bytes > 0 && nanos > 0) {
+            double speed = bytes * 1_000_000_000.0 / nanos;
+            mirror.bytesPerSecond = mirror.measured ? mirror.bytesPerSecond
+                    + SPEED_SMOOTHING * (speed - mirror.bytesPerSecond) : speed;
+            mirror.measured = true;
+        }
+    }
+
+    // The last live mirror is kept, so the download fails the way it would without mirrors
+    synchronized void drop(Mirror mirror, String reason) {
+        if (mirror.dropped || getLiveCount() <= 1) {
+            return;
+        }
+        mirror.dropped = true;
+        Metrics.MIRRORS_DROPPED.increment();
+        DownloadEvents.MirrorDropEvent event = new DownloadEvents.MirrorDropEvent();
+        if (event.shouldCommit()) {
+            event.url = mirror.url;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    // A mirror has to serve ranges of the same file as the download's own URL: the same total size
+    // and, once it has shown one, the same ETag on every response
+    void checkResponse(Mirror mirror, HttpTransport.Response response) throws IOException {
+        if (mirror.primary) {
+            return;
+        }
+        if (response.getStatusCode() != 206) {
+            drop(mirror, "answered a range request with HTTP " + response.getStatusCode());
+            throw new IOException("Mirror " + mirror.url + " does not serve ranges");
+        }
+        ContentRange range = ContentRange.parse(response.getHeader("Content-Range"));
+        long total = range != null ? range.total : -1;
+        if (total != fileSize) {
+            drop(mirror, "serves " + total + " bytes instead of " + fileSize);
+            throw new IOException("Mirror " + mirror.url + " serves a file of another size");
+        }
+        String validator = rangeValidator(response);
+        synchronized (this) {
+            if (mirror.validator == null) {
+                mirror.validator = validator;
+                return;
+            }
+        }
+        if (validator != null && !validator.equals(mirror.validator)) {
+            drop(mirror, "ETag changed from " + mirror.validator + " to " + validator);
+            throw new IOException("Mirror " + mirror.url + " changed its file");
+        }
+    }
+
+    private static String rangeValidator(HttpTransport.Response response) {
+        String etag = response.getHeader("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.getHeader("Last-Modified");
+    }
+
+    synchronized int getLiveCount() {
+        int live = 0;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.dropped) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    static class Mirror {
+        final String url;
+        final boolean primary;
+        // If-Range value, known for a mirror once it has answered one request
+        volatile String validator;
+        // Guarded by the MirrorSet
+        private int active;
+        private int failures;
+        private boolean measured;
+        private double bytesPerSecond;
+        private boolean dropped;
+
+        Mirror(String url, boolean primary, String validator) {
+            this.url = url;
+            this.primary = primary;
+            this.validator = validator;
+        }
+    }
+}
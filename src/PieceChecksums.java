@@ -0,0 +1,84 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Expected digests of the fixed-size pieces of a file (the last piece may be shorter), so a
+// segmented download can check and re-fetch each piece on its own. The pieces are the leaves of
+// a Merkle tree: given a trusted root, a piece list from an untrusted source is accepted only if
+// it hashes up to that root.
+class PieceChecksums {
+    private final String algorithm;
+    private final long pieceSize;
+    private final byte[][] pieces;
+
+    PieceChecksums(String algorithm, long pieceSize, List<byte[]> pieces) {
+        if (pieceSize <= 0 || pieces.isEmpty()) {
+            throw new IllegalArgumentException("Piece checksums need a positive piece size and at least one piece");
+        }
+        this.algorithm = algorithm;
+        this.pieceSize = pieceSize;
+        this.pieces = new byte[pieces.size()][];
+        for (int i = 0; i < this.pieces.length; i++) {
+            this.pieces[i] = pieces.get(i).clone();
+        }
+    }
+
+    // Accepts the pieces only if their Merkle root equals the trusted root
+    static PieceChecksums withRoot(String algorithm, long pieceSize, List<byte[]> pieces, byte[] root) {
+        PieceChecksums checksums = new PieceChecksums(algorithm, pieceSize, pieces);
+        if (!MessageDigest.isEqual(root, checksums.merkleRoot())) {
+            throw new IllegalArgumentException("Piece checksums do not match the Merkle root");
+        }
+        return checksums;
+    }
+
+    // Each parent is the digest of its two children; an odd node is carried up unchanged
+    byte[] merkleRoot() {
+        List<byte[]> level = new ArrayList<>(List.of(pieces));
+        while (level.size() > 1) {
+            List<byte[]> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 == level.size()) {
+                    parents.add(level.get(i));
+                } else {
+                    MessageDigest digest = newDigest();
+                    digest.update(level.get(i));
+                    digest.update(level.get(i + 1));
+                    parents.add(digest.digest());
+                }
+            }
+            level = parents;
+        }
+        return level.get(0).clone();
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    long getPieceSize() {
+        return pieceSize;
+    }
+
+    int getPieceCount() {
+        return pieces.length;
+    }
+
+    MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+        }
+    }
+
+    boolean matches(int piece, byte[] actual) {
+        return MessageDigest.isEqual(pieces[piece], actual);
+    }
+
+    // Checks that the list describes a file of this size
+    boolean fits(long fileSize) {
+        return (fileSize + pieceSize - 1) / pieceSize == pieces.length;
+    }
+}
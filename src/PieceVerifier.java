@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+// Checks the pieces of a segmented download against their expected digests as soon as every byte
+// of a piece is on disk. Checks run in parallel as tasks of the download's scope; a piece that
+// does not match goes back to the scheduler, so only that piece is fetched again.
+class PieceVerifier {
+    static final int MAX_ATTEMPTS = 3;
+
+    private static final byte UNCHECKED = 0;
+    private static final byte CHECKING = 1;
+    private static final byte VERIFIED = 2;
+
+    private final PieceChecksums checksums;
+    private final long fileSize;
+    private final byte[] states;
+    private final int[] failures;
+    private int verified;
+    private boolean requeued;
+    private volatile IOException failure;
+
+    PieceVerifier(PieceChecksums checksums, long fileSize) throws IOException {
+        if (!checksums.fits(fileSize)) {
+            throw new IOException(checksums.getPieceCount() + " piece checksums of " + checksums.getPieceSize()
+                    + " bytes do not describe a file of " + fileSize + " bytes");
+        }
+        this.checksums = checksums;
+        this.fileSize = fileSize;
+        this.states = new byte[checksums.getPieceCount()];
+        this.failures = new int[states.length];
+    }
+
+    // Starts a check for every unchecked piece that is now fully on disk; returns how many were started
+    int forkReadyChecks(TaskScope scope, SegmentScheduler scheduler, DownloadStorage storage) {
+        int started = 0;
+        for (int piece = 0; piece < states.length; piece++) {
+            long start = piece * checksums.getPieceSize();
+            long end = Math.min(start + checksums.getPieceSize(), fileSize) - 1;
+            synchronized (this) {
+                if (states[piece] != UNCHECKED || !scheduler.isPersisted(start, end)) {
+                    continue;
+                }
+                states[piece] = CHECKING;
+            }
+            int index = piece;
+            if (!scope.fork(() -> check(index, start, end, scheduler, storage))) {
+                synchronized (this) {
+                    states[piece] = UNCHECKED;
+                }
+                break;
+            }
+            started++;
+        }
+        return started;
+    }
+
+    private void check(int piece, long start, long end, SegmentScheduler scheduler, DownloadStorage storage) {
+        boolean matches;
+        try {
+            matches = checksums.matches(piece, hash(storage, start, end));
+        } catch (IOException e) {
+            fail(new IOException("Could not read piece " + piece + " for verification", e));
+            return;
+        } catch (InterruptedException e) {
+            // The download is being torn down; the piece is checked again on resume
+            synchronized (this) {
+                states[piece] = UNCHECKED;
+            }
+            return;
+        }
+        synchronized (this) {
+            if (matches) {
+                states[piece] = VERIFIED;
+                verified++;
+                return;
+            }
+            states[piece] = UNCHECKED;
+            if (++failures[piece] >= MAX_ATTEMPTS) {
+                fail(new IOException("Checksum mismatch: piece " + piece + " failed verification "
+                        + MAX_ATTEMPTS + " times"));
+                return;
+            }
+        }
+        scheduler.requeue(start, end);
+        synchronized (this) {
+            requeued = true;
+        }
+    }
+
+    // Whether a piece went back to the scheduler since the last call
+    synchronized boolean consumeRequeued() {
+        boolean wasRequeued = requeued;
+        requeued = false;
+        return wasRequeued;
+    }
+
+    // Concurrent checks each lease a buffer, so they count against the memory budget like the readers
+    private byte[] hash(DownloadStorage storage, long start, long end) throws IOException, InterruptedException {
+        MessageDigest digest = checksums.newDigest();
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer buffer = pool.acquire();
+        try {
+            long position = start;
+            while (position <= end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position + 1));
+                int read = storage.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File ends at " + position + " inside piece");
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+            }
+            return digest.digest();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    void throwIfFailed() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    synchronized boolean isAllVerified() {
+        return verified == states.length;
+    }
+
+    // Start of the first piece that hasn't passed its check yet, fileSize once all have
+    synchronized long getVerifiedPrefix() {
+        for (int piece = 0; piece < states.length; piece++) {
+            if (states[piece] != VERIFIED) {
+                return piece * checksums.getPieceSize();
+            }
+        }
+        return fileSize;
+    }
+}
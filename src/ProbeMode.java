@@ -0,0 +1,16 @@
+// How a download learns the size, range support and validators of its file before fetching it
+enum ProbeMode {
+    // A HEAD, then GETs for the data: a full round trip, and a TLS handshake, before the first byte
+    HEAD,
+    // A GET with "Range: bytes=0-". The 206 and its Content-Range answer the same questions, and
+    // the body is the file from its first byte, so the probe keeps streaming as the first segment
+    // or as the whole download. A 200 says the server ignores ranges, whatever Accept-Ranges claims.
+    RANGE_GET;
+
+    // -Ddm.probe=head|range_get, range_get by default
+    static final String PROPERTY = "dm.probe";
+
+    static ProbeMode current() {
+        return "head".equalsIgnoreCase(System.getProperty(PROPERTY)) ? HEAD : RANGE_GET;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Samples the byte counters of every running download on one thread at a fixed frame rate and
+// hands the sink one batched frame per tick. Workers only bump their byte counters, so nothing on
+// the data path allocates, takes a lock or schedules UI work for progress.
+class ProgressDispatcher implements AutoCloseable {
+    static final int FRAMES_PER_SECOND = 5;
+    // Speeds are measured across the last three seconds of frames and then smoothed
+    private static final int RATE_WINDOW_FRAMES = FRAMES_PER_SECOND * 3 + 1;
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final List<Slot> slots = new ArrayList<>();
+    private final ProgressFrame frame = new ProgressFrame();
+    private final Consumer<ProgressFrame> sink;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("progress-dispatcher").daemon(true).factory());
+
+    ProgressDispatcher(Consumer<ProgressFrame> sink) {
+        this.sink = sink;
+        long interval = 1000 / FRAMES_PER_SECOND;
+        ticker.scheduleAtFixedRate(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // Fed from the state events: running downloads are sampled every frame, a download that
+    // stops gets one last sample with its final count and no speed
+    void onStateChanged(DownloadTask task, DownloadState state) {
+        switch (state) {
+            case CONNECTING:
+            case DOWNLOADING:
+            case VERIFYING:
+            case MERGING:
+                track(task);
+                break;
+            default:
+                untrack(task);
+                break;
+        }
+    }
+
+    // Starts sampling the task, or restarts its speed window when the counter was just reset
+    synchronized void track(DownloadTask task) {
+        Slot slot = find(task);
+        if (slot == null) {
+            slot = new Slot(task);
+            slots.add(slot);
+        }
+        slot.finishing = false;
+        long now = System.nanoTime();
+        slot.rate.reset(now, task.getDownloadedBytes());
+        slot.wireRate.reset(now, task.getWireBytes());
+    }
+
+    synchronized void untrack(DownloadTask task) {
+        Slot slot = find(task);
+        if (slot != null) {
+            slot.finishing = true;
+        }
+    }
+
+    private Slot find(DownloadTask task) {
+        for (Slot slot : slots) {
+            if (slot.task == task) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private void tick() {
+        try {
+            sample();
+            if (frame.size() > 0) {
+                sink.accept(frame);
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the fixed-rate schedule and freeze every progress column
+            Metrics.recordError("progress", e);
+            DownloadEvents.FailureEvent event = new DownloadEvents.FailureEvent();
+            if (event.shouldCommit()) {
+                event.stage = "progress";
+                event.errorClass = Metrics.errorClass(e);
+                event.message = String.valueOf(e.getMessage());
+                event.commit();
+            }
+        } finally {
+            frame.clear();
+        }
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        for (int i = slots.size() - 1; i >= 0; i--) {
+            Slot slot = slots.get(i);
+            DownloadTask task = slot.task;
+            long downloaded = task.getDownloadedBytes();
+            long wire = task.getWireBytes();
+            long total = task.getFileSize();
+            if (slot.finishing) {
+                frame.add(task, downloaded, total, 0, wire, 0, task.getElapsedMillis(), -1);
+                slots.remove(i);
+                continue;
+            }
+            slot.rate.sample(now, downloaded);
+            slot.wireRate.sample(now, wire);
+            frame.add(task, downloaded, total, slot.rate.getBytesPerSecond(), wire,
+                    slot.wireRate.getBytesPerSecond(), task.getElapsedMillis(),
+                    total > 0 ? slot.rate.getEtaMillis(total - downloaded) : -1);
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdown();
+    }
+
+    private static class Slot {
+        final DownloadTask task;
+        final RateEstimator rate = new RateEstimator(RATE_WINDOW_FRAMES, RATE_SMOOTHING);
+        final RateEstimator wireRate = new RateEstimator(RATE_WINDOW_FRAMES, RATE_SMOOTHING);
+        boolean finishing;
+
+        Slot(DownloadTask task) {
+            this.task = task;
+        }
+    }
+}
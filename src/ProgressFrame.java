@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+// One frame of progress: a sample per download, stored column by column so the dispatcher can
+// fill the same arrays every tick. Frames are reused, so a listener copies what it keeps.
+class ProgressFrame {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private DownloadTask[] tasks = new DownloadTask[INITIAL_CAPACITY];
+    private long[] downloadedBytes = new long[INITIAL_CAPACITY];
+    private long[] totalBytes = new long[INITIAL_CAPACITY];
+    private long[] bytesPerSecond = new long[INITIAL_CAPACITY];
+    // Network side of a compressed transfer; the same as the decoded columns otherwise
+    private long[] wireBytes = new long[INITIAL_CAPACITY];
+    private long[] wireBytesPerSecond = new long[INITIAL_CAPACITY];
+    private long[] elapsedMillis = new long[INITIAL_CAPACITY];
+    private long[] etaMillis = new long[INITIAL_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    DownloadTask getTask(int i) {
+        return tasks[i];
+    }
+
+    long getDownloadedBytes(int i) {
+        return downloadedBytes[i];
+    }
+
+    // -1 when the server did not report a size
+    long getTotalBytes(int i) {
+        return totalBytes[i];
+    }
+
+    long getBytesPerSecond(int i) {
+        return bytesPerSecond[i];
+    }
+
+    long getWireBytes(int i) {
+        return wireBytes[i];
+    }
+
+    long getWireBytesPerSecond(int i) {
+        return wireBytesPerSecond[i];
+    }
+
+    long getElapsedMillis(int i) {
+        return elapsedMillis[i];
+    }
+
+    // -1 when the size or the speed is unknown
+    long getEtaMillis(int i) {
+        return etaMillis[i];
+    }
+
+    void add(DownloadTask task, long downloaded, long total, long rate, long wire, long wireRate, long elapsed,
+            long eta) {
+        if (size == tasks.length) {
+            grow(size * 2);
+        }
+        tasks[size] = task;
+        downloadedBytes[size] = downloaded;
+        totalBytes[size] = total;
+        bytesPerSecond[size] = rate;
+        wireBytes[size] = wire;
+        wireBytesPerSecond[size] = wireRate;
+        elapsedMillis[size] = elapsed;
+        etaMillis[size] = eta;
+        size++;
+    }
+
+    // Appends every sample of another frame, e.g. one the UI has not drawn yet
+    void addAll(ProgressFrame other) {
+        if (size + other.size > tasks.length) {
+            grow(Math.max(tasks.length * 2, size + other.size));
+        }
+        System.arraycopy(other.tasks, 0, tasks, size, other.size);
+        System.arraycopy(other.downloadedBytes, 0, downloadedBytes, size, other.size);
+        System.arraycopy(other.totalBytes, 0, totalBytes, size, other.size);
+        System.arraycopy(other.bytesPerSecond, 0, bytesPerSecond, size, other.size);
+        System.arraycopy(other.wireBytes, 0, wireBytes, size, other.size);
+        System.arraycopy(other.wireBytesPerSecond, 0, wireBytesPerSecond, size, other.size);
+        System.arraycopy(other.elapsedMillis, 0, elapsedMillis, size, other.size);
+        System.arraycopy(other.etaMillis, 0, etaMillis, size, other.size);
+        size += other.size;
+    }
+
+    void clear() {
+        // Drop the task references so finished downloads can be collected
+        Arrays.fill(tasks, 0, size, null);
+        size = 0;
+    }
+
+    private void grow(int capacity) {
+        tasks = Arrays.copyOf(tasks, capacity);
+        downloadedBytes = Arrays.copyOf(downloadedBytes, capacity);
+        totalBytes = Arrays.copyOf(totalBytes, capacity);
+        bytesPerSecond = Arrays.copyOf(bytesPerSecond, capacity);
+        wireBytes = Arrays.copyOf(wireBytes, capacity);
+        wireBytesPerSecond = Arrays.copyOf(wireBytesPerSecond, capacity);
+        elapsedMillis = Arrays.copyOf(elapsedMillis, capacity);
+        etaMillis = Arrays.copyOf(etaMillis, capacity);
+    }
+}
@@ -0,0 +1,57 @@
+// Current speed of one download from its byte counter, sampled once per progress frame. A ring
+// buffer keeps the last few seconds of samples; the rate across the ring is smoothed with an
+// EWMA so a single slow frame doesn't make the speed and the ETA jump. Used by one thread only.
+class RateEstimator {
+    private final long[] times;
+    private final long[] bytes;
+    private final double alpha;
+    private int head;
+    private int count;
+    private double smoothed;
+
+    // capacity samples make up the window; alpha is the weight of the newest window rate
+    RateEstimator(int capacity, double alpha) {
+        times = new long[capacity];
+        bytes = new long[capacity];
+        this.alpha = alpha;
+    }
+
+    void reset(long nowNanos, long byteCount) {
+        head = 0;
+        count = 0;
+        smoothed = 0;
+        sample(nowNanos, byteCount);
+    }
+
+    void sample(long nowNanos, long byteCount) {
+        times[head] = nowNanos;
+        bytes[head] = byteCount;
+        head = (head + 1) % times.length;
+        if (count < times.length) {
+            count++;
+        }
+        if (count < 2) {
+            return;
+        }
+        // The oldest sample still in the ring
+        int oldest = (head - count + times.length) % times.length;
+        long elapsed = nowNanos - times[oldest];
+        if (elapsed <= 0) {
+            return;
+        }
+        double rate = Math.max(0, byteCount - bytes[oldest]) * 1_000_000_000.0 / elapsed;
+        smoothed = count == 2 ? rate : smoothed + alpha * (rate - smoothed);
+    }
+
+    long getBytesPerSecond() {
+        return (long) smoothed;
+    }
+
+    // -1 while there is no speed to extrapolate from
+    long getEtaMillis(long remainingBytes) {
+        if (smoothed < 1 || remainingBytes < 0) {
+            return -1;
+        }
+        return (long) (remainingBytes * 1000 / smoothed);
+    }
+}
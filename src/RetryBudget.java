@@ -0,0 +1,53 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Retries as a token bucket: each retry spends a token, and bytes that arrive earn tokens back.
+// A download that keeps moving can retry indefinitely, while one that only fails runs out after
+// a few attempts instead of hammering the origin. Host budgets are shared by every download from
+// that host and also refill with time, so an origin that was down gets tried again later.
+class RetryBudget {
+    static final double DOWNLOAD_CAPACITY = 20;
+    static final double HOST_CAPACITY = 60;
+    // Every MB delivered pays for one more retry
+    static final long BYTES_PER_TOKEN = 1024 * 1024;
+    static final double HOST_TOKENS_PER_SECOND = 0.5;
+    private static final Map<String, RetryBudget> HOSTS = new ConcurrentHashMap<>();
+
+    private final double capacity;
+    private final double tokensPerSecond;
+    // Guarded by this
+    private double tokens;
+    private long refilledNanos = System.nanoTime();
+
+    RetryBudget(double capacity, double tokensPerSecond) {
+        this.capacity = capacity;
+        this.tokensPerSecond = tokensPerSecond;
+        this.tokens = capacity;
+    }
+
+    static RetryBudget forDownload() {
+        return new RetryBudget(DOWNLOAD_CAPACITY, 0);
+    }
+
+    static RetryBudget forHost(String host) {
+        return HOSTS.computeIfAbsent(String.valueOf(host), h -> new RetryBudget(HOST_CAPACITY, HOST_TOKENS_PER_SECOND));
+    }
+
+    synchronized void deposit(long bytes) {
+        if (bytes > 0) {
+            tokens = Math.min(capacity, tokens + (double) bytes / BYTES_PER_TOKEN);
+        }
+    }
+
+    // Takes one token; false when the budget is used up
+    synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + tokensPerSecond * (now - refilledNanos) / 1e9);
+        refilledNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+import java.net.URI;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// When a failed segment connection is tried again. Only errors that may go away on their own are
+// retried, each after an exponential backoff with full jitter so that the workers of a download
+// don't reconnect in lockstep; a Retry-After from the server wins over the backoff. The segment
+// itself resumes from its position, so a retry only asks for the bytes that are still missing.
+class RetryPolicy {
+    static final long BASE_DELAY_MILLIS = 250;
+    static final long MAX_DELAY_MILLIS = 30_000;
+    // A server asking for longer than this is as good as down
+    static final long MAX_RETRY_AFTER_MILLIS = 120_000;
+    // Failures in a row without a single new byte before the segment is given up
+    static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 6;
+
+    private final RetryBudget download = RetryBudget.forDownload();
+
+    // Bytes one connection delivered; they pay for later retries of the download and its host
+    void recordProgress(String url, long bytes) {
+        download.deposit(bytes);
+        RetryBudget.forHost(host(url)).deposit(bytes);
+    }
+
+    // Milliseconds to wait before the segment is requested from url again, or -1 when it should
+    // not be. failures counts the attempts in a row that made no progress, this one included. A
+    // stalled connection has already waited out the stall timeout and reconnects at once.
+    long delayBeforeRetry(String url, Throwable error, boolean stalled, int failures) {
+        ErrorClass errorClass = stalled ? ErrorClass.TIMEOUT : ErrorClass.of(error);
+        if (!errorClass.retryable || failures > MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+            return -1;
+        }
+        if (!download.tryAcquire()) {
+            Metrics.recordRetryBudgetExhausted("download");
+            return -1;
+        }
+        if (!RetryBudget.forHost(host(url)).tryAcquire()) {
+            Metrics.recordRetryBudgetExhausted("host");
+            return -1;
+        }
+        if (stalled) {
+            return 0;
+        }
+        long retryAfter = error instanceof HttpStatusException ? ((HttpStatusException) error).getRetryAfterMillis() : -1;
+        if (retryAfter > MAX_RETRY_AFTER_MILLIS) {
+            return -1;
+        }
+        return retryAfter >= 0 ? retryAfter : backoffMillis(failures);
+    }
+
+    // Full jitter: anywhere between 0 and the exponential ceiling of the attempt
+    static long backoffMillis(int attempt) {
+        long ceiling = BASE_DELAY_MILLIS << Math.min(Math.max(attempt - 1, 0), 20);
+        return ThreadLocalRandom.current().nextLong(Math.min(ceiling, MAX_DELAY_MILLIS) + 1);
+    }
+
+    // Retry-After is either delta-seconds or an HTTP-date; -1 when missing or unreadable
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value)) * 1000;
+        } catch (NumberFormatException e) {
+            // An HTTP-date then
+        }
+        try {
+            long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, at - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            return String.valueOf(URI.create(url).getHost());
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// One contiguous byte range of a download. The owning worker advances the position while
+// other workers may shrink the end when they steal the upper half, so both sides go
+// through the segment's monitor.
+class Segment {
+    enum State {
+        PENDING,
+        ACTIVE,
+        ORPHANED,
+        DONE
+    }
+
+    private final int index;
+    private final long startPos;
+    private long position;
+    private long endPos;
+    private volatile long persistedPos;
+    private State state = State.PENDING;
+    private long connectedNanos;
+    private long connectedPosition;
+    private volatile long lastProgressNanos;
+    // Set while the worker waits on the rate limiter, the disk writer or the buffer pool
+    private volatile boolean waitingLocally;
+    private volatile Closeable connection;
+    private volatile boolean aborted;
+    // Bytes claimed since the segment was created; summed for progress without taking the monitor
+    private final ByteCounter received = new ByteCounter();
+
+    Segment(int index, long startPos, long endPos) {
+        this.index = index;
+        this.startPos = startPos;
+        this.position = startPos;
+        this.persistedPos = startPos;
+        this.endPos = endPos;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    long getStartPos() {
+        return startPos;
+    }
+
+    synchronized long getPosition() {
+        return position;
+    }
+
+    // Everything in [startPos, persistedPos) has been handed to the storage layer
+    long getPersistedPos() {
+        return persistedPos;
+    }
+
+    void markPersisted(long position) {
+        persistedPos = position;
+    }
+
+    synchronized long getEndPos() {
+        return endPos;
+    }
+
+    synchronized long getRemaining() {
+        return endPos - position + 1;
+    }
+
+    synchronized boolean isComplete() {
+        return position > endPos;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    // Called by the worker right before it opens a connection for this segment
+    synchronized void start(Closeable connection) {
+        this.connection = connection;
+        this.aborted = false;
+        state = State.ACTIVE;
+        connectedNanos = System.nanoTime();
+        connectedPosition = position;
+        lastProgressNanos = connectedNanos;
+    }
+
+    // Reserves up to bytesRead bytes at the current position and returns how many still belong to this segment
+    synchronized int claim(int bytesRead) {
+        long allowed = Math.min(bytesRead, endPos - position + 1);
+        if (allowed <= 0) {
+            return 0;
+        }
+        position += allowed;
+        received.add(allowed);
+        lastProgressNanos = System.nanoTime();
+        if (position > endPos) {
+            state = State.DONE;
+        }
+        return (int) allowed;
+    }
+
+    synchronized void release(boolean failed) {
+        connection = null;
+        if (position > endPos) {
+            state = State.DONE;
+        } else if (failed) {
+            state = State.ORPHANED;
+        }
+    }
+
+    // Hands the upper half of the remaining range to a new segment, or returns null if it is too small to split
+    synchronized Segment split(int newIndex, long minSplitSize) {
+        long remaining = endPos - position + 1;
+        if (state == State.DONE || remaining < minSplitSize * 2) {
+            return null;
+        }
+        long mid = position + remaining / 2;
+        Segment upper = new Segment(newIndex, mid, endPos);
+        endPos = mid - 1;
+        return upper;
+    }
+
+    long getReceivedBytes() {
+        return received.get();
+    }
+
+    synchronized long getBytesPerSecond() {
+        long elapsed = System.nanoTime() - connectedNanos;
+        if (state != State.ACTIVE || elapsed <= 0) {
+            return 0;
+        }
+        return (position - connectedPosition) * 1_000_000_000L / elapsed;
+    }
+
+    // Stalled means the socket delivered nothing; time the worker spends waiting on local
+    // backpressure doesn't count
+    boolean isStalled(long now, long timeoutNanos) {
+        return connection != null && !waitingLocally && now - lastProgressNanos > timeoutNanos;
+    }
+
+    // Stops the stall clock until endLocalWait(), which restarts it from zero
+    void beginLocalWait() {
+        waitingLocally = true;
+    }
+
+    void endLocalWait() {
+        lastProgressNanos = System.nanoTime();
+        waitingLocally = false;
+    }
+
+    // Drops the connection of a stalled segment; the worker sees the failure and reopens from the current position
+    void abort() {
+        Closeable current = connection;
+        if (current != null) {
+            aborted = true;
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Connection is going away either way
+            }
+        }
+    }
+
+    boolean consumeAbort() {
+        boolean wasAborted = aborted;
+        aborted = false;
+        return wasAborted;
+    }
+
+    synchronized Snapshot snapshot() {
+        return new Snapshot(index, startPos, position, endPos, state, getBytesPerSecond());
+    }
+
+    static class Snapshot {
+        final int index;
+        final long startPos;
+        final long position;
+        final long endPos;
+        final State state;
+        final long bytesPerSecond;
+
+        Snapshot(int index, long startPos, long position, long endPos, State state, long bytesPerSecond) {
+            this.index = index;
+            this.startPos = startPos;
+            this.position = position;
+            this.endPos = endPos;
+            this.state = state;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Crash-safe record of which byte ranges of a download are already on disk. It lives next
+// to the target file, starts with the remote file's identity (URL, size and validator) and
+// then only ever gets "+ start end" lines appended, one per range flushed at a checkpoint.
+class SegmentJournal implements Closeable {
+    static final String SUFFIX = ".dmj";
+    private static final String MAGIC = "DMJ1";
+
+    private final File file;
+    private final long fileSize;
+    private final String validator;
+    private final TreeMap<Long, Long> completed = new TreeMap<>();
+    private final StringBuilder pending = new StringBuilder();
+    private FileChannel channel;
+
+    private SegmentJournal(File file, long fileSize, String validator) {
+        this.file = file;
+        this.fileSize = fileSize;
+        this.validator = validator;
+    }
+
+    static File journalFile(File target) {
+        return new File(target.getParent(), target.getName() + SUFFIX);
+    }
+
+    // Opens the journal for the target, keeping earlier progress only if it describes the same remote file
+    static SegmentJournal open(File target, String url, long fileSize, String validator) throws IOException {
+        File file = journalFile(target);
+        SegmentJournal journal = new SegmentJournal(file, fileSize, validator);
+        if (file.exists() && target.exists() && target.length() == fileSize) {
+            journal.load(url);
+        }
+        journal.rewrite(url);
+        return journal;
+    }
+
+    private void load(String url) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            if (!MAGIC.equals(reader.readLine())
+                    || !url.equals(reader.readLine())
+                    || !String.valueOf(fileSize).equals(reader.readLine())
+                    || !validator.equals(reader.readLine())) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                // A torn last line from a crash is simply ignored. Cut inside its end offset it may
+                // still parse, as a shorter range or one that ends before it starts.
+                if (parts.length == 3 && "+".equals(parts[0])) {
+                    try {
+                        long start = Long.parseLong(parts[1]);
+                        long end = Long.parseLong(parts[2]);
+                        if (start < 0 || end <= start || end > fileSize) {
+                            break;
+                        }
+                        add(start, end);
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            completed.clear();
+        }
+    }
+
+    // Starts a fresh, compacted journal: header plus one line per merged range
+    private void rewrite(String url) throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append(MAGIC).append('\n')
+                .append(url).append('\n')
+                .append(fileSize).append('\n')
+                .append(validator).append('\n');
+        for (Map.Entry<Long, Long> range : completed.entrySet()) {
+            content.append("+ ").append(range.getKey()).append(' ').append(range.getValue()).append('\n');
+        }
+
+        File temp = new File(file.getParent(), file.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Ranges are [start, end) in bytes
+    synchronized void record(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+        Map.Entry<Long, Long> covering = completed.floorEntry(start);
+        if (covering != null && covering.getValue() >= end) {
+            return;
+        }
+        add(start, end);
+        pending.append("+ ").append(start).append(' ').append(end).append('\n');
+    }
+
+    private void add(long start, long end) {
+        Map.Entry<Long, Long> before = completed.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> after;
+        while ((after = completed.ceilingEntry(start)) != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            completed.remove(after.getKey());
+        }
+        completed.put(start, end);
+    }
+
+    // Appends everything recorded since the last checkpoint; the caller must have forced the data first
+    synchronized void checkpoint() throws IOException {
+        if (pending.length() == 0 || channel == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        pending.setLength(0);
+    }
+
+    synchronized long getCompletedBytes() {
+        long total = 0;
+        for (Map.Entry<Long, Long> range : completed.entrySet()) {
+            total += range.getValue() - range.getKey();
+        }
+        return total;
+    }
+
+    // Every byte before the returned offset is on disk; a single connection resumes from there
+    synchronized long getPrefixEnd() {
+        Map.Entry<Long, Long> first = completed.firstEntry();
+        return first != null && first.getKey() == 0 ? first.getValue() : 0;
+    }
+
+    // Ranges still to fetch as {start, endInclusive}
+    synchronized List<long[]> getMissingRanges() {
+        List<long[]> missing = new ArrayList<>();
+        long cursor = 0;
+        for (Map.Entry<Long, Long> range : completed.entrySet()) {
+            if (range.getKey() > cursor) {
+                missing.add(new long[] { cursor, range.getKey() - 1 });
+            }
+            cursor = Math.max(cursor, range.getValue());
+        }
+        if (cursor < fileSize) {
+            missing.add(new long[] { cursor, fileSize - 1 });
+        }
+        return missing;
+    }
+
+    String getValidator() {
+        return validator;
+    }
+
+    synchronized void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Deleting anyway
+        }
+        file.delete();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
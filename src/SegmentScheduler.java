@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Hands out byte ranges to the download workers. The file starts out cut into equal
+// segments; a worker that runs out of work adopts a segment whose worker failed, or
+// otherwise takes the upper half of the segment that is expected to finish last.
+class SegmentScheduler {
+    static final long DEFAULT_MIN_SPLIT_SIZE = 512 * 1024;
+
+    private final List<Segment> segments = new ArrayList<>();
+    // Copy of segments for the progress readers, replaced whenever a segment is added
+    private volatile Segment[] published = new Segment[0];
+    // Bytes of re-queued ranges, counted once by the original segment and again by the new one
+    private volatile long discardedBytes;
+    private final long minSplitSize;
+
+    SegmentScheduler(long fileSize, int segmentCount, long minSplitSize) {
+        this.minSplitSize = minSplitSize;
+        long chunkSize = fileSize / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            long startPos = i * chunkSize;
+            long endPos = (i == segmentCount - 1) ? fileSize - 1 : (startPos + chunkSize - 1);
+            segments.add(new Segment(i, startPos, endPos));
+        }
+        publish();
+    }
+
+    // Builds the segment map for a resumed download from the ranges that are still missing.
+    // Each range is {start, endInclusive}; large ranges are cut further until segmentCount is reached.
+    SegmentScheduler(List<long[]> missingRanges, int segmentCount, long minSplitSize) {
+        this.minSplitSize = minSplitSize;
+        List<long[]> ranges = new ArrayList<>();
+        for (long[] range : missingRanges) {
+            ranges.add(new long[] { range[0], range[1] });
+        }
+
+        while (ranges.size() < segmentCount) {
+            long[] largest = null;
+            for (long[] range : ranges) {
+                if (largest == null || range[1] - range[0] > largest[1] - largest[0]) {
+                    largest = range;
+                }
+            }
+            if (largest == null || largest[1] - largest[0] + 1 < minSplitSize * 2) {
+                break;
+            }
+            long mid = largest[0] + (largest[1] - largest[0] + 1) / 2;
+            ranges.add(new long[] { mid, largest[1] });
+            largest[1] = mid - 1;
+        }
+
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (long[] range : ranges) {
+            segments.add(new Segment(segments.size(), range[0], range[1]));
+        }
+        publish();
+    }
+
+    private void publish() {
+        published = segments.toArray(new Segment[0]);
+    }
+
+    // Bytes fetched by all workers so far; sums the per-segment counters without locking
+    long getReceivedBytes() {
+        long total = 0;
+        for (Segment segment : published) {
+            total += segment.getReceivedBytes();
+        }
+        return total - discardedBytes;
+    }
+
+    // Queues a range that was fetched already but failed verification, to be fetched again
+    synchronized void requeue(long startPos, long endPos) {
+        segments.add(new Segment(segments.size(), startPos, endPos));
+        discardedBytes += endPos - startPos + 1;
+        publish();
+    }
+
+    synchronized boolean hasUnclaimed() {
+        for (Segment segment : segments) {
+            Segment.State state = segment.getState();
+            if (state == Segment.State.ORPHANED || state == Segment.State.PENDING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Everything before the returned offset is on disk: the lowest persisted position of any
+    // segment that still has bytes to write, or Long.MAX_VALUE once all of them are written.
+    // Ranges outside every segment were completed by an earlier run.
+    synchronized long getPersistedFrontier() {
+        long frontier = Long.MAX_VALUE;
+        for (Segment segment : segments) {
+            long persisted = segment.getPersistedPos();
+            if (persisted <= segment.getEndPos()) {
+                frontier = Math.min(frontier, persisted);
+            }
+        }
+        return frontier;
+    }
+
+    // Whether every byte of [startPos, endPos] is on disk
+    synchronized boolean isPersisted(long startPos, long endPos) {
+        for (Segment segment : segments) {
+            long segmentEnd = segment.getEndPos();
+            if (segment.getStartPos() > endPos || segmentEnd < startPos) {
+                continue;
+            }
+            if (segment.getPersistedPos() <= Math.min(endPos, segmentEnd)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized List<Segment> getSegments() {
+        return new ArrayList<>(segments);
+    }
+
+    // Returns the next segment for an idle worker, or null when nothing is left worth splitting
+    synchronized Segment next() {
+        // Ranges nobody is working on come first: left by a failed worker or never started
+        for (Segment segment : segments) {
+            Segment.State state = segment.getState();
+            if (state == Segment.State.ORPHANED || state == Segment.State.PENDING) {
+                segment.start(null);
+                return segment;
+            }
+        }
+
+        Segment slowest = null;
+        double slowestEta = -1;
+        for (Segment segment : segments) {
+            if (segment.getState() != Segment.State.ACTIVE) {
+                continue;
+            }
+            long remaining = segment.getRemaining();
+            if (remaining < minSplitSize * 2) {
+                continue;
+            }
+            // A segment with no measured rate yet is treated as the slowest of all
+            double eta = remaining / (double) Math.max(segment.getBytesPerSecond(), 1);
+            if (eta > slowestEta) {
+                slowestEta = eta;
+                slowest = segment;
+            }
+        }
+
+        if (slowest == null) {
+            return null;
+        }
+        Segment upper = slowest.split(segments.size(), minSplitSize);
+        if (upper != null) {
+            // Claimed before it becomes visible, or the next idle worker would take it as PENDING too
+            upper.start(null);
+            segments.add(upper);
+            publish();
+        }
+        return upper;
+    }
+
+    // Drops connections that have not delivered a byte within the timeout so their workers reconnect
+    int abortStalled(long timeoutNanos) {
+        long now = System.nanoTime();
+        int aborted = 0;
+        for (Segment segment : getSegments()) {
+            if (segment.isStalled(now, timeoutNanos)) {
+                segment.abort();
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+
+    // Pause and cancel drop every open connection so the workers return right away
+    void abortAll() {
+        for (Segment segment : getSegments()) {
+            segment.abort();
+        }
+    }
+
+    synchronized boolean isComplete() {
+        for (Segment segment : segments) {
+            if (!segment.isComplete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized List<Segment.Snapshot> snapshot() {
+        List<Segment.Snapshot> snapshots = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            snapshots.add(segment.snapshot());
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,6 @@
+enum StorageMode {
+    // Segments write at their own offset into the final file, no merge step
+    PREALLOCATED,
+    // Legacy layout: one .partN file per segment, concatenated when all segments finish
+    PART_FILES
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+// Hashes a download while it streams through a single connection: the whole-file digest, and each
+// piece as soon as it is complete, so a corrupt piece fails the download without waiting for the rest.
+// Without range support a piece can't be fetched again on its own.
+class StreamVerifier {
+    private final Checksum checksum;
+    private final MessageDigest digest;
+    private final PieceChecksums pieces;
+    private MessageDigest pieceDigest;
+    private int piece;
+    private long pieceRemaining;
+    private long position;
+
+    // Either argument may be null
+    StreamVerifier(Checksum checksum, PieceChecksums pieces) {
+        this.checksum = checksum;
+        this.digest = checksum != null ? checksum.newDigest() : null;
+        this.pieces = pieces;
+        if (pieces != null) {
+            pieceDigest = pieces.newDigest();
+            pieceRemaining = pieces.getPieceSize();
+        }
+    }
+
+    // Consumes the remaining bytes of data
+    void update(ByteBuffer data) throws IOException {
+        if (digest != null) {
+            digest.update(data.duplicate());
+        }
+        if (pieces == null) {
+            position += data.remaining();
+            data.position(data.limit());
+            return;
+        }
+        while (data.hasRemaining()) {
+            int length = (int) Math.min(data.remaining(), pieceRemaining);
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + length);
+            pieceDigest.update(slice);
+            data.position(data.position() + length);
+            position += length;
+            pieceRemaining -= length;
+            if (pieceRemaining == 0) {
+                checkPiece();
+            }
+        }
+    }
+
+    private void checkPiece() throws IOException {
+        if (piece >= pieces.getPieceCount()) {
+            throw new IOException("File is longer than its " + pieces.getPieceCount() + " piece checksums");
+        }
+        if (!pieces.matches(piece, pieceDigest.digest())) {
+            throw new IOException("Checksum mismatch: piece " + piece + " is corrupt");
+        }
+        piece++;
+        pieceRemaining = pieces.getPieceSize();
+    }
+
+    // Called after the last byte; throws if the file doesn't match
+    void finish() throws IOException {
+        if (pieces != null) {
+            // The last piece is usually shorter than the others
+            if (pieceRemaining < pieces.getPieceSize()) {
+                checkPiece();
+            }
+            if (!pieces.fits(position)) {
+                throw new IOException(pieces.getPieceCount() + " piece checksums do not describe a file of "
+                        + position + " bytes");
+            }
+        }
+        if (digest != null) {
+            checkDigest(checksum, digest.digest());
+        }
+    }
+
+    static void checkDigest(Checksum checksum, byte[] actual) throws IOException {
+        if (!checksum.matches(actual)) {
+            throw new IOException("Checksum mismatch: expected " + checksum + ", got "
+                    + Checksum.format(checksum.getAlgorithm(), actual));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+// When downloaded data is forced from the page cache to the device. Forcing costs a full
+// round trip to the disk, so it trades throughput against how much a power cut can lose.
+enum SyncPolicy {
+    // Not forced while the download runs; the OS writes back in its own time. The journal is only
+    // written, after one force, when a run ends, so a crash or power cut loses that run's progress.
+    NONE,
+    // Forced right before each journal checkpoint, so the journal never gets ahead of the file
+    CHECKPOINT,
+    // Forced after every coalesced write, before the bytes count as persisted
+    WRITE;
+
+    // -Ddm.fsync=none|checkpoint|write, checkpoint by default
+    static final String PROPERTY = "dm.fsync";
+
+    static SyncPolicy current() {
+        String value = System.getProperty(PROPERTY);
+        for (SyncPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        return CHECKPOINT;
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Structured lifetime for the workers of one download. Every child is forked into the scope,
+// shutdown() runs the registered hooks that abort their connections, and close() does not
+// return until every child has ended, so no worker outlives the download that started it.
+class TaskScope implements AutoCloseable {
+    private static final long CLOSE_TIMEOUT_MS = 30_000;
+
+    private final ThreadFactory threadFactory;
+    private final Set<Thread> children = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> shutdownHooks = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private final Condition stopped = lock.newCondition();
+    private boolean shutdown;
+
+    TaskScope(String name, ExecutionMode mode) {
+        this.threadFactory = mode.threadFactory(name);
+    }
+
+    // Starts the task as a child; returns false once the scope is shutting down
+    boolean fork(Runnable task) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                return false;
+            }
+            Thread thread = threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    childFinished();
+                }
+            });
+            children.add(thread);
+            thread.start();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void childFinished() {
+        lock.lock();
+        try {
+            children.remove(Thread.currentThread());
+            if (children.isEmpty()) {
+                idle.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Hooks run once, on the thread that calls shutdown(); they must not block
+    void onShutdown(Runnable hook) {
+        boolean runNow;
+        lock.lock();
+        try {
+            runNow = shutdown;
+            if (!runNow) {
+                shutdownHooks.add(hook);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (runNow) {
+            hook.run();
+        }
+    }
+
+    // Waits for all children to end; returns false if some are still running after the timeout
+    boolean join(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!children.isEmpty()) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = idle.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void shutdown() {
+        List<Runnable> hooks;
+        lock.lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            stopped.signalAll();
+            hooks = new ArrayList<>(shutdownHooks);
+            shutdownHooks.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+    }
+
+    // A child's backoff: sleeps for the timeout unless the scope shuts down first, and returns
+    // whether it did
+    boolean awaitShutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!shutdown && remaining > 0) {
+                remaining = stopped.awaitNanos(remaining);
+            }
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isShutdown() {
+        lock.lock();
+        try {
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Shuts down and waits for every child. Interrupting is the last resort: an interrupted
+    // FileChannel write closes the channel for every worker of the download.
+    void shutdownAndJoin() throws InterruptedException {
+        shutdown();
+        if (!join(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            for (Thread child : children) {
+                child.interrupt();
+            }
+            join(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            shutdownAndJoin();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+
+// The original transport: a new HttpURLConnection per request, kept as the fallback when the
+// HttpClient path cannot talk to a server.
+class UrlConnectionTransport implements HttpTransport {
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final int READ_TIMEOUT_MS = 60_000;
+    private static final UrlConnectionTransport SHARED = new UrlConnectionTransport();
+
+    static UrlConnectionTransport shared() {
+        return SHARED;
+    }
+
+    @Override
+    public HttpTransport.Response head(String url, Map<String, String> headers) throws IOException {
+        return open(url, "HEAD", headers);
+    }
+
+    @Override
+    public HttpTransport.Response get(String url, Map<String, String> headers) throws IOException {
+        return open(url, "GET", headers);
+    }
+
+    private HttpTransport.Response open(String url, String method, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) java.net.URI.create(url).toURL().openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        try {
+            connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return new Response(connection);
+    }
+
+    private static class Response implements HttpTransport.Response {
+        private final HttpURLConnection connection;
+        private InputStream body;
+
+        Response(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int getStatusCode() {
+            try {
+                return connection.getResponseCode();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public synchronized ReadableByteChannel getBody() throws IOException {
+            if (body == null) {
+                body = connection.getInputStream();
+            }
+            return Channels.newChannel(body);
+        }
+
+        @Override
+        public void abort() {
+            connection.disconnect();
+        }
+
+        // Closing the stream rather than disconnecting lets a fully read connection go back to the keep-alive cache
+        @Override
+        public synchronized void close() throws IOException {
+            if (body != null) {
+                body.close();
+            } else {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Objects;
+
+// The few JUnit-style assertions the tests need; a failure is an AssertionError for TestRunner
+final class Assertions {
+    private Assertions() {
+    }
+
+    interface Executable {
+        void execute() throws Exception;
+    }
+
+    static void assertEquals(Object expected, Object actual) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError("expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    static void assertEquals(long expected, long actual) {
+        if (expected != actual) {
+            throw new AssertionError("expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    static void assertArrayEquals(byte[] expected, byte[] actual) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError("expected " + Arrays.toString(expected) + " but was " + Arrays.toString(actual));
+        }
+    }
+
+    static void assertTrue(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static void assertFalse(boolean condition, String message) {
+        assertTrue(!condition, message);
+    }
+
+    static void assertNull(Object actual) {
+        if (actual != null) {
+            throw new AssertionError("expected null but was <" + actual + ">");
+        }
+    }
+
+    static void assertNotNull(Object actual) {
+        if (actual == null) {
+            throw new AssertionError("expected a value but was null");
+        }
+    }
+
+    static <T extends Throwable> T assertThrows(Class<T> expected, Executable executable) {
+        try {
+            executable.execute();
+        } catch (Throwable e) {
+            if (expected.isInstance(e)) {
+                return expected.cast(e);
+            }
+            throw new AssertionError("expected " + expected.getSimpleName() + " but got " + e, e);
+        }
+        throw new AssertionError("expected " + expected.getSimpleName() + " but nothing was thrown");
+    }
+
+    // A fresh directory under the system temp directory
+    static File newTempDir() throws IOException {
+        return Files.createTempDirectory("dm-test").toFile();
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+class BandwidthLimiterTest {
+    private static final long LIMIT = 400_000;
+    private static final int READ = 8192;
+
+    void testBusySharesSplitTheCapByWeight() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setBytesPerSecond(LIMIT);
+        AtomicLong high = new AtomicLong();
+        AtomicLong low = new AtomicLong();
+        Thread a = reader(limiter.register(BandwidthLimiter.WEIGHT_HIGH), high);
+        Thread b = reader(limiter.register(BandwidthLimiter.WEIGHT_LOW), low);
+        // The burst a fresh limiter allows goes to whoever asks first
+        Thread.sleep(500);
+        long highBefore = high.get();
+        long lowBefore = low.get();
+        Thread.sleep(1500);
+        long highRead = high.get() - highBefore;
+        long lowRead = low.get() - lowBefore;
+        a.interrupt();
+        b.interrupt();
+        a.join();
+        b.join();
+        double ratio = (double) highRead / lowRead;
+        Assertions.assertTrue(ratio > 2.5 && ratio < 6, "high/low ratio " + ratio);
+        long total = highRead + lowRead;
+        Assertions.assertTrue(total > LIMIT && total < LIMIT * 2, total + " bytes in 1.5 s");
+    }
+
+    void testIdleShareLeavesItsPartToTheOthers() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setBytesPerSecond(LIMIT);
+        limiter.register(BandwidthLimiter.WEIGHT_HIGH);
+        AtomicLong low = new AtomicLong();
+        Thread reader = reader(limiter.register(BandwidthLimiter.WEIGHT_LOW), low);
+        Thread.sleep(1500);
+        reader.interrupt();
+        reader.join();
+        Assertions.assertTrue(low.get() > LIMIT, low.get() + " bytes in 1.5 s");
+    }
+
+    void testRaisingTheCapWakesAWaitingRead() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setBytesPerSecond(1000);
+        BandwidthLimiter.Share share = limiter.register(BandwidthLimiter.WEIGHT_NORMAL);
+        // An hour of debt at 1000 B/s
+        share.acquire(3_600_000);
+        CompletableFuture<Void> waiting = acquireAsync(share, 1);
+        Assertions.assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+        limiter.setBytesPerSecond(1_000_000_000);
+        waiting.get(5, TimeUnit.SECONDS);
+    }
+
+    void testRemovingTheCapWakesAWaitingRead() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setBytesPerSecond(1000);
+        BandwidthLimiter.Share share = limiter.register(BandwidthLimiter.WEIGHT_NORMAL);
+        share.acquire(3_600_000);
+        CompletableFuture<Void> waiting = acquireAsync(share, 1);
+        Assertions.assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+        limiter.setBytesPerSecond(0);
+        waiting.get(5, TimeUnit.SECONDS);
+        // The debt is gone with the cap
+        limiter.setBytesPerSecond(1000);
+        acquireAsync(share, 1).get(5, TimeUnit.SECONDS);
+    }
+
+    void testClosingAShareWakesItsWaitingRead() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setBytesPerSecond(1000);
+        BandwidthLimiter.Share share = limiter.register(BandwidthLimiter.WEIGHT_NORMAL);
+        share.acquire(3_600_000);
+        CompletableFuture<Void> waiting = acquireAsync(share, 1);
+        Assertions.assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+        share.close();
+        waiting.get(5, TimeUnit.SECONDS);
+    }
+
+    private static CompletableFuture<Void> acquireAsync(BandwidthLimiter.Share share, long bytes) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                share.acquire(bytes);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static Thread reader(BandwidthLimiter.Share share, AtomicLong read) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    share.acquire(READ);
+                    read.addAndGet(READ);
+                }
+            } catch (InterruptedException e) {
+                // Done
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,71 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class BufferPoolTest {
+    private static final int SIZE = 1024;
+
+    void testReleasedBuffersAreReused() throws Exception {
+        BufferPool pool = new BufferPool(SIZE, 4 * SIZE);
+        ByteBuffer first = pool.acquire();
+        Assertions.assertTrue(first.isDirect(), "heap buffer");
+        Assertions.assertEquals(SIZE, first.capacity());
+        first.put((byte) 1);
+        pool.release(first);
+        ByteBuffer second = pool.acquire();
+        Assertions.assertTrue(first == second, "allocated a new buffer");
+        Assertions.assertEquals(0, second.position());
+    }
+
+    void testAcquireWaitsWhileTheBudgetIsUsedUp() throws Exception {
+        BufferPool pool = new BufferPool(SIZE, 2 * SIZE);
+        ByteBuffer a = pool.acquire();
+        pool.acquire();
+        CompletableFuture<ByteBuffer> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Assertions.assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+        pool.release(a);
+        Assertions.assertTrue(waiting.get(5, TimeUnit.SECONDS) == a, "didn't get the released buffer");
+        BufferPool.Stats stats = pool.getStats();
+        Assertions.assertEquals(1, stats.stalls);
+        Assertions.assertEquals(2 * SIZE, stats.leasedBytes);
+        Assertions.assertEquals(2 * SIZE, stats.peakLeasedBytes);
+    }
+
+    void testForeignBuffersAreNotTakenIn() throws Exception {
+        BufferPool pool = new BufferPool(SIZE, 2 * SIZE);
+        pool.release(ByteBuffer.allocate(SIZE));
+        pool.release(ByteBuffer.allocateDirect(SIZE * 2));
+        pool.release(null);
+        Assertions.assertEquals(0, pool.getStats().leasedBytes);
+        Assertions.assertEquals(0, pool.getStats().pooledBytes);
+    }
+
+    void testLoweredBudgetDropsPooledBuffers() throws Exception {
+        BufferPool pool = new BufferPool(SIZE, 4 * SIZE);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        ByteBuffer c = pool.acquire();
+        pool.release(a);
+        pool.release(b);
+        pool.setBudgetBytes(2 * SIZE);
+        BufferPool.Stats stats = pool.getStats();
+        Assertions.assertEquals(SIZE, stats.leasedBytes);
+        Assertions.assertEquals(SIZE, stats.pooledBytes);
+        // Two buffers fit the lowered budget again once nothing is leased
+        pool.release(c);
+        Assertions.assertEquals(2 * SIZE, pool.getStats().pooledBytes);
+    }
+
+    void testBudgetIsAtLeastOneBuffer() throws Exception {
+        BufferPool pool = new BufferPool(SIZE, 1);
+        Assertions.assertEquals(SIZE, pool.getStats().budgetBytes);
+        pool.release(pool.acquire());
+    }
+}
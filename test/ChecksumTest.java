@@ -0,0 +1,110 @@
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+class ChecksumTest {
+    private static final byte[] DATA = "hello\n".getBytes(StandardCharsets.UTF_8);
+
+    private static byte[] digest(String algorithm) throws Exception {
+        return MessageDigest.getInstance(algorithm).digest(DATA);
+    }
+
+    private static String hex(String algorithm) throws Exception {
+        return HexFormat.of().formatHex(digest(algorithm));
+    }
+
+    void testParsesAlgorithmPrefix() throws Exception {
+        Checksum checksum = Checksum.parse("SHA256:" + hex("SHA-256"));
+        Assertions.assertEquals("SHA-256", checksum.getAlgorithm());
+        Assertions.assertTrue(checksum.matches(digest("SHA-256")), "digest differs");
+        Assertions.assertEquals("sha256:" + hex("SHA-256"), checksum.toString());
+    }
+
+    void testBareHexLengthPicksTheAlgorithm() throws Exception {
+        Assertions.assertEquals("MD5", Checksum.parse(hex("MD5")).getAlgorithm());
+        Assertions.assertEquals("SHA-1", Checksum.parse(hex("SHA-1")).getAlgorithm());
+        Assertions.assertEquals("SHA-512", Checksum.parse(" " + hex("SHA-512") + " ").getAlgorithm());
+    }
+
+    void testRejectsUnknownAlgorithmsAndWrongLengths() throws Exception {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Checksum.parse("crc32:1234abcd"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Checksum.parse("abc"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Checksum.parse("sha256:" + hex("MD5")));
+    }
+
+    void testSidecarPicksTheLineForTheFile() throws Exception {
+        String other = "0".repeat(64);
+        String sidecar = "# checksums\n" + other + "  other.iso\n" + hex("SHA-256") + " *file.iso\n";
+        Checksum checksum = Checksum.fromSidecar(sidecar, "file.iso");
+        Assertions.assertTrue(checksum.matches(digest("SHA-256")), "took the wrong line");
+    }
+
+    void testSidecarFallsBackToTheFirstDigest() throws Exception {
+        Checksum checksum = Checksum.fromSidecar(hex("SHA-1") + "\r\n", "file.iso");
+        Assertions.assertEquals("SHA-1", checksum.getAlgorithm());
+        Assertions.assertNull(Checksum.fromSidecar("no digests here\n", "file.iso"));
+    }
+
+    void testHeadersYieldTheStrongestDigest() throws Exception {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Content-MD5", base64("MD5"));
+        headers.put("Digest", "SHA=" + base64("SHA-1"));
+        headers.put("Repr-Digest", "sha-256=:" + base64("SHA-256") + ":, sha-512=:" + base64("SHA-512") + ":");
+        Checksum checksum = Checksum.fromHeaders(new HeaderResponse(headers));
+        Assertions.assertEquals("SHA-512", checksum.getAlgorithm());
+        Assertions.assertTrue(checksum.matches(digest("SHA-512")), "digest differs");
+    }
+
+    void testMalformedHeadersAreIgnored() throws Exception {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Repr-Digest", "sha-256=:not base64!:");
+        headers.put("Content-MD5", base64("MD5"));
+        Assertions.assertEquals("MD5", Checksum.fromHeaders(new HeaderResponse(headers)).getAlgorithm());
+        Assertions.assertNull(Checksum.fromHeaders(new HeaderResponse(new TreeMap<>())));
+    }
+
+    private static String base64(String algorithm) throws Exception {
+        return Base64.getEncoder().encodeToString(digest(algorithm));
+    }
+
+    // Headers only, which is all fromHeaders() looks at
+    private static class HeaderResponse implements HttpTransport.Response {
+        private final Map<String, String> headers;
+
+        HeaderResponse(Map<String, String> headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return 200;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public ReadableByteChannel getBody() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,40 @@
+class ContentRangeTest {
+    void testParsesFirstLastAndTotal() {
+        ContentRange range = ContentRange.parse("bytes 100-199/1000");
+        Assertions.assertEquals(100, range.first);
+        Assertions.assertEquals(199, range.last);
+        Assertions.assertEquals(1000, range.total);
+    }
+
+    void testUnknownTotalIsMinusOne() {
+        Assertions.assertEquals(-1, ContentRange.parse("bytes 0-9/*").total);
+    }
+
+    void testUnitIsCaseInsensitiveAndSpacesAreTrimmed() {
+        ContentRange range = ContentRange.parse("Bytes  5 - 9 / 10");
+        Assertions.assertEquals(5, range.first);
+        Assertions.assertEquals(9, range.last);
+    }
+
+    void testUnsatisfiedRangeIsNull() {
+        Assertions.assertNull(ContentRange.parse("bytes */1000"));
+    }
+
+    void testMalformedHeadersAreNull() {
+        Assertions.assertNull(ContentRange.parse(null));
+        Assertions.assertNull(ContentRange.parse("items 0-9/10"));
+        Assertions.assertNull(ContentRange.parse("bytes 0-9"));
+        Assertions.assertNull(ContentRange.parse("bytes a-9/10"));
+        Assertions.assertNull(ContentRange.parse("bytes 9-0/10"));
+    }
+
+    void testLastByteMustBeInsideTheFile() {
+        Assertions.assertNull(ContentRange.parse("bytes 0-10/10"));
+        Assertions.assertNotNull(ContentRange.parse("bytes 0-9/10"));
+    }
+
+    void testToStringRoundTrips() {
+        Assertions.assertEquals("bytes 0-9/*", ContentRange.parse("bytes 0-9/*").toString());
+        Assertions.assertEquals("bytes 3-4/5", ContentRange.parse("bytes 3-4/5").toString());
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+class DownloadStoreTest {
+    void testChangesAreReplayed() throws Exception {
+        File file = new File(Assertions.newTempDir(), "history.log");
+        DownloadStore store = new DownloadStore(file, null);
+        DownloadStore.DownloadRecord kept = store.create("http://a/1", "1.bin", "/tmp", "2026-01-01", "Queued");
+        DownloadStore.DownloadRecord removed = store.create("http://a/2", "2.bin", "/tmp", "2026-01-02", "Queued");
+        store.updateStatus(kept.id, "Completed");
+        store.remove(removed.id);
+        store.close();
+
+        DownloadStore reopened = new DownloadStore(file, null);
+        List<DownloadStore.DownloadRecord> records = reopened.getAll();
+        Assertions.assertEquals(1, records.size());
+        Assertions.assertEquals("Completed", records.get(0).status);
+        Assertions.assertEquals("http://a/1", reopened.get(kept.id).url);
+        reopened.close();
+    }
+
+    void testFieldsWithTabsAndNewlinesSurvive() throws Exception {
+        File file = new File(Assertions.newTempDir(), "history.log");
+        DownloadStore store = new DownloadStore(file, null);
+        DownloadStore.DownloadRecord record = store.create("http://a/x", "a\tb\\c.bin", "/tmp", "2026", "line\nbreak");
+        store.close();
+        DownloadStore reopened = new DownloadStore(file, null);
+        Assertions.assertEquals("a\tb\\c.bin", reopened.get(record.id).fileName);
+        Assertions.assertEquals("line\nbreak", reopened.get(record.id).status);
+        reopened.close();
+    }
+
+    void testRemovedIdsAreNotHandedOutAgain() throws Exception {
+        File file = new File(Assertions.newTempDir(), "history.log");
+        DownloadStore store = new DownloadStore(file, null);
+        store.create("http://a/1", "1.bin", "/tmp", "2026", "Queued");
+        DownloadStore.DownloadRecord last = store.create("http://a/2", "2.bin", "/tmp", "2026", "Queued");
+        store.remove(last.id);
+        store.close();
+        // Opening compacts the log, which drops the removed record's lines
+        DownloadStore reopened = new DownloadStore(file, null);
+        reopened.close();
+        DownloadStore again = new DownloadStore(file, null);
+        Assertions.assertTrue(again.create("http://a/3", "3.bin", "/tmp", "2026", "Queued").id > last.id,
+                "reused a removed id");
+        again.close();
+    }
+
+    void testLogIsCompactedWhenMostLinesAreSuperseded() throws Exception {
+        File file = new File(Assertions.newTempDir(), "history.log");
+        DownloadStore store = new DownloadStore(file, null);
+        DownloadStore.DownloadRecord record = store.create("http://a/1", "1.bin", "/tmp", "2026", "0");
+        for (int i = 1; i <= 3000; i++) {
+            store.updateStatus(record.id, String.valueOf(i));
+        }
+        store.close();
+        long lines = Files.readAllLines(file.toPath()).size();
+        Assertions.assertTrue(lines < 1500, lines + " lines for one record");
+        Assertions.assertEquals("3000", new DownloadStore(file, null).get(record.id).status);
+    }
+
+    void testTornLineIsSkipped() throws Exception {
+        File file = new File(Assertions.newTempDir(), "history.log");
+        DownloadStore store = new DownloadStore(file, null);
+        DownloadStore.DownloadRecord record = store.create("http://a/1", "1.bin", "/tmp", "2026", "Queued");
+        store.close();
+        try (FileWriter out = new FileWriter(file, StandardCharsets.UTF_8, true)) {
+            out.write("P\t7\thttp://a/2\t2.b");
+        }
+        DownloadStore reopened = new DownloadStore(file, null);
+        Assertions.assertEquals(1, reopened.getAll().size());
+        Assertions.assertEquals("Queued", reopened.get(record.id).status);
+        // The torn tail is gone, so this lands on a line of its own
+        DownloadStore.DownloadRecord added = reopened.create("http://a/3", "3.bin", "/tmp", "2026", "Queued");
+        reopened.close();
+        Assertions.assertEquals("3.bin", new DownloadStore(file, null).get(added.id).fileName);
+    }
+
+    void testUnreadableLinesAreCompactedAway() throws Exception {
+        File file = new File(Assertions.newTempDir(), "history.log");
+        try (FileWriter out = new FileWriter(file, StandardCharsets.UTF_8)) {
+            out.write("N\t1\nP\t1\thttp://a/1\t1.bin\t/tmp\t2026\tQueued\nP\t\nD\tx\n");
+        }
+        DownloadStore store = new DownloadStore(file, null);
+        store.close();
+        Assertions.assertEquals(1, store.getAll().size());
+        Assertions.assertEquals(2, Files.readAllLines(file.toPath()).size());
+    }
+
+    void testLegacyPropertiesAreImportedInDateOrder() throws Exception {
+        File dir = Assertions.newTempDir();
+        File legacy = new File(dir, "downloads_history.properties");
+        Properties properties = new Properties();
+        properties.setProperty("http://a/new", "new.bin|/tmp|2026-02-01 10:00|Completed");
+        properties.setProperty("http://a/old", "old.bin|/tmp|2025-12-31 09:00|Paused");
+        properties.setProperty("http://a/broken", "no fields");
+        try (FileOutputStream out = new FileOutputStream(legacy)) {
+            properties.store(out, null);
+        }
+        File file = new File(dir, "history.log");
+        DownloadStore store = new DownloadStore(file, legacy);
+        List<DownloadStore.DownloadRecord> records = store.getAll();
+        Assertions.assertEquals(2, records.size());
+        Assertions.assertEquals("old.bin", records.get(0).fileName);
+        Assertions.assertEquals("Completed", records.get(1).status);
+        store.close();
+        Assertions.assertTrue(file.exists(), "migration wrote no log");
+        // The log wins over the properties file from now on
+        Assertions.assertEquals(2, new DownloadStore(file, legacy).getAll().size());
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+class KeyValueLogTest {
+    void testPutsAndRemovesAreReplayed() throws Exception {
+        File file = new File(Assertions.newTempDir(), "map.log");
+        KeyValueLog log = new KeyValueLog(file, null, "test map");
+        log.put("a", "1");
+        log.put("b", "2");
+        log.put("a", "3");
+        log.remove("b");
+        log.close();
+        KeyValueLog reopened = new KeyValueLog(file, null, "test map");
+        Assertions.assertEquals("3", reopened.get("a"));
+        Assertions.assertNull(reopened.get("b"));
+        Assertions.assertEquals(1, reopened.getAll().size());
+        reopened.close();
+    }
+
+    void testUnchangedValuesAppendNothing() throws Exception {
+        File file = new File(Assertions.newTempDir(), "map.log");
+        KeyValueLog log = new KeyValueLog(file, null, "test map");
+        log.put("host", "4|100|20");
+        long length = file.length();
+        log.put("host", "4|100|20");
+        log.remove("missing");
+        Assertions.assertEquals(length, file.length());
+        log.close();
+    }
+
+    void testEscapedSeparatorsSurvive() throws Exception {
+        File file = new File(Assertions.newTempDir(), "map.log");
+        KeyValueLog log = new KeyValueLog(file, null, "test map");
+        log.put("http://a/x\ty", "f\t1\t2\\n\n");
+        log.close();
+        Assertions.assertEquals("f\t1\t2\\n\n", new KeyValueLog(file, null, "test map").get("http://a/x\ty"));
+    }
+
+    void testLogIsCompactedWhenMostLinesAreSuperseded() throws Exception {
+        File file = new File(Assertions.newTempDir(), "map.log");
+        KeyValueLog log = new KeyValueLog(file, null, "test map");
+        for (int i = 0; i < 3000; i++) {
+            log.put("key", String.valueOf(i));
+        }
+        log.close();
+        long lines = Files.readAllLines(file.toPath()).size();
+        Assertions.assertTrue(lines < 1500, lines + " lines for one key");
+        Assertions.assertEquals("2999", new KeyValueLog(file, null, "test map").get("key"));
+    }
+
+    void testAppendAfterTornLineIsKept() throws Exception {
+        File file = new File(Assertions.newTempDir(), "map.log");
+        KeyValueLog log = new KeyValueLog(file, null, "test map");
+        log.put("a", "1");
+        log.close();
+        try (FileWriter out = new FileWriter(file, StandardCharsets.UTF_8, true)) {
+            out.write("P\tb\t2");
+        }
+        KeyValueLog reopened = new KeyValueLog(file, null, "test map");
+        Assertions.assertNull(reopened.get("b"));
+        reopened.put("c", "3");
+        reopened.close();
+        KeyValueLog again = new KeyValueLog(file, null, "test map");
+        Assertions.assertEquals("1", again.get("a"));
+        Assertions.assertEquals("3", again.get("c"));
+        again.close();
+    }
+
+    void testUnreadableLinesAreCompactedAway() throws Exception {
+        File file = new File(Assertions.newTempDir(), "map.log");
+        try (FileWriter out = new FileWriter(file, StandardCharsets.UTF_8)) {
+            out.write("P\ta\t1\nP\t\nX\n");
+        }
+        new KeyValueLog(file, null, "test map").close();
+        Assertions.assertEquals(1, Files.readAllLines(file.toPath()).size());
+    }
+
+    void testLegacyPropertiesAreImportedOnce() throws Exception {
+        File dir = Assertions.newTempDir();
+        File legacy = new File(dir, "map.properties");
+        Properties properties = new Properties();
+        properties.setProperty("example.com", "4|100|20");
+        try (FileOutputStream out = new FileOutputStream(legacy)) {
+            properties.store(out, null);
+        }
+        File file = new File(dir, "map.log");
+        KeyValueLog log = new KeyValueLog(file, legacy, "test map");
+        Assertions.assertEquals("4|100|20", log.get("example.com"));
+        log.remove("example.com");
+        log.close();
+        Assertions.assertNull(new KeyValueLog(file, legacy, "test map").get("example.com"));
+    }
+
+    void testHostProfilesRoundTrip() throws Exception {
+        File file = new File(Assertions.newTempDir(), "profiles.log");
+        HostProfileStore store = new HostProfileStore(file, null);
+        store.put("example.com", new HostProfileStore.HostProfile(6, 1_000_000, 40));
+        HostProfileStore.HostProfile profile = new HostProfileStore(file, null).get("example.com");
+        Assertions.assertEquals(6, profile.connections);
+        Assertions.assertEquals(1_000_000, profile.bytesPerSecond);
+        Assertions.assertEquals(40, profile.setupMillis);
+        Assertions.assertNull(store.get("other.example.com"));
+    }
+}
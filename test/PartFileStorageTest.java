@@ -0,0 +1,43 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+class PartFileStorageTest {
+    private static void write(DownloadStorage storage, String text, long position) throws Exception {
+        storage.write(new ByteBuffer[] { ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)) }, position);
+    }
+
+    void testPartsAreMergedInOffsetOrder() throws Exception {
+        File target = new File(Assertions.newTempDir(), "file.txt");
+        try (DownloadStorage storage = DownloadStorage.create(StorageMode.PART_FILES, target, 10)) {
+            storage.openSegment(5);
+            storage.openSegment(0);
+            write(storage, "fghij", 5);
+            write(storage, "abcde", 0);
+            storage.finish();
+        }
+        Assertions.assertEquals("abcdefghij", Files.readString(target.toPath()));
+        Assertions.assertFalse(new File(target.getPath() + ".part0").exists(), "part file left behind");
+    }
+
+    void testReopeningASegmentKeepsItsPart() throws Exception {
+        File target = new File(Assertions.newTempDir(), "file.txt");
+        try (DownloadStorage storage = DownloadStorage.create(StorageMode.PART_FILES, target, 10)) {
+            storage.openSegment(0);
+            storage.openSegment(5);
+            write(storage, "fgh", 5);
+            // An orphaned segment adopted again before it got a byte
+            storage.openSegment(0);
+            // The rest of the second segment split off; its part must not take over another one's file
+            storage.openSegment(8);
+            write(storage, "abcde", 0);
+            write(storage, "ij", 8);
+            ByteBuffer read = ByteBuffer.allocate(3);
+            storage.read(read, 5);
+            Assertions.assertEquals("fgh", new String(read.array(), StandardCharsets.US_ASCII));
+            storage.finish();
+        }
+        Assertions.assertEquals("abcdefghij", Files.readString(target.toPath()));
+    }
+}
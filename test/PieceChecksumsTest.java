@@ -0,0 +1,65 @@
+import java.security.MessageDigest;
+import java.util.List;
+
+class PieceChecksumsTest {
+    private static byte[] sha256(byte[]... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    void testSinglePieceIsItsOwnRoot() throws Exception {
+        byte[] a = sha256(new byte[] { 1 });
+        Assertions.assertArrayEquals(a, new PieceChecksums("SHA-256", 16, List.of(a)).merkleRoot());
+    }
+
+    void testOddNodeIsCarriedUpUnchanged() throws Exception {
+        byte[] a = sha256(new byte[] { 1 });
+        byte[] b = sha256(new byte[] { 2 });
+        byte[] c = sha256(new byte[] { 3 });
+        PieceChecksums pieces = new PieceChecksums("SHA-256", 16, List.of(a, b, c));
+        Assertions.assertArrayEquals(sha256(sha256(a, b), c), pieces.merkleRoot());
+    }
+
+    void testFourPiecesMakeABalancedTree() throws Exception {
+        byte[] a = sha256(new byte[] { 1 });
+        byte[] b = sha256(new byte[] { 2 });
+        byte[] c = sha256(new byte[] { 3 });
+        byte[] d = sha256(new byte[] { 4 });
+        PieceChecksums pieces = new PieceChecksums("SHA-256", 16, List.of(a, b, c, d));
+        Assertions.assertArrayEquals(sha256(sha256(a, b), sha256(c, d)), pieces.merkleRoot());
+    }
+
+    void testWithRootRejectsPiecesThatDontHashToIt() throws Exception {
+        byte[] a = sha256(new byte[] { 1 });
+        byte[] b = sha256(new byte[] { 2 });
+        PieceChecksums.withRoot("SHA-256", 16, List.of(a, b), sha256(a, b));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PieceChecksums.withRoot("SHA-256", 16, List.of(b, a), sha256(a, b)));
+    }
+
+    void testFitsCountsAShortLastPiece() throws Exception {
+        byte[] a = sha256(new byte[] { 1 });
+        PieceChecksums pieces = new PieceChecksums("SHA-256", 100, List.of(a, a, a));
+        Assertions.assertTrue(pieces.fits(201), "201 bytes are three pieces");
+        Assertions.assertTrue(pieces.fits(300), "300 bytes are three pieces");
+        Assertions.assertFalse(pieces.fits(200), "200 bytes are two pieces");
+        Assertions.assertFalse(pieces.fits(301), "301 bytes are four pieces");
+    }
+
+    void testMatchesComparesOnePiece() throws Exception {
+        byte[] a = sha256(new byte[] { 1 });
+        byte[] b = sha256(new byte[] { 2 });
+        PieceChecksums pieces = new PieceChecksums("SHA-256", 16, List.of(a, b));
+        Assertions.assertTrue(pieces.matches(1, b), "piece 1");
+        Assertions.assertFalse(pieces.matches(0, b), "piece 0");
+    }
+
+    void testNeedsAPositivePieceSizeAndPieces() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PieceChecksums("SHA-256", 0,
+                List.of(new byte[32])));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PieceChecksums("SHA-256", 16, List.of()));
+    }
+}
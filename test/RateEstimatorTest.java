@@ -0,0 +1,48 @@
+class RateEstimatorTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    void testNoRateBeforeTwoSamples() {
+        RateEstimator estimator = new RateEstimator(4, 0.5);
+        estimator.reset(0, 0);
+        Assertions.assertEquals(0, estimator.getBytesPerSecond());
+        Assertions.assertEquals(-1, estimator.getEtaMillis(1000));
+    }
+
+    void testSteadyRate() {
+        RateEstimator estimator = new RateEstimator(4, 0.5);
+        estimator.reset(0, 0);
+        for (int i = 1; i <= 10; i++) {
+            estimator.sample(i * SECOND, i * 1000L);
+        }
+        Assertions.assertEquals(1000, estimator.getBytesPerSecond());
+        Assertions.assertEquals(5000, estimator.getEtaMillis(5000));
+    }
+
+    void testOneSlowFrameDoesNotResetTheSpeed() {
+        RateEstimator estimator = new RateEstimator(4, 0.2);
+        estimator.reset(0, 0);
+        for (int i = 1; i <= 10; i++) {
+            estimator.sample(i * SECOND, i * 1000L);
+        }
+        // Nothing arrived in the last second
+        estimator.sample(11 * SECOND, 10_000);
+        long rate = estimator.getBytesPerSecond();
+        Assertions.assertTrue(rate > 900 && rate < 1000, "rate " + rate);
+    }
+
+    void testResetForgetsEarlierSamples() {
+        RateEstimator estimator = new RateEstimator(4, 0.5);
+        estimator.reset(0, 0);
+        estimator.sample(SECOND, 1_000_000);
+        estimator.reset(2 * SECOND, 0);
+        estimator.sample(3 * SECOND, 10);
+        Assertions.assertEquals(10, estimator.getBytesPerSecond());
+    }
+
+    void testCounterGoingBackwardsCountsAsNoProgress() {
+        RateEstimator estimator = new RateEstimator(4, 0.5);
+        estimator.reset(0, 5000);
+        estimator.sample(SECOND, 1000);
+        Assertions.assertEquals(0, estimator.getBytesPerSecond());
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class RetryPolicyTest {
+    // Host budgets are shared by the whole JVM, so every test gets hosts of its own
+    private static final AtomicInteger HOSTS = new AtomicInteger();
+
+    private static String freshUrl() {
+        return "http://retry-test-" + HOSTS.incrementAndGet() + ".example/file.bin";
+    }
+
+    void testBackoffStaysUnderTheExponentialCeiling() {
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long ceiling = Math.min(RetryPolicy.BASE_DELAY_MILLIS << (attempt - 1), RetryPolicy.MAX_DELAY_MILLIS);
+            for (int i = 0; i < 200; i++) {
+                long delay = RetryPolicy.backoffMillis(attempt);
+                Assertions.assertTrue(delay >= 0 && delay <= ceiling,
+                        "attempt " + attempt + " waited " + delay + " ms, ceiling " + ceiling);
+            }
+        }
+    }
+
+    void testBackoffIsCappedForLargeAttemptCounts() {
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertTrue(RetryPolicy.backoffMillis(1000) <= RetryPolicy.MAX_DELAY_MILLIS, "over the cap");
+        }
+    }
+
+    void testRetryAfterInSeconds() {
+        Assertions.assertEquals(120_000, RetryPolicy.parseRetryAfter(" 120 "));
+        Assertions.assertEquals(0, RetryPolicy.parseRetryAfter("-5"));
+    }
+
+    void testRetryAfterAsHttpDate() {
+        String in30s = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusSeconds(30));
+        long delay = RetryPolicy.parseRetryAfter(in30s);
+        Assertions.assertTrue(delay > 25_000 && delay <= 30_000, "waited " + delay + " ms");
+        String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().minusHours(1));
+        Assertions.assertEquals(0, RetryPolicy.parseRetryAfter(past));
+    }
+
+    void testMissingOrUnreadableRetryAfter() {
+        Assertions.assertEquals(-1, RetryPolicy.parseRetryAfter(null));
+        Assertions.assertEquals(-1, RetryPolicy.parseRetryAfter(" "));
+        Assertions.assertEquals(-1, RetryPolicy.parseRetryAfter("soon"));
+    }
+
+    void testClientErrorsAreNotRetried() {
+        RetryPolicy policy = new RetryPolicy();
+        Assertions.assertEquals(-1, policy.delayBeforeRetry(freshUrl(), new HttpStatusException("", 404), false, 1));
+    }
+
+    void testTransientErrorsAreRetriedWithBackoff() {
+        RetryPolicy policy = new RetryPolicy();
+        long delay = policy.delayBeforeRetry(freshUrl(), new UnknownHostException(), false, 1);
+        Assertions.assertTrue(delay >= 0 && delay <= RetryPolicy.BASE_DELAY_MILLIS, "waited " + delay + " ms");
+    }
+
+    void testStalledConnectionReconnectsAtOnce() {
+        RetryPolicy policy = new RetryPolicy();
+        // A stall is retried even when the error that came with it wouldn't be
+        Assertions.assertEquals(0, policy.delayBeforeRetry(freshUrl(), new HttpStatusException("", 404), true, 1));
+    }
+
+    void testRetryAfterWinsOverBackoff() {
+        RetryPolicy policy = new RetryPolicy();
+        HttpStatusException throttled = new HttpStatusException("", 503, 7000);
+        Assertions.assertEquals(7000, policy.delayBeforeRetry(freshUrl(), throttled, false, 1));
+    }
+
+    void testRetryAfterBeyondTheLimitGivesUp() {
+        RetryPolicy policy = new RetryPolicy();
+        HttpStatusException down = new HttpStatusException("", 503, RetryPolicy.MAX_RETRY_AFTER_MILLIS + 1);
+        Assertions.assertEquals(-1, policy.delayBeforeRetry(freshUrl(), down, false, 1));
+    }
+
+    void testGivesUpAfterTooManyFailuresWithoutProgress() {
+        RetryPolicy policy = new RetryPolicy();
+        IOException reset = new IOException("reset");
+        String url = freshUrl();
+        Assertions.assertTrue(policy.delayBeforeRetry(url, reset, false,
+                RetryPolicy.MAX_ATTEMPTS_WITHOUT_PROGRESS) >= 0, "last attempt refused");
+        Assertions.assertEquals(-1, policy.delayBeforeRetry(url, reset, false,
+                RetryPolicy.MAX_ATTEMPTS_WITHOUT_PROGRESS + 1));
+    }
+
+    void testDownloadBudgetRunsOutAndProgressRefillsIt() {
+        RetryPolicy policy = new RetryPolicy();
+        IOException reset = new IOException("reset");
+        // Every retry on a host of its own, so only the download's budget is spent
+        for (int i = 0; i < RetryBudget.DOWNLOAD_CAPACITY; i++) {
+            Assertions.assertTrue(policy.delayBeforeRetry(freshUrl(), reset, false, 1) >= 0, "retry " + i + " refused");
+        }
+        Assertions.assertEquals(-1, policy.delayBeforeRetry(freshUrl(), reset, false, 1));
+        policy.recordProgress(freshUrl(), RetryBudget.BYTES_PER_TOKEN);
+        Assertions.assertTrue(policy.delayBeforeRetry(freshUrl(), reset, false, 1) >= 0, "progress didn't pay");
+    }
+
+    void testBudgetNeverExceedsItsCapacity() {
+        RetryBudget budget = new RetryBudget(2, 0);
+        budget.deposit(100 * RetryBudget.BYTES_PER_TOKEN);
+        Assertions.assertTrue(budget.tryAcquire(), "first token");
+        Assertions.assertTrue(budget.tryAcquire(), "second token");
+        Assertions.assertFalse(budget.tryAcquire(), "more tokens than the capacity");
+    }
+
+    void testBudgetRefillsWithTime() throws InterruptedException {
+        RetryBudget budget = new RetryBudget(1, 100);
+        Assertions.assertTrue(budget.tryAcquire(), "first token");
+        Thread.sleep(50);
+        Assertions.assertTrue(budget.tryAcquire(), "no token after 50 ms at 100 per second");
+    }
+}
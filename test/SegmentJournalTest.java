@@ -0,0 +1,121 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+class SegmentJournalTest {
+    private static final String URL = "http://example.com/file.bin";
+    private static final long SIZE = 1000;
+
+    private static File target() throws Exception {
+        File target = new File(Assertions.newTempDir(), "file.bin");
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(SIZE);
+        }
+        return target;
+    }
+
+    private static void assertRanges(List<long[]> ranges, long... bounds) {
+        Assertions.assertEquals(bounds.length / 2, ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            Assertions.assertEquals(bounds[i * 2], ranges.get(i)[0]);
+            Assertions.assertEquals(bounds[i * 2 + 1], ranges.get(i)[1]);
+        }
+    }
+
+    void testFreshJournalMissesTheWholeFile() throws Exception {
+        try (SegmentJournal journal = SegmentJournal.open(target(), URL, SIZE, "\"v1\"")) {
+            Assertions.assertEquals(0, journal.getCompletedBytes());
+            Assertions.assertEquals(0, journal.getPrefixEnd());
+            assertRanges(journal.getMissingRanges(), 0, SIZE - 1);
+        }
+    }
+
+    void testCheckpointedRangesAreReplayed() throws Exception {
+        File target = target();
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            journal.record(0, 100);
+            journal.record(500, 600);
+            journal.checkpoint();
+        }
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            Assertions.assertEquals(200, journal.getCompletedBytes());
+            Assertions.assertEquals(100, journal.getPrefixEnd());
+            assertRanges(journal.getMissingRanges(), 100, 499, 600, SIZE - 1);
+        }
+    }
+
+    void testRangesRecordedAfterTheLastCheckpointAreLost() throws Exception {
+        File target = target();
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            journal.record(0, 100);
+            journal.checkpoint();
+            journal.record(100, 300);
+        }
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            Assertions.assertEquals(100, journal.getCompletedBytes());
+        }
+    }
+
+    void testOverlappingRangesMerge() throws Exception {
+        try (SegmentJournal journal = SegmentJournal.open(target(), URL, SIZE, "\"v1\"")) {
+            journal.record(100, 200);
+            journal.record(150, 300);
+            journal.record(0, 100);
+            journal.record(120, 130);
+            Assertions.assertEquals(300, journal.getCompletedBytes());
+            Assertions.assertEquals(300, journal.getPrefixEnd());
+            assertRanges(journal.getMissingRanges(), 300, SIZE - 1);
+        }
+    }
+
+    void testTornLastLineIsIgnored() throws Exception {
+        File target = target();
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            journal.record(0, 100);
+            journal.checkpoint();
+        }
+        try (FileWriter out = new FileWriter(SegmentJournal.journalFile(target), StandardCharsets.UTF_8, true)) {
+            out.write("+ 200 3");
+        }
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            // What is left of "+ 200 300" ends before it starts
+            Assertions.assertEquals(100, journal.getCompletedBytes());
+            assertRanges(journal.getMissingRanges(), 100, SIZE - 1);
+        }
+    }
+
+    void testAnotherValidatorStartsOver() throws Exception {
+        File target = target();
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            journal.record(0, 100);
+            journal.checkpoint();
+        }
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v2\"")) {
+            Assertions.assertEquals(0, journal.getCompletedBytes());
+        }
+    }
+
+    void testTargetOfTheWrongLengthStartsOver() throws Exception {
+        File target = target();
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            journal.record(0, 100);
+            journal.checkpoint();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(SIZE / 2);
+        }
+        try (SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"")) {
+            Assertions.assertEquals(0, journal.getCompletedBytes());
+        }
+    }
+
+    void testDeleteRemovesTheFile() throws Exception {
+        File target = target();
+        SegmentJournal journal = SegmentJournal.open(target, URL, SIZE, "\"v1\"");
+        Assertions.assertTrue(SegmentJournal.journalFile(target).exists(), "no journal file");
+        journal.delete();
+        Assertions.assertFalse(SegmentJournal.journalFile(target).exists(), "journal file left behind");
+    }
+}
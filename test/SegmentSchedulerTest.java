@@ -0,0 +1,83 @@
+import java.util.List;
+
+class SegmentSchedulerTest {
+    void testFileIsCutIntoEqualSegments() {
+        SegmentScheduler scheduler = new SegmentScheduler(1000, 3, 10);
+        List<Segment> segments = scheduler.getSegments();
+        Assertions.assertEquals(3, segments.size());
+        Assertions.assertEquals(332, segments.get(0).getEndPos());
+        Assertions.assertEquals(333, segments.get(1).getStartPos());
+        Assertions.assertEquals(999, segments.get(2).getEndPos());
+    }
+
+    void testPendingSegmentsComeFirst() {
+        SegmentScheduler scheduler = new SegmentScheduler(1000, 2, 10);
+        Assertions.assertEquals(0, scheduler.next().getIndex());
+        Assertions.assertEquals(1, scheduler.next().getIndex());
+        Assertions.assertFalse(scheduler.hasUnclaimed(), "segments left unclaimed");
+    }
+
+    void testOrphanedSegmentIsAdoptedBeforeSplitting() {
+        SegmentScheduler scheduler = new SegmentScheduler(1000, 2, 10);
+        Segment first = scheduler.next();
+        scheduler.next();
+        first.claim(100);
+        first.release(true);
+        Segment adopted = scheduler.next();
+        Assertions.assertTrue(adopted == first, "orphan not adopted");
+        Assertions.assertEquals(100, adopted.getPosition());
+    }
+
+    void testIdleWorkerSplitsTheSlowestSegment() {
+        SegmentScheduler scheduler = new SegmentScheduler(1000, 2, 10);
+        Segment first = scheduler.next();
+        Segment second = scheduler.next();
+        first.claim(400);
+        Segment upper = scheduler.next();
+        // Neither has a measured rate, so the one with more left is split
+        Assertions.assertEquals(second.getStartPos() + 250, upper.getStartPos());
+        Assertions.assertEquals(999, upper.getEndPos());
+        Assertions.assertEquals(Segment.State.ACTIVE, upper.getState());
+        Assertions.assertEquals(3, scheduler.getSegments().size());
+    }
+
+    void testNothingLeftWorthSplitting() {
+        SegmentScheduler scheduler = new SegmentScheduler(100, 1, 100);
+        scheduler.next();
+        Assertions.assertNull(scheduler.next());
+    }
+
+    void testResumeBuildsSegmentsFromMissingRanges() {
+        List<long[]> missing = List.of(new long[] { 100, 199 }, new long[] { 500, 999 });
+        SegmentScheduler scheduler = new SegmentScheduler(missing, 3, 100);
+        List<Segment> segments = scheduler.getSegments();
+        Assertions.assertEquals(3, segments.size());
+        Assertions.assertEquals(100, segments.get(0).getStartPos());
+        Assertions.assertEquals(500, segments.get(1).getStartPos());
+        Assertions.assertEquals(749, segments.get(1).getEndPos());
+        Assertions.assertEquals(750, segments.get(2).getStartPos());
+    }
+
+    void testProgressAndPersistedFrontier() {
+        SegmentScheduler scheduler = new SegmentScheduler(1000, 2, 10);
+        Segment first = scheduler.next();
+        Segment second = scheduler.next();
+        first.claim(100);
+        second.claim(50);
+        Assertions.assertEquals(150, scheduler.getReceivedBytes());
+        first.markPersisted(100);
+        Assertions.assertEquals(100, scheduler.getPersistedFrontier());
+        Assertions.assertTrue(scheduler.isPersisted(0, 99), "prefix not persisted");
+        Assertions.assertFalse(scheduler.isPersisted(0, 100), "byte 100 persisted");
+    }
+
+    void testRequeuedRangeIsNotCountedTwice() {
+        SegmentScheduler scheduler = new SegmentScheduler(1000, 1, 10);
+        Segment only = scheduler.next();
+        only.claim(1000);
+        scheduler.requeue(0, 99);
+        Assertions.assertEquals(900, scheduler.getReceivedBytes());
+        Assertions.assertTrue(scheduler.hasUnclaimed(), "requeued range not pending");
+        Assertions.assertFalse(scheduler.isComplete(), "complete with a requeued range");
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class SegmentTest {
+    void testClaimStopsAtTheEnd() {
+        Segment segment = new Segment(0, 100, 199);
+        Assertions.assertEquals(60, segment.claim(60));
+        Assertions.assertEquals(40, segment.claim(60));
+        Assertions.assertEquals(0, segment.claim(60));
+        Assertions.assertTrue(segment.isComplete(), "not complete");
+        Assertions.assertEquals(Segment.State.DONE, segment.getState());
+        Assertions.assertEquals(100, segment.getReceivedBytes());
+    }
+
+    void testSplitHandsOverTheUpperHalfOfWhatIsLeft() {
+        Segment segment = new Segment(0, 0, 999);
+        segment.start(null);
+        segment.claim(200);
+        Segment upper = segment.split(1, 100);
+        Assertions.assertEquals(600, upper.getStartPos());
+        Assertions.assertEquals(999, upper.getEndPos());
+        Assertions.assertEquals(599, segment.getEndPos());
+        Assertions.assertEquals(400, segment.getRemaining());
+    }
+
+    void testClaimAfterASplitDropsTheStolenBytes() {
+        Segment segment = new Segment(0, 0, 999);
+        segment.start(null);
+        segment.split(1, 100);
+        Assertions.assertEquals(500, segment.claim(800));
+        Assertions.assertTrue(segment.isComplete(), "not complete");
+    }
+
+    void testSmallOrFinishedSegmentsAreNotSplit() {
+        Segment small = new Segment(0, 0, 199);
+        Assertions.assertNull(small.split(1, 101));
+        Segment done = new Segment(0, 0, 999);
+        done.claim(1000);
+        Assertions.assertNull(done.split(1, 1));
+    }
+
+    void testReleaseOrphansAnUnfinishedSegment() {
+        Segment segment = new Segment(0, 0, 99);
+        segment.start(null);
+        segment.claim(10);
+        segment.release(false);
+        Assertions.assertEquals(Segment.State.ACTIVE, segment.getState());
+        segment.release(true);
+        Assertions.assertEquals(Segment.State.ORPHANED, segment.getState());
+        segment.claim(90);
+        segment.release(true);
+        Assertions.assertEquals(Segment.State.DONE, segment.getState());
+    }
+
+    void testStallNeedsAConnectionAndSilence() {
+        Segment segment = new Segment(0, 0, 99);
+        long timeout = TimeUnit.SECONDS.toNanos(1);
+        long later = System.nanoTime() + timeout * 2;
+        Assertions.assertFalse(segment.isStalled(later, timeout), "stalled without a connection");
+        segment.start(() -> { });
+        Assertions.assertFalse(segment.isStalled(System.nanoTime(), timeout), "stalled right after connecting");
+        Assertions.assertTrue(segment.isStalled(later, timeout), "silent connection not stalled");
+    }
+
+    void testWaitingOnLocalBackpressureIsNotAStall() {
+        Segment segment = new Segment(0, 0, 99);
+        long timeout = TimeUnit.SECONDS.toNanos(1);
+        segment.start(() -> { });
+        segment.beginLocalWait();
+        Assertions.assertFalse(segment.isStalled(System.nanoTime() + timeout * 2, timeout), "stalled while waiting");
+        segment.endLocalWait();
+        // The clock starts over once the wait is done
+        Assertions.assertFalse(segment.isStalled(System.nanoTime() + timeout / 2, timeout), "clock kept running");
+        Assertions.assertTrue(segment.isStalled(System.nanoTime() + timeout * 2, timeout), "clock stopped for good");
+    }
+
+    void testAbortClosesTheConnectionOnce() {
+        Segment segment = new Segment(0, 0, 99);
+        AtomicBoolean closed = new AtomicBoolean();
+        segment.start(() -> closed.set(true));
+        segment.abort();
+        Assertions.assertTrue(closed.get(), "connection left open");
+        Assertions.assertTrue(segment.consumeAbort(), "abort not reported");
+        Assertions.assertFalse(segment.consumeAbort(), "abort reported twice");
+    }
+}
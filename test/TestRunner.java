@@ -0,0 +1,69 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Runs the unit tests of the engine's pure logic without a test framework, since the project has
+// no build file to pull one in:
+//
+//   javac -d out src/*.java test/*.java
+//   java -cp out TestRunner [TestClass ...]
+//
+// Every void no-argument method whose name starts with "test" runs on a fresh instance of its
+// class. Exits with status 1 if any test failed.
+class TestRunner {
+    private static final Class<?>[] TESTS = {
+        BandwidthLimiterTest.class,
+        BufferPoolTest.class,
+        ChecksumTest.class,
+        ContentRangeTest.class,
+        DownloadStoreTest.class,
+        KeyValueLogTest.class,
+        PartFileStorageTest.class,
+        PieceChecksumsTest.class,
+        RateEstimatorTest.class,
+        RetryPolicyTest.class,
+        SegmentJournalTest.class,
+        SegmentSchedulerTest.class,
+        SegmentTest.class
+    };
+
+    public static void main(String[] args) throws Exception {
+        Class<?>[] classes = TESTS;
+        if (args.length > 0) {
+            classes = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                classes[i] = Class.forName(args[i]);
+            }
+        }
+        int run = 0;
+        int failed = 0;
+        for (Class<?> testClass : classes) {
+            Method[] methods = testClass.getDeclaredMethods();
+            // Declared order isn't guaranteed, names are
+            Arrays.sort(methods, Comparator.comparing(Method::getName));
+            for (Method method : methods) {
+                if (!method.getName().startsWith("test") || method.getParameterCount() != 0
+                        || Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                run++;
+                String name = testClass.getName() + "." + method.getName();
+                try {
+                    method.setAccessible(true);
+                    var constructor = testClass.getDeclaredConstructor();
+                    constructor.setAccessible(true);
+                    method.invoke(constructor.newInstance());
+                    System.out.println("PASS " + name);
+                } catch (InvocationTargetException e) {
+                    failed++;
+                    System.out.println("FAIL " + name);
+                    e.getCause().printStackTrace(System.out);
+                }
+            }
+        }
+        System.out.println(run + " tests, " + failed + " failed");
+        System.exit(failed > 0 ? 1 : 0);
+    }
+}